@@ -0,0 +1,51 @@
+package org.apterous.ufcoptimizer;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A {@link SkillKernel} using the incubating Vector API. It lives in its own
+ * source root, compiled with {@code --add-modules jdk.incubator.vector}, so
+ * that the rest of the solver compiles and runs without the module; {@link
+ * SkillKernel#vector} loads it by name when the module is present.
+ */
+final class VectorSkillKernel extends SkillKernel {
+
+  private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+  /**
+   * The kernel, or null if the preferred vectors do not evenly cover
+   * {@link #STRIDE} lanes, as vectors wider than the stride would not.
+   */
+  static final VectorSkillKernel INSTANCE =
+      STRIDE % SPECIES.length() == 0 ? new VectorSkillKernel() : null;
+
+  private VectorSkillKernel() {}
+
+  @Override
+  void add(int[] values, int[] vectors, int offset, boolean subtract) {
+    for (int i = 0; i < STRIDE; i += SPECIES.length()) {
+      IntVector value = IntVector.fromArray(SPECIES, values, i);
+      IntVector row = IntVector.fromArray(SPECIES, vectors, offset + i);
+      (subtract ? value.sub(row) : value.add(row)).intoArray(values, i);
+    }
+  }
+
+  @Override
+  int violation(int[] values, int[] minimums, int[] maximums) {
+    IntVector sum = IntVector.zero(SPECIES);
+    for (int i = 0; i < STRIDE; i += SPECIES.length()) {
+      IntVector value = IntVector.fromArray(SPECIES, values, i);
+      IntVector minimum = IntVector.fromArray(SPECIES, minimums, i);
+      IntVector maximum = IntVector.fromArray(SPECIES, maximums, i);
+      sum = sum.add(minimum.sub(value).max(0)).add(value.sub(maximum).max(0));
+    }
+    return sum.reduceLanes(VectorOperators.ADD);
+  }
+
+  @Override
+  String getName() {
+    return "vector/" + SPECIES.vectorBitSize();
+  }
+}
@@ -0,0 +1,94 @@
+package org.apterous.ufcoptimizer;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Chooses which {@link MoveOperator} to try next, favouring the ones that have
+ * recently been producing improvements.
+ *
+ * <p>This is probability matching: each operator has a quality estimate that
+ * is an exponential moving average of its rewards, and is chosen with
+ * probability proportional to that quality. Every operator keeps a minimum
+ * probability so that one which was unproductive early can still be
+ * rediscovered later in the search.
+ *
+ * <p>Not thread-safe; each walk should own its own instance.
+ */
+final class AdaptiveOperatorSelector {
+
+  private static final MoveOperator[] OPERATORS = MoveOperator.values();
+
+  // How quickly the quality estimates forget old rewards.
+  private static final double ADAPTATION_RATE = 0.01;
+  // The smallest probability any operator can have.
+  private static final double MINIMUM_PROBABILITY = 0.05;
+  // Starting quality, and the floor that stops any quality reaching zero.
+  private static final double INITIAL_QUALITY = 1.0;
+  private static final double MINIMUM_QUALITY = 1e-6;
+
+  private final double[] quality = new double[OPERATORS.length];
+  private final double[] cumulativeProbability = new double[OPERATORS.length];
+
+  AdaptiveOperatorSelector() {
+    checkArgument(MINIMUM_PROBABILITY * OPERATORS.length < 1);
+    Arrays.fill(quality, INITIAL_QUALITY);
+    updateProbabilities();
+  }
+
+  /** Picks an operator at random according to the current probabilities. */
+  MoveOperator select(RandomGenerator random) {
+    double draw = random.nextDouble();
+    for (int i = 0; i < OPERATORS.length - 1; ++i) {
+      if (draw < cumulativeProbability[i]) {
+        return OPERATORS[i];
+      }
+    }
+    return OPERATORS[OPERATORS.length - 1];
+  }
+
+  /**
+   * Records the outcome of a step taken with the given operator. The gain is
+   * the reduction in naughtiness (or whatever is being minimized); steps that
+   * were rejected or made things worse should report zero.
+   */
+  void reward(MoveOperator operator, double gain) {
+    int index = operator.ordinal();
+    double reward = gain > 0 ? Math.min(gain, 1.0) : 0.0;
+    quality[index] = Math.max(MINIMUM_QUALITY, quality[index] + ADAPTATION_RATE * (reward - quality[index]));
+    updateProbabilities();
+  }
+
+  /** The probability that {@link #select} currently returns the given operator. */
+  double getProbability(MoveOperator operator) {
+    int index = operator.ordinal();
+    return cumulativeProbability[index] - (index == 0 ? 0 : cumulativeProbability[index - 1]);
+  }
+
+  /** The quality estimates, by operator ordinal, to be restored later with {@link #setQualities}. */
+  double[] getQualities() {
+    return quality.clone();
+  }
+
+  /** Restores quality estimates saved by {@link #getQualities}. */
+  void setQualities(double[] qualities) {
+    checkArgument(qualities.length == quality.length);
+    System.arraycopy(qualities, 0, quality, 0, quality.length);
+    updateProbabilities();
+  }
+
+  private void updateProbabilities() {
+    double totalQuality = 0;
+    for (double q : quality) {
+      totalQuality += q;
+    }
+    double share = 1 - MINIMUM_PROBABILITY * OPERATORS.length;
+    double cumulative = 0;
+    for (int i = 0; i < OPERATORS.length; ++i) {
+      cumulative += MINIMUM_PROBABILITY + share * quality[i] / totalQuality;
+      cumulativeProbability[i] = cumulative;
+    }
+  }
+}
@@ -4,17 +4,30 @@ import com.google.common.collect.ImmutableMap;
 
 import javax.annotation.concurrent.Immutable;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 /**
  * An immutable representation of a card representing a boost in the game.
  */
 @Immutable
 final class BoostCard extends Card {
 
-  // TODO: model usage count. (Not a constraint, but nice to optimize.)
+  // Usage count is not a constraint, but it is nice to optimize: spending a
+  // boost with several uses left is cheaper than spending its last one.
+  private final int usageCount;
+
   public BoostCard(
       int id,
       ImmutableMap<Skill, Integer> skillModifiers, Tier tier) {
+    this(id, skillModifiers, tier, 1);
+  }
+
+  public BoostCard(
+      int id,
+      ImmutableMap<Skill, Integer> skillModifiers, Tier tier, int usageCount) {
     super(id, skillModifiers, tier);
+    checkArgument(usageCount > 0);
+    this.usageCount = usageCount;
   }
 
   @Override
@@ -24,4 +37,19 @@ final class BoostCard extends Card {
         getTier().name().charAt(0),
         getSkillModifierDescription());
   }
+
+  @Override
+  public boolean hasSameAttributes(Card other) {
+    return super.hasSameAttributes(other) && ((BoostCard) other).usageCount == usageCount;
+  }
+
+  @Override
+  BoostCard withTier(Tier tier) {
+    return new BoostCard(getIndex(), getSkillModifiers(), tier, usageCount);
+  }
+
+  /** How many more times this boost can be used. */
+  public int getUsageCount() {
+    return usageCount;
+  }
 }
@@ -0,0 +1,32 @@
+package org.apterous.ufcoptimizer;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A flag that can be tripped by any thread to ask a running solve to stop early.
+ *
+ * <p>Solvers poll the token periodically rather than on every iteration, so a
+ * cancelled solve may run for a short while before it notices. The best
+ * selection found so far is still returned.
+ */
+@ThreadSafe
+final class CancellationToken {
+
+  /** A token that is never cancelled. */
+  static final CancellationToken NONE = new CancellationToken();
+
+  private volatile boolean cancelled;
+
+  /** Asks any solve observing this token to stop. Cannot be undone. */
+  void cancel() {
+    if (this == NONE) {
+      throw new UnsupportedOperationException("The NONE token cannot be cancelled");
+    }
+    cancelled = true;
+  }
+
+  /** Whether {@link #cancel()} has been called. */
+  boolean isCancelled() {
+    return cancelled;
+  }
+}
@@ -32,6 +32,18 @@ public abstract class Card {
     return id;
   }
 
+  /**
+   * Whether the given card has the same id and attributes as this one. Unlike
+   * {@link #equals}, which only compares ids, this can tell an edited card
+   * from the card it replaced.
+   */
+  public boolean hasSameAttributes(Card other) {
+    return other.getClass() == getClass()
+        && other.id == id
+        && other.tier == tier
+        && other.skillModifiers.equals(skillModifiers);
+  }
+
   public int getIndex() {
     return id;
   }
@@ -40,6 +52,16 @@ public abstract class Card {
     return tier;
   }
 
+  /**
+   * Returns a copy of this card at the given tier, with the same id and
+   * everything else, as the card would be after an upgrade.
+   */
+  abstract Card withTier(Tier tier);
+
+  protected ImmutableMap<Skill, Integer> getSkillModifiers() {
+    return skillModifiers;
+  }
+
   public int getSkillModifier(Skill skill) {
     checkNotNull(skill);
     return skillModifiers.getOrDefault(skill, 0);
@@ -0,0 +1,278 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An immutable snapshot of the cards available, with the indexes derived
+ * from them that do not depend on any particular puzzle.
+ *
+ * <p>Many puzzles can share one catalog: each {@link Puzzle} is a thin view
+ * over it, allocating only the tables that depend on the puzzle itself.
+ *
+ * <p>A new snapshot is produced by {@link #update} when the card files
+ * change. Cards that did not change keep their instances, and puzzles and
+ * solves holding an older snapshot are unaffected. The derived indexes are
+ * rebuilt from scratch, which for a few hundred cards is cheap next to a
+ * single solve.
+ */
+@Immutable
+final class CardCatalog {
+
+  /**
+   * What changed between two snapshots. Cards are told apart by index, which
+   * is their line in the card file, so inserting a line reports every later
+   * card of that file, and every boost, as changed.
+   */
+  @Immutable
+  static final class Diff {
+    final int added;
+    final int removed;
+    final int changed;
+
+    Diff(int added, int removed, int changed) {
+      this.added = added;
+      this.removed = removed;
+      this.changed = changed;
+    }
+
+    boolean isEmpty() {
+      return added == 0 && removed == 0 && changed == 0;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("+%d -%d ~%d", added, removed, changed);
+    }
+  }
+
+  private static final int SKILL_STRIDE = SkillKernel.STRIDE;
+  private static final int SUMMARY_SKILL_STRIDE = SummarySkill.values().length;
+
+  private final long version;
+  private final ImmutableList<MoveCard> moves;
+  private final ImmutableList<BoostCard> boosts;
+  private final ImmutableList<MoveCard> strikingMoves;
+  private final ImmutableList<MoveCard> grapplingMoves;
+  private final ImmutableMap<MoveType, ImmutableList<MoveCard>> movesByType;
+  private final ImmutableMap<Style, ImmutableList<MoveCard>> movesByStyle;
+  private final ImmutableMap<Tier, ImmutableList<Card>> cardsByTier;
+  // Row i holds the skill modifiers of the card with index i, by skill
+  // ordinal, padded with zeros to the kernel stride.
+  private final int[] skillVectors;
+  // Row i holds the sums of the skill modifiers of the card with index i that
+  // roll up into each summary skill, by summary skill ordinal.
+  private final int[] summarySkillVectors;
+  // Entry i is the card with index i, or null if there is none.
+  private final Card[] cardsByIndex;
+  private final int maximumIndex;
+  private final Diff diff;
+
+  private CardCatalog(
+      long version, ImmutableList<MoveCard> moves, ImmutableList<BoostCard> boosts, Diff diff) {
+    this.version = version;
+    this.moves = moves;
+    this.boosts = boosts;
+    this.strikingMoves = filter(moves, card -> card.getMoveType().isStriking());
+    this.grapplingMoves = filter(moves, card -> !card.getMoveType().isStriking());
+
+    EnumMap<MoveType, ImmutableList<MoveCard>> byType = new EnumMap<>(MoveType.class);
+    for (MoveType type : MoveType.values()) {
+      byType.put(type, filter(moves, card -> card.getMoveType().equals(type)));
+    }
+    this.movesByType = Maps.immutableEnumMap(byType);
+
+    EnumMap<Style, ImmutableList<MoveCard>> byStyle = new EnumMap<>(Style.class);
+    for (Style style : Style.values()) {
+      byStyle.put(style, filter(moves, card -> card.getStyle().equals(style)));
+    }
+    this.movesByStyle = Maps.immutableEnumMap(byStyle);
+
+    ImmutableList<Card> allCards =
+        ImmutableList.<Card>builder().addAll(moves).addAll(boosts).build();
+    EnumMap<Tier, ImmutableList<Card>> byTier = new EnumMap<>(Tier.class);
+    for (Tier tier : Tier.values()) {
+      byTier.put(tier, filter(allCards, card -> card.getTier().equals(tier)));
+    }
+    this.cardsByTier = Maps.immutableEnumMap(byTier);
+
+    int maximumIndex = maximumIndex(moves, boosts);
+    this.skillVectors = new int[(maximumIndex + 1) * SKILL_STRIDE];
+    moves.forEach(card -> writeSkillVector(card, skillVectors));
+    boosts.forEach(card -> writeSkillVector(card, skillVectors));
+    this.summarySkillVectors = new int[(maximumIndex + 1) * SUMMARY_SKILL_STRIDE];
+    for (int index = 0; index <= maximumIndex; ++index) {
+      for (Skill skill : Skill.values()) {
+        int summary = Selection.getSummarySkillOrdinal(skill);
+        if (summary >= 0) {
+          summarySkillVectors[index * SUMMARY_SKILL_STRIDE + summary] +=
+              skillVectors[index * SKILL_STRIDE + skill.ordinal()];
+        }
+      }
+    }
+    this.cardsByIndex = new Card[maximumIndex + 1];
+    moves.forEach(card -> cardsByIndex[card.getIndex()] = card);
+    boosts.forEach(card -> cardsByIndex[card.getIndex()] = card);
+    this.maximumIndex = maximumIndex;
+    this.diff = diff;
+  }
+
+  /** Builds a first snapshot. */
+  static CardCatalog of(ImmutableList<MoveCard> moves, ImmutableList<BoostCard> boosts) {
+    checkNotNull(moves);
+    checkNotNull(boosts);
+    return new CardCatalog(0, moves, boosts, new Diff(moves.size() + boosts.size(), 0, 0));
+  }
+
+  /** Builds a first snapshot from freshly parsed cards. */
+  static CardCatalog of(CardFileParser.Cards cards) {
+    return of(cards.availableMoves, cards.availableBoosts);
+  }
+
+  /**
+   * Returns a snapshot of the given cards, reusing this one's instances of
+   * cards that did not change. Returns this snapshot itself if nothing
+   * changed.
+   */
+  CardCatalog update(CardFileParser.Cards cards) {
+    Map<Integer, Card> oldById = new HashMap<>();
+    moves.forEach(card -> oldById.put(card.getIndex(), card));
+    boosts.forEach(card -> oldById.put(card.getIndex(), card));
+
+    int[] counts = new int[3];  // added, changed, unchanged
+    ImmutableList<MoveCard> newMoves = reuse(cards.availableMoves, oldById, counts);
+    ImmutableList<BoostCard> newBoosts = reuse(cards.availableBoosts, oldById, counts);
+    int removed = oldById.size() - counts[1] - counts[2];
+    Diff diff = new Diff(counts[0], removed, counts[1]);
+    return diff.isEmpty() ? this : new CardCatalog(version + 1, newMoves, newBoosts, diff);
+  }
+
+  private static <CardT extends Card> ImmutableList<CardT> filter(
+      ImmutableList<CardT> cards, Predicate<? super CardT> belongs) {
+    return cards.stream().filter(belongs).collect(ImmutableList.toImmutableList());
+  }
+
+  // Returns the new cards, substituting the old instance for any card whose
+  // attributes have not changed, and counting what was added or changed.
+  @SuppressWarnings("unchecked")
+  private static <CardT extends Card> ImmutableList<CardT> reuse(
+      ImmutableList<CardT> newCards, Map<Integer, Card> oldById, int[] counts) {
+    ImmutableList.Builder<CardT> result = ImmutableList.builderWithExpectedSize(newCards.size());
+    for (CardT card : newCards) {
+      Card old = oldById.get(card.getIndex());
+      if (old == null) {
+        ++counts[0];
+        result.add(card);
+      } else if (old.hasSameAttributes(card)) {
+        ++counts[2];
+        result.add((CardT) old);
+      } else {
+        ++counts[1];
+        result.add(card);
+      }
+    }
+    return result.build();
+  }
+
+  private static int maximumIndex(ImmutableList<MoveCard> moves, ImmutableList<BoostCard> boosts) {
+    int maximumIndex = 0;
+    for (Card card : moves) {
+      maximumIndex = Math.max(maximumIndex, card.getIndex());
+    }
+    for (Card card : boosts) {
+      maximumIndex = Math.max(maximumIndex, card.getIndex());
+    }
+    return maximumIndex;
+  }
+
+  private static void writeSkillVector(Card card, int[] skillVectors) {
+    int offset = card.getIndex() * SKILL_STRIDE;
+    for (Skill skill : Skill.values()) {
+      skillVectors[offset + skill.ordinal()] = card.getSkillModifier(skill);
+    }
+  }
+
+  /** Counts up from 0 with each snapshot that differs from the last. */
+  long getVersion() {
+    return version;
+  }
+
+  /** What changed since the previous snapshot. */
+  Diff getDiff() {
+    return diff;
+  }
+
+  /** The largest card index in the catalog. Indices are positive. */
+  int getMaximumIndex() {
+    return maximumIndex;
+  }
+
+  /** The card with the given index, or null if there is none. */
+  Card getCard(int index) {
+    return index >= 0 && index < cardsByIndex.length ? cardsByIndex[index] : null;
+  }
+
+  ImmutableList<MoveCard> getMoves() {
+    return moves;
+  }
+
+  ImmutableList<BoostCard> getBoosts() {
+    return boosts;
+  }
+
+  ImmutableList<MoveCard> getStrikingMoves() {
+    return strikingMoves;
+  }
+
+  ImmutableList<MoveCard> getGrapplingMoves() {
+    return grapplingMoves;
+  }
+
+  ImmutableList<MoveCard> getMovesOfType(MoveType moveType) {
+    return movesByType.get(moveType);
+  }
+
+  ImmutableList<MoveCard> getMovesOfStyle(Style style) {
+    return movesByStyle.get(style);
+  }
+
+  /** Moves and boosts of the given tier. */
+  ImmutableList<Card> getCardsOfTier(Tier tier) {
+    return cardsByTier.get(tier);
+  }
+
+  /**
+   * The skill modifiers of every card, as one flat array: the modifier of the
+   * card with index {@code i} for skill {@code s} is at
+   * {@code i * SkillKernel.STRIDE + s.ordinal()}, and the lanes of each row
+   * past the last skill are 0. Callers must not modify it.
+   */
+  int[] getSkillVectors() {
+    return skillVectors;
+  }
+
+  /**
+   * The contributions of every card to the summary skills, laid out as for
+   * {@link #getSkillVectors} but by {@link SummarySkill} ordinal: the sum of
+   * the card's modifiers to the skills rolling up into each summary skill,
+   * before they are averaged. Always 0 for CHEMISTRY. Callers must not
+   * modify it.
+   */
+  int[] getSummarySkillVectors() {
+    return summarySkillVectors;
+  }
+
+  /** Same as {@link Card#getSkillModifier}, without the map lookup. */
+  int getSkillModifier(Card card, Skill skill) {
+    return skillVectors[card.getIndex() * SKILL_STRIDE + skill.ordinal()];
+  }
+}
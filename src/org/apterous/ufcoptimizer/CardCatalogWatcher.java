@@ -0,0 +1,133 @@
+package org.apterous.ufcoptimizer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Keeps a {@link CardCatalog} in step with the card files on disk.
+ *
+ * <p>The current snapshot is published through an atomic reference: solves
+ * that already took a snapshot keep using it, and the next call to
+ * {@link #getCurrent()} sees the new one. If a reload fails (for example
+ * because a file is half-written) the previous snapshot stays current and the
+ * next change is tried again.
+ */
+final class CardCatalogWatcher implements Closeable {
+
+  // How long the files must be quiet before reloading, so that an editor
+  // saving in several writes triggers one reload rather than many.
+  private static final long SETTLE_MILLIS = 200;
+
+  private final Path moveFilePath;
+  private final Path boostFilePath;
+  private final AtomicReference<CardCatalog> current;
+  private WatchService watchService;
+  private Thread thread;
+
+  /** Loads the files for the first time. Call {@link #start()} to watch them for changes. */
+  CardCatalogWatcher(Path moveFilePath, Path boostFilePath) throws IOException {
+    this.moveFilePath = checkNotNull(moveFilePath).toAbsolutePath();
+    this.boostFilePath = checkNotNull(boostFilePath).toAbsolutePath();
+    this.current = new AtomicReference<>(
+        CardCatalog.of(new CardFileParser(this.moveFilePath, this.boostFilePath).load()));
+  }
+
+  /** The latest successfully loaded snapshot. */
+  CardCatalog getCurrent() {
+    return current.get();
+  }
+
+  /**
+   * Re-reads the files now and publishes a new snapshot if anything changed.
+   *
+   * @return the current snapshot after the reload
+   */
+  CardCatalog reload() throws IOException {
+    CardFileParser.Cards cards = new CardFileParser(moveFilePath, boostFilePath).load();
+    // Only this watcher's thread or a direct caller publishes, but be safe
+    // against both racing by retrying on a lost update.
+    while (true) {
+      CardCatalog previous = current.get();
+      CardCatalog next = previous.update(cards);
+      if (next == previous || current.compareAndSet(previous, next)) {
+        if (next != previous) {
+          System.out.printf("Reloaded cards, version %d: %s%n", next.getVersion(), next.getDiff());
+        }
+        return next;
+      }
+    }
+  }
+
+  /** Starts watching the files' directories on a background daemon thread. */
+  synchronized void start() throws IOException {
+    checkState(thread == null, "Already started");
+    watchService = FileSystems.getDefault().newWatchService();
+    moveFilePath.getParent().register(
+        watchService, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+    if (!boostFilePath.getParent().equals(moveFilePath.getParent())) {
+      boostFilePath.getParent().register(
+          watchService, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+    }
+    thread = new Thread(this::watch, "card-catalog-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (watchService != null) {
+      watchService.close();
+    }
+  }
+
+  private void watch() {
+    try {
+      while (true) {
+        WatchKey key = watchService.take();
+        boolean relevant = isRelevant(key);
+        // Drain any further events until the files settle.
+        WatchKey more;
+        while ((more = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+          relevant |= isRelevant(more);
+        }
+        if (relevant) {
+          try {
+            reload();
+          } catch (IOException | RuntimeException e) {
+            // A half-written file can fail to parse in any number of ways;
+            // none of them may stop the watching.
+            System.err.printf("Could not reload cards, keeping version %d: %s%n",
+                current.get().getVersion(), e);
+          }
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // Closed; stop watching.
+    }
+  }
+
+  private boolean isRelevant(WatchKey key) {
+    Path directory = (Path) key.watchable();
+    boolean relevant = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.context() instanceof Path) {
+        Path changed = directory.resolve((Path) event.context());
+        relevant |= changed.equals(moveFilePath) || changed.equals(boostFilePath);
+      }
+    }
+    key.reset();
+    return relevant;
+  }
+}
@@ -3,6 +3,7 @@ package org.apterous.ufcoptimizer;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Ints;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -29,20 +30,34 @@ final class CardFileParser {
 
   private final Path moveFilePath;
   private final Path boostFilePath;
+  private final int firstIndex;
 
   /** Construct a new instance to parse the given path. */
   CardFileParser(Path moveFilePath, Path boostFilePath) {
+    this(moveFilePath, boostFilePath, 1);
+  }
+
+  /**
+   * Construct a new instance to parse the given path, numbering the cards
+   * from the given index, for example to keep them apart from cards already
+   * loaded.
+   */
+  CardFileParser(Path moveFilePath, Path boostFilePath, int firstIndex) {
+    Preconditions.checkArgument(firstIndex >= 0);
     this.moveFilePath = Preconditions.checkNotNull(moveFilePath);
     this.boostFilePath = Preconditions.checkNotNull(boostFilePath);
+    this.firstIndex = firstIndex;
   }
 
   /**
    * Returns the list of cards in the order they occur in the file.
    *
-   * <p>Indices are contiguous starting from 0.
+   * <p>Indices are contiguous starting from the first index.
    */
   Cards load() throws IOException {
-    AtomicInteger index = new AtomicInteger(0);
+    SolverEvents.CardLoad event = new SolverEvents.CardLoad();
+    event.begin();
+    AtomicInteger index = new AtomicInteger(firstIndex - 1);
     ImmutableList<MoveCard> moves;
     try (Stream<String> lines = Files.lines(moveFilePath)) {
       moves = lines
@@ -57,6 +72,13 @@ final class CardFileParser {
           .map(line -> parseBoostCard(index.incrementAndGet(), line))
           .collect(toImmutableList());
     }
+    if (event.shouldCommit()) {
+      event.moveFile = moveFilePath.toString();
+      event.boostFile = boostFilePath.toString();
+      event.moveCount = moves.size();
+      event.boostCount = boosts.size();
+      event.commit();
+    }
     return new Cards(moves, boosts);
   }
 
@@ -89,7 +111,8 @@ final class CardFileParser {
             .put(Skill.CHIN, parseSkill(parts[8]))
             .put(Skill.LEGS, parseSkill(parts[9]))
             .build(),
-        parseTier(parts[1]));
+        parseTier(parts[1]),
+        parseUsageCount(parts[10]));
   }
 
   private static Weight parseWeight(String raw) {
@@ -136,6 +159,12 @@ final class CardFileParser {
     return raw.isEmpty() ? 0 : Integer.parseInt(raw);
   }
 
+  // The usage count column may be blank; treat such boosts as single-use.
+  private static int parseUsageCount(String raw) {
+    Integer usageCount = Ints.tryParse(raw.trim());
+    return usageCount == null || usageCount < 1 ? 1 : usageCount;
+  }
+
   private static Tier parseTier(String raw) {
     return Arrays.stream(Tier.values())
         .filter(tier -> tier.name().charAt(0) == raw.charAt(0))
@@ -0,0 +1,61 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.concurrent.Immutable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Immutable description of how much it costs to spend a card on a puzzle.
+ *
+ * <p>This is not a constraint: any solution is acceptable. But among
+ * solutions, those spending cheaper cards are preferred. A card costs the
+ * value of its tier; a boost additionally costs a penalty divided by its
+ * remaining usage count, so the last use of a boost is the most expensive.
+ */
+@Immutable
+final class CostModel {
+
+  /** Roughly doubles in value with each tier, and charges for boost uses. */
+  static final CostModel DEFAULT =
+      new CostModel(
+          ImmutableMap.of(
+              Tier.BRONZE, 1,
+              Tier.SILVER, 2,
+              Tier.GOLD, 4,
+              Tier.ELITE, 8,
+              Tier.MASTER, 16),
+          12);
+
+  private final int[] tierCosts;
+  private final int boostUsePenalty;
+
+  CostModel(ImmutableMap<Tier, Integer> tierCosts, int boostUsePenalty) {
+    checkArgument(boostUsePenalty >= 0);
+    this.tierCosts = new int[Tier.values().length];
+    for (Tier tier : Tier.values()) {
+      int tierCost = tierCosts.getOrDefault(tier, 0);
+      checkArgument(tierCost >= 0);
+      this.tierCosts[tier.ordinal()] = tierCost;
+    }
+    this.boostUsePenalty = boostUsePenalty;
+  }
+
+  int getTierCost(Tier tier) {
+    return tierCosts[tier.ordinal()];
+  }
+
+  int getBoostUsePenalty() {
+    return boostUsePenalty;
+  }
+
+  /** The cost of spending the given card. Never negative. */
+  int getCost(Card card) {
+    int cost = tierCosts[card.getTier().ordinal()];
+    if (card instanceof BoostCard) {
+      cost += boostUsePenalty / ((BoostCard) card).getUsageCount();
+    }
+    return cost;
+  }
+}
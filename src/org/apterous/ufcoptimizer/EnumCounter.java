@@ -26,6 +26,16 @@ final class EnumCounter<E extends Enum<E>> {
     counters = Arrays.stream(enumClass).mapToInt(initializer).toArray();
   }
 
+  /**
+   * Construct a new counter with the given enum values (which are
+   * assumed to be the complete list of values for the enum), starting from
+   * a copy of the given counts, by ordinal.
+   */
+  EnumCounter(ImmutableList<E> values, int[] initialCounts) {
+    this.values = values;
+    this.counters = initialCounts.clone();
+  }
+
   /**
    * Constructs a copy of the given {@link EnumCounter}.
    */
@@ -34,6 +44,16 @@ final class EnumCounter<E extends Enum<E>> {
     counters = copyFrom.counters.clone();
   }
 
+  /** Overwrite every counter with the given counts, by ordinal. */
+  void setAll(int[] counts) {
+    System.arraycopy(counts, 0, counters, 0, counters.length);
+  }
+
+  /** Overwrite every counter with the values of another counter of the same enum. */
+  void setAll(EnumCounter<E> copyFrom) {
+    setAll(copyFrom.counters);
+  }
+
   /** Get the values of the enum. May be more efficient than calling {@code .values()}. */
   ImmutableList<E> values() {
     return values;
@@ -0,0 +1,421 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * A quick check of whether a puzzle could possibly be solved, before any
+ * search is spent on it.
+ *
+ * <p>Each constraint is checked on its own, against the most optimistic
+ * range of values the puzzle's cards could give it: for a skill, the
+ * initial value plus the largest (or smallest) modifiers that fit in each
+ * group of slots, ignoring every other constraint. So a puzzle reported
+ * infeasible certainly cannot be solved, but one reported feasible still may
+ * not be.
+ */
+@Immutable
+final class Feasibility {
+
+  /** A constraint that no selection can meet. */
+  @Immutable
+  static final class Blocker {
+    private final String constraint;
+    private final int lowestReachable;
+    private final int highestReachable;
+
+    private Blocker(String constraint, int lowestReachable, int highestReachable) {
+      this.constraint = constraint;
+      this.lowestReachable = lowestReachable;
+      this.highestReachable = highestReachable;
+    }
+
+    /** The name of the constraint, for example {@code "skill HMVT"}. */
+    String getConstraint() {
+      return constraint;
+    }
+
+    /** The lowest value any selection could give the constrained quantity. */
+    int getLowestReachable() {
+      return lowestReachable;
+    }
+
+    /** The highest value any selection could give the constrained quantity. */
+    int getHighestReachable() {
+      return highestReachable;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s cannot leave [%d, %d]", constraint, lowestReachable, highestReachable);
+    }
+  }
+
+  // A check of one constraint that can be redone with one card swapped for
+  // another, without looking at the rest of the cards again.
+  private interface Check {
+    void run(ImmutableList.Builder<Blocker> blockers, Card removed, Card added);
+  }
+
+  private static final int STRIKING = 0;
+  private static final int GRAPPLING = 1;
+  private static final int BOOST = 2;
+  private static final int GROUP_COUNT = 3;
+
+  private final ImmutableList<Check> checks;
+  private final ImmutableList<Blocker> blockers;
+
+  private Feasibility(ImmutableList<Check> checks, ImmutableList<Blocker> blockers) {
+    this.checks = checks;
+    this.blockers = blockers;
+  }
+
+  /** Whether the puzzle passed every check. */
+  boolean isFeasible() {
+    return blockers.isEmpty();
+  }
+
+  /** The constraints that cannot be met, in the order they were checked. */
+  ImmutableList<Blocker> getBlockers() {
+    return blockers;
+  }
+
+  /**
+   * The constraints that could not be met if one card were swapped for
+   * another: the given card of the puzzle's catalog taken out, if not null,
+   * and the given card, which need not be in the catalog, put in. This costs
+   * a few operations per constraint, against a pass over every card for
+   * {@link #analyze}.
+   */
+  ImmutableList<Blocker> getBlockersAfterSwap(Card removed, Card added) {
+    ImmutableList.Builder<Blocker> blockers = ImmutableList.builder();
+    for (Check check : checks) {
+      check.run(blockers, removed, added);
+    }
+    return blockers.build();
+  }
+
+  @Override
+  public String toString() {
+    return isFeasible() ? "feasible" : blockers.toString();
+  }
+
+  /** Checks every constraint of the given puzzle. */
+  static Feasibility analyze(Puzzle puzzle) {
+    CardCatalog catalog = puzzle.getCatalog();
+    ImmutableList.Builder<Check> checks = ImmutableList.builder();
+
+    for (Skill skill : Skill.values()) {
+      RangeConstraint constraint = puzzle.getSkillConstraint(skill);
+      if (!constraint.acceptsAnything()) {
+        ToIntFunction<Card> modifier = card -> getSkillModifier(catalog, card, skill);
+        checks.add(new ReachCheck("skill " + skill, constraint, puzzle,
+            puzzle.getInitialSkill(skill), 1, modifier, modifier));
+      }
+    }
+
+    for (SummarySkill summarySkill : SummarySkill.values()) {
+      RangeConstraint constraint = puzzle.getSummarySkillConstraint(summarySkill);
+      if (constraint.acceptsAnything()) {
+        continue;
+      }
+      String name = "summary " + summarySkill;
+      if (summarySkill.equals(SummarySkill.CHEMISTRY)) {
+        // A move's chemistry depends on its slot, so take its best (or worst)
+        // over the slots of its group.
+        ImmutableList<MoveType> striking = slotTypes(puzzle, true);
+        ImmutableList<MoveType> grappling = slotTypes(puzzle, false);
+        checks.add(new ReachCheck(name, constraint, puzzle, 0, 1,
+            card -> bestChemistry(puzzle, card, striking, grappling, true),
+            card -> bestChemistry(puzzle, card, striking, grappling, false)));
+      } else {
+        // The summary is the floor of the components' mean, so bound the sum
+        // of the components, card by card.
+        List<Skill> components = Selection.getComponentSkills(summarySkill);
+        int initial = 0;
+        for (Skill skill : components) {
+          initial += puzzle.getInitialSkill(skill);
+        }
+        ToIntFunction<Card> sum = card -> {
+          int total = 0;
+          for (Skill skill : components) {
+            total += getSkillModifier(catalog, card, skill);
+          }
+          return total;
+        };
+        checks.add(new ReachCheck(
+            name, constraint, puzzle, initial, components.size(), sum, sum));
+      }
+    }
+
+    int minimumCards = 0;
+    for (Tier tier : Tier.values()) {
+      RangeConstraint constraint = puzzle.getCardTierConstraint(tier);
+      if (!constraint.acceptsAnything()) {
+        checks.add(new CountCheck(
+            "tier " + tier, constraint, puzzle, card -> card.getTier().equals(tier)));
+        minimumCards += Math.max(0, constraint.getSatisfactionDistance(0));
+      }
+    }
+    checks.add(fixed("tier minimums", RangeConstraint.max(puzzle.getSlotCount()), minimumCards));
+
+    int minimumMoves = 0;
+    for (Style style : Style.values()) {
+      RangeConstraint constraint = puzzle.getCardStyleConstraint(style);
+      if (!constraint.acceptsAnything()) {
+        checks.add(new CountCheck("style " + style, constraint, puzzle,
+            card -> card instanceof MoveCard && ((MoveCard) card).getStyle().equals(style)));
+        minimumMoves += Math.max(0, constraint.getSatisfactionDistance(0));
+      }
+    }
+    checks.add(fixed("style minimums", RangeConstraint.max(puzzle.getMoveSlotCount()), minimumMoves));
+
+    ImmutableList<Check> built = checks.build();
+    ImmutableList.Builder<Blocker> blockers = ImmutableList.builder();
+    for (Check check : built) {
+      check.run(blockers, null, null);
+    }
+    return new Feasibility(built, blockers.build());
+  }
+
+  // A quantity that is an initial value plus the contributions of some
+  // cards, at most as many from each group as it has slots, divided by a
+  // divisor and rounded down. A card may contribute differently to the
+  // highest and the lowest value, as a move's chemistry does. For each group
+  // the largest k + 1 contributions of each sign are kept, one more than
+  // fit, so that the best k are still known with any one card taken out.
+  private static final class ReachCheck implements Check {
+    final String name;
+    final RangeConstraint constraint;
+    final int initial;
+    final int divisor;
+    final ToIntFunction<Card> raise;
+    final ToIntFunction<Card> lower;
+    final int[] slots;
+    final int[][] largestRaises = new int[GROUP_COUNT][];
+    final int[][] largestLowerings = new int[GROUP_COUNT][];
+
+    ReachCheck(
+        String name,
+        RangeConstraint constraint,
+        Puzzle puzzle,
+        int initial,
+        int divisor,
+        ToIntFunction<Card> raise,
+        ToIntFunction<Card> lower) {
+      this.name = name;
+      this.constraint = constraint;
+      this.initial = initial;
+      this.divisor = divisor;
+      this.raise = raise;
+      this.lower = lower;
+      this.slots = slotCounts(puzzle);
+      List<List<? extends Card>> groups = groups(puzzle.getCatalog());
+      for (int group = 0; group < GROUP_COUNT; ++group) {
+        largestRaises[group] = largest(groups.get(group), slots[group] + 1, raise, 1);
+        largestLowerings[group] = largest(groups.get(group), slots[group] + 1, lower, -1);
+      }
+    }
+
+    @Override
+    public void run(ImmutableList.Builder<Blocker> blockers, Card removed, Card added) {
+      long highest = initial;
+      long lowest = initial;
+      for (int group = 0; group < GROUP_COUNT; ++group) {
+        boolean removedHere = removed != null && group(removed) == group;
+        boolean addedHere = added != null && group(added) == group;
+        highest += sumOfLargest(largestRaises[group], slots[group],
+            removedHere ? raise.applyAsInt(removed) : 0,
+            addedHere ? raise.applyAsInt(added) : 0);
+        lowest -= sumOfLargest(largestLowerings[group], slots[group],
+            removedHere ? -lower.applyAsInt(removed) : 0,
+            addedHere ? -lower.applyAsInt(added) : 0);
+      }
+      check(blockers, name, constraint, range(
+          Math.floorDiv(saturate(lowest), divisor), Math.floorDiv(saturate(highest), divisor)));
+    }
+  }
+
+  // How many cards meeting a condition fit in the puzzle's slots.
+  private static final class CountCheck implements Check {
+    final String name;
+    final RangeConstraint constraint;
+    final Predicate<Card> counted;
+    final int[] slots;
+    final int[] counts = new int[GROUP_COUNT];
+
+    CountCheck(String name, RangeConstraint constraint, Puzzle puzzle, Predicate<Card> counted) {
+      this.name = name;
+      this.constraint = constraint;
+      this.counted = counted;
+      this.slots = slotCounts(puzzle);
+      List<List<? extends Card>> groups = groups(puzzle.getCatalog());
+      for (int group = 0; group < GROUP_COUNT; ++group) {
+        for (Card card : groups.get(group)) {
+          if (counted.test(card)) {
+            ++counts[group];
+          }
+        }
+      }
+    }
+
+    @Override
+    public void run(ImmutableList.Builder<Blocker> blockers, Card removed, Card added) {
+      int reachable = 0;
+      for (int group = 0; group < GROUP_COUNT; ++group) {
+        int count = counts[group];
+        if (removed != null && group(removed) == group && counted.test(removed)) {
+          --count;
+        }
+        if (added != null && group(added) == group && counted.test(added)) {
+          ++count;
+        }
+        reachable += Math.min(slots[group], count);
+      }
+      check(blockers, name, constraint, range(0, reachable));
+    }
+  }
+
+  // A check that no card can change.
+  private static Check fixed(String name, RangeConstraint constraint, int value) {
+    return (blockers, removed, added) -> check(blockers, name, constraint, range(value, value));
+  }
+
+  private static void check(
+      ImmutableList.Builder<Blocker> blockers, String name, RangeConstraint constraint, long range) {
+    int lowest = lower(range);
+    int highest = upper(range);
+    // The constraint is an interval, so some value in [lowest, highest] meets
+    // it unless the whole range is below its minimum or above its maximum.
+    boolean aboveRange = constraint.isBelowMinimum(highest);
+    boolean belowRange = !constraint.isSatisfiedBy(lowest) && !constraint.isBelowMinimum(lowest);
+    if (aboveRange || belowRange) {
+      blockers.add(new Blocker(name, lowest, highest));
+    }
+  }
+
+  private static int[] slotCounts(Puzzle puzzle) {
+    return new int[] {
+        puzzle.getStrikingSlotCount(), puzzle.getGrapplingSlotCount(), puzzle.getBoostSlotCount()};
+  }
+
+  private static List<List<? extends Card>> groups(CardCatalog catalog) {
+    return List.of(catalog.getStrikingMoves(), catalog.getGrapplingMoves(), catalog.getBoosts());
+  }
+
+  private static int group(Card card) {
+    if (card instanceof BoostCard) {
+      return BOOST;
+    }
+    return ((MoveCard) card).getMoveType().isStriking() ? STRIKING : GRAPPLING;
+  }
+
+  // The largest (at most k) positive values of sign * contribution, in
+  // descending order. Slots may be left empty, so a value of the wrong sign
+  // is never worth taking. Slot counts are small, so this keeps the best k in
+  // a sorted array as it goes.
+  private static int[] largest(
+      List<? extends Card> cards, int k, ToIntFunction<Card> contribution, int sign) {
+    int[] best = new int[k];
+    int size = 0;
+    for (Card card : cards) {
+      int value = sign * contribution.applyAsInt(card);
+      if (value <= 0 || (size == k && value <= best[k - 1])) {
+        continue;
+      }
+      int position = size < k ? size++ : k - 1;
+      while (position > 0 && best[position - 1] < value) {
+        best[position] = best[position - 1];
+        --position;
+      }
+      best[position] = value;
+    }
+    return Arrays.copyOf(best, size);
+  }
+
+  // The sum of the k largest values kept by largest(), with one value equal
+  // to removed taken out and added put in; either is ignored if it is not
+  // positive. The removed value is only among those kept if it is at least
+  // the smallest of them, or if every positive value was kept.
+  private static long sumOfLargest(int[] largest, int k, int removed, int added) {
+    boolean skipRemoved =
+        removed > 0 && (largest.length <= k || removed >= largest[largest.length - 1]);
+    boolean addPending = added > 0;
+    long sum = 0;
+    int taken = 0;
+    int i = 0;
+    while (taken < k && (i < largest.length || addPending)) {
+      if (addPending && (i == largest.length || added >= largest[i])) {
+        sum += added;
+        addPending = false;
+        ++taken;
+        continue;
+      }
+      int value = largest[i++];
+      if (skipRemoved && value == removed) {
+        skipRemoved = false;
+        continue;
+      }
+      sum += value;
+      ++taken;
+    }
+    return sum;
+  }
+
+  // Same as CardCatalog.getSkillModifier, for a card that may not be in the
+  // catalog.
+  private static int getSkillModifier(CardCatalog catalog, Card card, Skill skill) {
+    return catalog.getCard(card.getIndex()) == card
+        ? catalog.getSkillModifier(card, skill)
+        : card.getSkillModifier(skill);
+  }
+
+  private static ImmutableList<MoveType> slotTypes(Puzzle puzzle, boolean striking) {
+    return puzzle.getMoveSlots().elementSet().stream()
+        .filter(type -> type.isStriking() == striking)
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  private static int bestChemistry(
+      Puzzle puzzle,
+      Card card,
+      ImmutableList<MoveType> striking,
+      ImmutableList<MoveType> grappling,
+      boolean highest) {
+    if (!(card instanceof MoveCard)) {
+      return 0;
+    }
+    MoveCard move = (MoveCard) card;
+    int best = highest ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+    boolean inCatalog = puzzle.getCatalog().getCard(move.getIndex()) == move;
+    for (MoveType type : move.getMoveType().isStriking() ? striking : grappling) {
+      int chemistry =
+          inCatalog ? puzzle.getChemistry(move, type) : move.getChemistryInSlot(puzzle, type);
+      best = highest ? Math.max(best, chemistry) : Math.min(best, chemistry);
+    }
+    // Without any slot of the card's kind it can never be placed.
+    return best == Integer.MIN_VALUE || best == Integer.MAX_VALUE ? 0 : best;
+  }
+
+  // A closed range of ints, packed into a long to avoid allocating.
+  private static long range(int lowest, int highest) {
+    return ((long) lowest << 32) | (highest & 0xffffffffL);
+  }
+
+  private static int lower(long range) {
+    return (int) (range >> 32);
+  }
+
+  private static int upper(long range) {
+    return (int) range;
+  }
+
+  private static int saturate(long value) {
+    return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+  }
+}
@@ -0,0 +1,311 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.random.RandomGenerator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A solving engine using a steady-state genetic algorithm.
+ *
+ * <p>The population is stored as one flat array of genomes, each holding
+ * the index of the card in every slot (or -1 for an empty slot), so breeding
+ * allocates nothing per individual. Each generation breeds a batch of
+ * children from parents chosen by tournament, scores the batch in parallel,
+ * and lets each child replace the worst member of the population if it is no
+ * worse.
+ *
+ * <p>Crossover takes each slot's card from one parent or the other. Slots are
+ * numbered as for {@link Selection#getCard}, so a slot always takes cards of
+ * the same kind whichever parent it comes from. A card both parents hold in
+ * different slots could then appear twice; the second copy is replaced by the
+ * other parent's card for that slot, or failing that by a random unused card.
+ *
+ * <p>Genomes are kept in canonical form (see {@link Selection#canonicalize}),
+ * so a child that is just a rearrangement of an existing member is
+ * recognised as a duplicate and dropped rather than crowding the population.
+ *
+ * <p>Each iteration is one child scored.
+ */
+@Immutable
+final class GeneticSolver {
+
+  private static final int EMPTY = -1;
+  private static final int TOURNAMENT_SIZE = 3;
+  // How many random draws to make looking for an unused card for a slot.
+  private static final int DRAW_ATTEMPTS = 16;
+  // Genomes scored per fork-join task.
+  private static final int SCORING_CHUNK = 16;
+
+  private final Solver.SolverConfig solverConfig;
+  private final Puzzle puzzle;
+  private final int populationSize;
+  private final int batchSize;
+  private final ForkJoinPool pool;
+
+  /** Uses a population of 128 and batches of 32, scored in the common pool. */
+  GeneticSolver(Solver.SolverConfig solverConfig, Puzzle puzzle) {
+    this(solverConfig, puzzle, 128, 32, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * @param populationSize the number of genomes kept
+   * @param batchSize the number of children bred and scored together
+   * @param pool where to score them
+   */
+  GeneticSolver(
+      Solver.SolverConfig solverConfig,
+      Puzzle puzzle,
+      int populationSize,
+      int batchSize,
+      ForkJoinPool pool) {
+    checkArgument(populationSize >= 2);
+    checkArgument(batchSize > 0);
+    this.solverConfig = checkNotNull(solverConfig);
+    this.puzzle = checkNotNull(puzzle);
+    this.populationSize = populationSize;
+    this.batchSize = batchSize;
+    this.pool = checkNotNull(pool);
+  }
+
+  /**
+   * Solves the puzzle, returning the best selection seen before any of the
+   * configured limits was hit, which may not be a solution.
+   *
+   * <p>Breeding draws only from the given generator, on the calling thread,
+   * so the result does not depend on how scoring is scheduled.
+   */
+  Selection getBestSelection(RandomGenerator random) {
+    return new Run(random).execute();
+  }
+
+  // The state of one solve.
+  private final class Run {
+    final RandomGenerator random;
+    final CardCatalog catalog = puzzle.getCatalog();
+    final Neighbourhood neighbourhood = new Neighbourhood(puzzle);
+    final int slotCount = puzzle.getSlotCount();
+    final SelectionTemplate template = puzzle.getSelectionTemplate();
+    final SearchBudget budget = new SearchBudget(solverConfig);
+
+    final int[] population = new int[populationSize * slotCount];
+    final double[] naughtiness = new double[populationSize];
+    final int[] cost = new int[populationSize];
+
+    final int[] children = new int[batchSize * slotCount];
+    final double[] childNaughtiness = new double[batchSize];
+    final int[] childCost = new int[batchSize];
+    final BitSet used = new BitSet(catalog.getMaximumIndex() + 1);
+    final SelectionPool scratch = new SelectionPool(
+        puzzle, solverConfig.getCostModel().orElse(CostModel.DEFAULT), pool.getParallelism());
+
+    int best;
+
+    Run(RandomGenerator random) {
+      this.random = checkNotNull(random);
+    }
+
+    Selection execute() {
+      for (int individual = 0; individual < populationSize; ++individual) {
+        randomize(population, individual * slotCount);
+      }
+      score(population, naughtiness, cost, populationSize);
+      best = 0;
+      for (int individual = 1; individual < populationSize; ++individual) {
+        if (isBetter(naughtiness[individual], cost[individual], naughtiness[best], cost[best])) {
+          best = individual;
+        }
+      }
+      long iteration = populationSize;
+      budget.recordBest(iteration, naughtiness[best]);
+
+      while (!budget.isExhaustedNow(iteration, naughtiness[best])) {
+        int count = (int) Math.min(batchSize, solverConfig.getMaximumIterations() - iteration);
+        for (int child = 0; child < count; ++child) {
+          breed(tournament(), tournament(), child * slotCount);
+        }
+        score(children, childNaughtiness, childCost, count);
+        for (int child = 0; child < count; ++child) {
+          replaceWorst(child, iteration + child);
+        }
+        iteration += count;
+      }
+
+      if (solverConfig.isVerbose()) {
+        System.out.printf("Stopped after %d iterations: %s%n", iteration, budget.getReason());
+      }
+      return decode(population, best * slotCount, newSelection());
+    }
+
+    private Selection newSelection() {
+      return new Selection(puzzle, solverConfig.getCostModel().orElse(CostModel.DEFAULT));
+    }
+
+    // Fills the genome at the given offset with distinct random cards.
+    private void randomize(int[] genomes, int offset) {
+      used.clear();
+      for (int slot = 0; slot < slotCount; ++slot) {
+        genomes[offset + slot] = drawUnused(slot);
+      }
+      template.canonicalize(genomes, offset);
+    }
+
+    // Writes a child of the two parents at the given offset in the batch.
+    private void breed(int parentA, int parentB, int offset) {
+      used.clear();
+      int offsetA = parentA * slotCount;
+      int offsetB = parentB * slotCount;
+      double mutationRate = 1.0 / slotCount;
+      for (int slot = 0; slot < slotCount; ++slot) {
+        boolean fromA = random.nextBoolean();
+        int gene = population[(fromA ? offsetA : offsetB) + slot];
+        if (random.nextDouble() < mutationRate) {
+          gene = random.nextInt(slotCount) == 0 ? EMPTY : drawUnused(slot);
+        } else if (gene != EMPTY && used.get(gene)) {
+          gene = population[(fromA ? offsetB : offsetA) + slot];
+          if (gene != EMPTY && used.get(gene)) {
+            gene = drawUnused(slot);
+          }
+        }
+        if (gene != EMPTY) {
+          used.set(gene);
+        }
+        children[offset + slot] = gene;
+      }
+      template.canonicalize(children, offset);
+    }
+
+    // A card that fits the slot and is not yet used, or EMPTY if none turns up.
+    private int drawUnused(int slot) {
+      ImmutableList<? extends Card> candidates = neighbourhood.getCandidates(slot);
+      if (candidates.isEmpty()) {
+        return EMPTY;
+      }
+      for (int attempt = 0; attempt < DRAW_ATTEMPTS; ++attempt) {
+        int index = candidates.get(random.nextInt(candidates.size())).getIndex();
+        if (!used.get(index)) {
+          used.set(index);
+          return index;
+        }
+      }
+      return EMPTY;
+    }
+
+    private int tournament() {
+      int winner = random.nextInt(populationSize);
+      for (int round = 1; round < TOURNAMENT_SIZE; ++round) {
+        int challenger = random.nextInt(populationSize);
+        if (isBetter(naughtiness[challenger], cost[challenger], naughtiness[winner], cost[winner])) {
+          winner = challenger;
+        }
+      }
+      return winner;
+    }
+
+    private void replaceWorst(int child, long iteration) {
+      int worst = 0;
+      for (int individual = 1; individual < populationSize; ++individual) {
+        if (isBetter(naughtiness[worst], cost[worst], naughtiness[individual], cost[individual])) {
+          worst = individual;
+        }
+      }
+      if (isBetter(naughtiness[worst], cost[worst], childNaughtiness[child], childCost[child])
+          || isInPopulation(child)) {
+        return;
+      }
+      System.arraycopy(children, child * slotCount, population, worst * slotCount, slotCount);
+      naughtiness[worst] = childNaughtiness[child];
+      cost[worst] = childCost[child];
+
+      if (isBetter(naughtiness[worst], cost[worst], naughtiness[best], cost[best])) {
+        best = worst;
+        budget.recordBest(iteration, naughtiness[best]);
+        if (solverConfig.isVerbose()) {
+          Selection selection = decode(population, best * slotCount, newSelection());
+          System.out.printf("%08d: %8.5g [%s]    [%s]%n",
+              iteration,
+              naughtiness[best],
+              selection,
+              selection.getDescription());
+        }
+      }
+    }
+
+    // Genomes are canonical, so equal genomes are the same selection.
+    private boolean isInPopulation(int child) {
+      int childOffset = child * slotCount;
+      for (int individual = 0; individual < populationSize; ++individual) {
+        int offset = individual * slotCount;
+        if (Arrays.equals(
+            population, offset, offset + slotCount, children, childOffset, childOffset + slotCount)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    // Scores the first count genomes in parallel.
+    private void score(int[] genomes, double[] naughtinessOut, int[] costOut, int count) {
+      pool.invoke(new ScoringTask(genomes, naughtinessOut, costOut, 0, count));
+    }
+
+    private final class ScoringTask extends RecursiveAction {
+      // Never serialized; fork/join tasks are merely Serializable by inheritance.
+      private static final long serialVersionUID = 1L;
+
+      final int[] genomes;
+      final double[] naughtinessOut;
+      final int[] costOut;
+      final int start;
+      final int end;
+
+      ScoringTask(int[] genomes, double[] naughtinessOut, int[] costOut, int start, int end) {
+        this.genomes = genomes;
+        this.naughtinessOut = naughtinessOut;
+        this.costOut = costOut;
+        this.start = start;
+        this.end = end;
+      }
+
+      @Override
+      protected void compute() {
+        if (end - start > SCORING_CHUNK) {
+          int middle = (start + end) >>> 1;
+          invokeAll(
+              new ScoringTask(genomes, naughtinessOut, costOut, start, middle),
+              new ScoringTask(genomes, naughtinessOut, costOut, middle, end));
+          return;
+        }
+        Selection selection = scratch.acquire();
+        for (int genome = start; genome < end; ++genome) {
+          decode(genomes, genome * slotCount, selection);
+          naughtinessOut[genome] = selection.getNaughtiness();
+          costOut[genome] = selection.getCost();
+        }
+        scratch.release(selection);
+      }
+    }
+
+    // Loads the genome at the given offset into the selection. The selection
+    // is emptied first, since a card may move between slots.
+    private Selection decode(int[] genomes, int offset, Selection selection) {
+      selection.reset();
+      for (int slot = 0; slot < slotCount; ++slot) {
+        int gene = genomes[offset + slot];
+        selection.setCard(slot, gene == EMPTY ? null : catalog.getCard(gene));
+      }
+      return selection;
+    }
+  }
+
+  private static boolean isBetter(double naughtinessA, int costA, double naughtinessB, int costB) {
+    return naughtinessA < naughtinessB || (naughtinessA == naughtinessB && costA < costB);
+  }
+}
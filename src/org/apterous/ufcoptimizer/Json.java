@@ -0,0 +1,268 @@
+package org.apterous.ufcoptimizer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal JSON reader and writer, enough for the solver's HTTP API without
+ * pulling in a library.
+ *
+ * <p>Objects are read as {@link Map}s (preserving key order), arrays as
+ * {@link List}s, numbers as {@link Double}s, and {@code true}, {@code false}
+ * and {@code null} as themselves. Writing accepts the same types, plus any
+ * other {@link Number}.
+ *
+ * <p>Objects and arrays may be nested at most {@value #MAX_DEPTH} deep, so a
+ * hostile document cannot exhaust the parser's stack.
+ */
+final class Json {
+
+  static final int MAX_DEPTH = 64;
+
+  /** Parses a complete JSON document. */
+  static Object parse(String text) {
+    Json parser = new Json(text);
+    parser.skipWhitespace();
+    Object value = parser.readValue();
+    parser.skipWhitespace();
+    if (parser.position != text.length()) {
+      throw parser.error("Trailing characters");
+    }
+    return value;
+  }
+
+  /** Serializes the given value as compact JSON. */
+  static String write(Object value) {
+    StringBuilder out = new StringBuilder();
+    write(value, out);
+    return out.toString();
+  }
+
+  private final String text;
+  private int position = 0;
+  private int depth = 0;
+
+  private Json(String text) {
+    this.text = text;
+  }
+
+  private Object readValue() {
+    if (position >= text.length()) {
+      throw error("Unexpected end of input");
+    }
+    char c = text.charAt(position);
+    switch (c) {
+      case '{':
+      case '[':
+        if (depth == MAX_DEPTH) {
+          throw error("Nested too deeply");
+        }
+        ++depth;
+        Object value = c == '{' ? readObject() : readArray();
+        --depth;
+        return value;
+      case '"': return readString();
+      case 't': expect("true"); return Boolean.TRUE;
+      case 'f': expect("false"); return Boolean.FALSE;
+      case 'n': expect("null"); return null;
+      default:
+        if (c == '-' || (c >= '0' && c <= '9')) {
+          return readNumber();
+        }
+        throw error("Unexpected character '" + c + "'");
+    }
+  }
+
+  private Map<String, Object> readObject() {
+    Map<String, Object> object = new LinkedHashMap<>();
+    ++position;
+    skipWhitespace();
+    if (peek() == '}') {
+      ++position;
+      return object;
+    }
+    while (true) {
+      skipWhitespace();
+      if (peek() != '"') {
+        throw error("Expected a key");
+      }
+      String key = readString();
+      skipWhitespace();
+      expect(":");
+      skipWhitespace();
+      object.put(key, readValue());
+      skipWhitespace();
+      char c = next();
+      if (c == '}') {
+        return object;
+      } else if (c != ',') {
+        throw error("Expected ',' or '}'");
+      }
+    }
+  }
+
+  private List<Object> readArray() {
+    List<Object> array = new ArrayList<>();
+    ++position;
+    skipWhitespace();
+    if (peek() == ']') {
+      ++position;
+      return array;
+    }
+    while (true) {
+      skipWhitespace();
+      array.add(readValue());
+      skipWhitespace();
+      char c = next();
+      if (c == ']') {
+        return array;
+      } else if (c != ',') {
+        throw error("Expected ',' or ']'");
+      }
+    }
+  }
+
+  private String readString() {
+    StringBuilder out = new StringBuilder();
+    ++position;
+    while (true) {
+      char c = next();
+      if (c == '"') {
+        return out.toString();
+      } else if (c != '\\') {
+        out.append(c);
+        continue;
+      }
+      char escaped = next();
+      switch (escaped) {
+        case '"': case '\\': case '/': out.append(escaped); break;
+        case 'b': out.append('\b'); break;
+        case 'f': out.append('\f'); break;
+        case 'n': out.append('\n'); break;
+        case 'r': out.append('\r'); break;
+        case 't': out.append('\t'); break;
+        case 'u':
+          if (position + 4 > text.length()) {
+            throw error("Bad unicode escape");
+          }
+          out.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+          position += 4;
+          break;
+        default:
+          throw error("Bad escape '\\" + escaped + "'");
+      }
+    }
+  }
+
+  private Double readNumber() {
+    int start = position;
+    while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+      ++position;
+    }
+    try {
+      return Double.valueOf(text.substring(start, position));
+    } catch (NumberFormatException e) {
+      throw error("Bad number");
+    }
+  }
+
+  private void expect(String literal) {
+    if (!text.startsWith(literal, position)) {
+      throw error("Expected '" + literal + "'");
+    }
+    position += literal.length();
+  }
+
+  private char peek() {
+    if (position >= text.length()) {
+      throw error("Unexpected end of input");
+    }
+    return text.charAt(position);
+  }
+
+  private char next() {
+    char c = peek();
+    ++position;
+    return c;
+  }
+
+  private void skipWhitespace() {
+    while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+      ++position;
+    }
+  }
+
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException(message + " at offset " + position);
+  }
+
+  private static void write(Object value, StringBuilder out) {
+    if (value == null) {
+      out.append("null");
+    } else if (value instanceof String) {
+      writeString((String) value, out);
+    } else if (value instanceof Boolean) {
+      out.append(value);
+    } else if (value instanceof Double || value instanceof Float) {
+      double number = ((Number) value).doubleValue();
+      if (Double.isNaN(number) || Double.isInfinite(number)) {
+        out.append("null");
+      } else if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+        out.append((long) number);
+      } else {
+        out.append(number);
+      }
+    } else if (value instanceof Number) {
+      out.append(value);
+    } else if (value instanceof Map) {
+      out.append('{');
+      boolean first = true;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        if (!first) {
+          out.append(',');
+        }
+        first = false;
+        writeString(String.valueOf(entry.getKey()), out);
+        out.append(':');
+        write(entry.getValue(), out);
+      }
+      out.append('}');
+    } else if (value instanceof Iterable) {
+      out.append('[');
+      boolean first = true;
+      for (Object element : (Iterable<?>) value) {
+        if (!first) {
+          out.append(',');
+        }
+        first = false;
+        write(element, out);
+      }
+      out.append(']');
+    } else {
+      throw new IllegalArgumentException("Cannot write " + value.getClass() + " as JSON");
+    }
+  }
+
+  private static void writeString(String value, StringBuilder out) {
+    out.append('"');
+    for (int i = 0; i < value.length(); ++i) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"': out.append("\\\""); break;
+        case '\\': out.append("\\\\"); break;
+        case '\n': out.append("\\n"); break;
+        case '\r': out.append("\\r"); break;
+        case '\t': out.append("\\t"); break;
+        default:
+          if (c < 0x20) {
+            out.append(String.format("\\u%04x", (int) c));
+          } else {
+            out.append(c);
+          }
+      }
+    }
+    out.append('"');
+  }
+}
@@ -0,0 +1,555 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.ToIntBiFunction;
+import java.util.function.ToIntFunction;
+import java.util.random.RandomGenerator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A solving engine using large-neighbourhood search: destroy a few slots of
+ * the current selection, then repair them by exhaustive search.
+ *
+ * <p>Single-card steps cannot cross a ridge that only several cards changed
+ * together get over, such as trading two high-chemistry moves for two that
+ * fix a skill. Each round here frees two to four random slots in each of
+ * several copies of the current selection, and fills each copy's freed slots
+ * with the best cards for them, given the rest. The best repair of the round
+ * is then taken or not under an annealing rule, cooling geometrically over
+ * the iteration limit. The rule's random threshold is drawn before the
+ * repairs run, so that they can prune everything it would turn down.
+ *
+ * <p>A repair enumerates the freed slots depth first, cutting off a branch
+ * once even its best case cannot beat the best repair found so far, or the
+ * round's threshold before any is found. The best case is worked out per
+ * constraint, from the most and least each remaining slot could add to it.
+ * The freed slots' old cards are left out as a repair, so that every round
+ * moves. Interchangeable freed slots take their cards in index order, so no
+ * rearrangement is tried twice. A repair that visits more than the node limit
+ * stops there and keeps the best it has found, so with a limit repairs are
+ * not always exact; how many were cut short is reported in verbose mode.
+ *
+ * <p>The repairs of a round run in parallel. Which slots to free is drawn on
+ * the calling thread, and a repair's result depends only on its inputs, so
+ * the result does not depend on how repairs are scheduled. Each iteration is
+ * one repair.
+ */
+@Immutable
+final class LargeNeighbourhoodSolver {
+
+  private static final int EMPTY = -1;
+  private static final int MINIMUM_FREED = 2;
+  private static final int MAXIMUM_FREED = 4;
+  private static final double STARTING_TEMPERATURE = 1.0;
+  private static final double FINAL_TEMPERATURE = 0.05;
+  // How many branches a repair visits by default before settling for its
+  // best so far.
+  private static final int DEFAULT_REPAIR_NODE_LIMIT = 1 << 18;
+
+  private final Solver.SolverConfig solverConfig;
+  private final Puzzle puzzle;
+  private final int repairsPerRound;
+  private final ForkJoinPool pool;
+  private final long repairNodeLimit;
+
+  /** Runs as many repairs per round as the common pool has threads. */
+  LargeNeighbourhoodSolver(Solver.SolverConfig solverConfig, Puzzle puzzle) {
+    this(solverConfig, puzzle, ForkJoinPool.commonPool().getParallelism(), ForkJoinPool.commonPool());
+  }
+
+  /**
+   * @param repairsPerRound the number of different slot sets freed and
+   *     repaired each round
+   * @param pool where to run the repairs
+   */
+  LargeNeighbourhoodSolver(
+      Solver.SolverConfig solverConfig, Puzzle puzzle, int repairsPerRound, ForkJoinPool pool) {
+    this(solverConfig, puzzle, repairsPerRound, pool, DEFAULT_REPAIR_NODE_LIMIT);
+  }
+
+  /**
+   * @param repairNodeLimit how many branches a repair may visit before it
+   *     settles for its best so far; {@link Long#MAX_VALUE} makes every
+   *     repair exact
+   */
+  LargeNeighbourhoodSolver(
+      Solver.SolverConfig solverConfig,
+      Puzzle puzzle,
+      int repairsPerRound,
+      ForkJoinPool pool,
+      long repairNodeLimit) {
+    checkArgument(repairsPerRound > 0);
+    checkArgument(repairNodeLimit > 0);
+    this.solverConfig = checkNotNull(solverConfig);
+    this.puzzle = checkNotNull(puzzle);
+    this.repairsPerRound = repairsPerRound;
+    this.pool = checkNotNull(pool);
+    this.repairNodeLimit = repairNodeLimit;
+  }
+
+  /**
+   * Solves the puzzle, returning the best selection seen before any of the
+   * configured limits was hit, which may not be a solution.
+   */
+  Selection getBestSelection(RandomGenerator random) {
+    return new Run(random).execute();
+  }
+
+  // One term of the naughtiness: a constraint on a quantity that each card
+  // adds to, depending on the type of its slot (null for a boost slot). A
+  // summary skill's quantity is the sum of its components, and its value
+  // that sum divided by the divisor.
+  @Immutable
+  private static final class Term {
+    final RangeConstraint constraint;
+    final int divisor;
+    final ToIntFunction<Selection> quantity;
+    final ToIntBiFunction<Card, MoveType> contribution;
+
+    Term(
+        RangeConstraint constraint,
+        int divisor,
+        ToIntFunction<Selection> quantity,
+        ToIntBiFunction<Card, MoveType> contribution) {
+      this.constraint = constraint;
+      this.divisor = divisor;
+      this.quantity = quantity;
+      this.contribution = contribution;
+    }
+
+    // The least this term can add to the naughtiness if its quantity ends up
+    // somewhere in [lowest, highest].
+    int getLeastDistance(long lowest, long highest) {
+      int low = (int) (lowest / divisor);
+      int high = (int) (highest / divisor);
+      if (constraint.isBelowMinimum(high)) {
+        return constraint.getSatisfactionDistance(high);
+      }
+      if (!constraint.isSatisfiedBy(low) && !constraint.isBelowMinimum(low)) {
+        return constraint.getSatisfactionDistance(low);
+      }
+      return 0;
+    }
+  }
+
+  private static ImmutableList<Term> buildTerms(Puzzle puzzle) {
+    CardCatalog catalog = puzzle.getCatalog();
+    ImmutableList.Builder<Term> terms = ImmutableList.builder();
+    for (Skill skill : Skill.values()) {
+      RangeConstraint constraint = puzzle.getSkillConstraint(skill);
+      if (!constraint.acceptsAnything()) {
+        terms.add(new Term(
+            constraint,
+            1,
+            selection -> selection.getSkillValue(skill),
+            (card, slotType) -> catalog.getSkillModifier(card, skill)));
+      }
+    }
+    for (SummarySkill summarySkill : SummarySkill.values()) {
+      RangeConstraint constraint = puzzle.getSummarySkillConstraint(summarySkill);
+      if (constraint.acceptsAnything()) {
+        continue;
+      }
+      if (summarySkill.equals(SummarySkill.CHEMISTRY)) {
+        terms.add(new Term(
+            constraint,
+            1,
+            selection -> selection.getSummarySkillValue(SummarySkill.CHEMISTRY),
+            (card, slotType) ->
+                slotType == null ? 0 : puzzle.getChemistry((MoveCard) card, slotType)));
+        continue;
+      }
+      List<Skill> components = Selection.getComponentSkills(summarySkill);
+      terms.add(new Term(
+          constraint,
+          components.size(),
+          selection -> {
+            int sum = 0;
+            for (Skill skill : components) {
+              sum += selection.getSkillValue(skill);
+            }
+            return sum;
+          },
+          (card, slotType) -> {
+            int sum = 0;
+            for (Skill skill : components) {
+              sum += catalog.getSkillModifier(card, skill);
+            }
+            return sum;
+          }));
+    }
+    for (Tier tier : Tier.values()) {
+      RangeConstraint constraint = puzzle.getCardTierConstraint(tier);
+      if (!constraint.acceptsAnything()) {
+        terms.add(new Term(
+            constraint,
+            1,
+            selection -> selection.getCardTierCount(tier),
+            (card, slotType) -> card.getTier().equals(tier) ? 1 : 0));
+      }
+    }
+    for (Style style : Style.values()) {
+      RangeConstraint constraint = puzzle.getCardStyleConstraint(style);
+      if (!constraint.acceptsAnything()) {
+        terms.add(new Term(
+            constraint,
+            1,
+            selection -> selection.getCardStyleCount(style),
+            (card, slotType) ->
+                card instanceof MoveCard && ((MoveCard) card).getStyle().equals(style) ? 1 : 0));
+      }
+    }
+    return terms.build();
+  }
+
+  // The state of one solve.
+  private final class Run {
+    final RandomGenerator random;
+    final SearchBudget budget = new SearchBudget(solverConfig);
+    final CardCatalog catalog = puzzle.getCatalog();
+    final Neighbourhood neighbourhood = new Neighbourhood(puzzle);
+    final SelectionTemplate template = puzzle.getSelectionTemplate();
+    final ImmutableList<Term> terms = buildTerms(puzzle);
+    final SelectionPool scratch = new SelectionPool(
+        puzzle, solverConfig.getCostModel().orElse(CostModel.DEFAULT), pool.getParallelism());
+    final boolean minimizeCost = solverConfig.getCostModel().isPresent();
+
+    final Repair[] repairs = new Repair[repairsPerRound];
+
+    Run(RandomGenerator random) {
+      this.random = checkNotNull(random);
+      for (int i = 0; i < repairsPerRound; ++i) {
+        repairs[i] = new Repair();
+      }
+    }
+
+    Selection execute() {
+      Selection current = new Selection(puzzle, solverConfig.getCostModel().orElse(CostModel.DEFAULT));
+      Selection bestEver = new Selection(current);
+      double naughtiness = current.getNaughtiness();
+      double lowestEverNaughtiness = naughtiness;
+      budget.recordBest(0, lowestEverNaughtiness);
+
+      long iteration = 0;
+      long truncated = 0;
+      double cooling = Math.log(FINAL_TEMPERATURE / STARTING_TEMPERATURE);
+      while (!budget.isExhaustedNow(iteration, lowestEverNaughtiness)) {
+        int count = (int) Math.min(repairsPerRound, solverConfig.getMaximumIterations() - iteration);
+        // The annealing rule takes a repair worse by d with probability
+        // exp(-d / T), so it takes exactly those at most -T ln(u) worse, for
+        // u drawn now. Any repair found is then taken.
+        double temperature = STARTING_TEMPERATURE
+            * Math.exp(cooling * (iteration + count) / solverConfig.getMaximumIterations());
+        double acceptable = naughtiness - temperature * Math.log(random.nextDouble());
+        for (int i = 0; i < count; ++i) {
+          repairs[i].prepare(current, acceptable, random);
+        }
+        pool.invoke(new RepairTask(0, count));
+        iteration += count;
+
+        Repair chosen = null;
+        for (int i = 0; i < count; ++i) {
+          Repair repair = repairs[i];
+          if (repair.nodes > repairNodeLimit) {
+            ++truncated;
+          }
+          if (repair.found && (chosen == null
+              || isBetter(repair.naughtiness, repair.cost, chosen.naughtiness, chosen.cost))) {
+            chosen = repair;
+          }
+        }
+        if (chosen == null) {
+          continue;
+        }
+        chosen.applyTo(current);
+        // Canonical, so that interchangeable freed slots hold their old cards
+        // in the order the repairs enumerate them.
+        current.canonicalize();
+        naughtiness = chosen.naughtiness;
+
+        if (isBetter(naughtiness, current.getCost(), lowestEverNaughtiness, bestEver.getCost())) {
+          if (naughtiness < lowestEverNaughtiness) {
+            budget.recordBest(iteration, naughtiness);
+          }
+          lowestEverNaughtiness = naughtiness;
+          bestEver.copyFrom(current);
+          if (solverConfig.isVerbose()) {
+            System.out.printf("%08d: %8.5g [%s]    [%s]%n",
+                iteration,
+                naughtiness,
+                current,
+                current.getDescription());
+          }
+        }
+      }
+
+      if (solverConfig.isVerbose()) {
+        System.out.printf("Stopped after %d iterations, %d repairs cut short: %s%n",
+            iteration, truncated, budget.getReason());
+      }
+      return bestEver;
+    }
+
+    private boolean isBetter(double naughtinessA, int costA, double naughtinessB, int costB) {
+      return naughtinessA < naughtinessB
+          || (minimizeCost && naughtinessA == naughtinessB && costA < costB);
+    }
+
+    private final class RepairTask extends RecursiveAction {
+      // Never serialized; fork/join tasks are merely Serializable by inheritance.
+      private static final long serialVersionUID = 1L;
+
+      final int start;
+      final int end;
+
+      RepairTask(int start, int end) {
+        this.start = start;
+        this.end = end;
+      }
+
+      @Override
+      protected void compute() {
+        if (end - start > 1) {
+          int middle = (start + end) >>> 1;
+          invokeAll(new RepairTask(start, middle), new RepairTask(middle, end));
+          return;
+        }
+        Selection selection = scratch.acquire();
+        repairs[start].run(selection);
+        scratch.release(selection);
+      }
+    }
+
+    // One destroy-and-repair: the slots to free, drawn up front, and the best
+    // cards found for them.
+    private final class Repair {
+      final int[] freed = new int[MAXIMUM_FREED];
+      final int[] original = new int[MAXIMUM_FREED];
+      // For each freed slot, the earlier freed slot in the same run, or -1.
+      final int[] previousInRun = new int[MAXIMUM_FREED];
+      final int[] chosen = new int[MAXIMUM_FREED];
+      final int[] best = new int[MAXIMUM_FREED];
+      int freedCount;
+      Selection current;
+      double acceptable;
+
+      final Card[][] candidates = new Card[MAXIMUM_FREED][];
+      // What each candidate for each freed slot adds to each term, indexed
+      // [slot][candidate * terms + term].
+      final int[][] contributions = new int[MAXIMUM_FREED][];
+      // The most and least the freed slots from each one on could add to
+      // each term, indexed [slot * terms + term].
+      long[] remainingHighest;
+      long[] remainingLowest;
+      // Each term's quantity with the freed slots before each one filled,
+      // indexed [slot * terms + term].
+      long[] quantities;
+      long nodes;
+
+      boolean found;
+      double naughtiness;
+      int cost;
+
+      // Draws the slots to free; runs on the calling thread. Only a repair
+      // no naughtier than acceptable will be found.
+      void prepare(Selection current, double acceptable, RandomGenerator random) {
+        this.current = current;
+        this.acceptable = acceptable;
+        int slotCount = puzzle.getSlotCount();
+        freedCount = Math.min(slotCount,
+            MINIMUM_FREED + random.nextInt(MAXIMUM_FREED - MINIMUM_FREED + 1));
+        for (int i = 0; i < freedCount; ++i) {
+          int slot;
+          do {
+            slot = random.nextInt(slotCount);
+          } while (contains(freed, i, slot));
+          freed[i] = slot;
+        }
+        Arrays.sort(freed, 0, freedCount);
+        for (int i = 0; i < freedCount; ++i) {
+          Card card = current.getCard(freed[i]);
+          original[i] = card == null ? EMPTY : card.getIndex();
+          previousInRun[i] = -1;
+          for (int j = i - 1; j >= 0 && previousInRun[i] < 0; --j) {
+            if (template.groupEnds[freed[j]] == template.groupEnds[freed[i]]) {
+              previousInRun[i] = j;
+            }
+          }
+        }
+      }
+
+      // Finds the best cards for the freed slots, working on the given
+      // scratch selection.
+      void run(Selection selection) {
+        selection.copyFrom(current);
+        for (int i = 0; i < freedCount; ++i) {
+          selection.setCard(freed[i], null);
+        }
+        int termCount = terms.size();
+        remainingHighest = new long[(freedCount + 1) * termCount];
+        remainingLowest = new long[(freedCount + 1) * termCount];
+        quantities = new long[(freedCount + 1) * termCount];
+        for (int i = freedCount - 1; i >= 0; --i) {
+          int slot = freed[i];
+          MoveType slotType = slot < puzzle.getMoveSlotCount() ? template.moveSlotTypes[slot] : null;
+          candidates[i] = neighbourhood.getCandidates(slot).stream()
+              .filter(card -> !selection.isUsed(card))
+              .toArray(Card[]::new);
+          sortByPromise(slot, candidates[i], selection);
+          contributions[i] = new int[candidates[i].length * termCount];
+          for (int t = 0; t < termCount; ++t) {
+            ToIntBiFunction<Card, MoveType> contribution = terms.get(t).contribution;
+            int highest = 0;
+            int lowest = 0;
+            for (int k = 0; k < candidates[i].length; ++k) {
+              int value = contribution.applyAsInt(candidates[i][k], slotType);
+              contributions[i][k * termCount + t] = value;
+              highest = Math.max(highest, value);
+              lowest = Math.min(lowest, value);
+            }
+            remainingHighest[i * termCount + t] = remainingHighest[(i + 1) * termCount + t] + highest;
+            remainingLowest[i * termCount + t] = remainingLowest[(i + 1) * termCount + t] + lowest;
+          }
+        }
+        found = false;
+        naughtiness = acceptable;
+        cost = Integer.MAX_VALUE;
+        nodes = 0;
+        visit(0, selection);
+      }
+
+      // Orders the candidates for a slot by the naughtiness with each alone
+      // in it, so that a good repair is found early and prunes the rest.
+      private void sortByPromise(int slot, Card[] cards, Selection selection) {
+        double[] promise = new double[cards.length];
+        Integer[] order = new Integer[cards.length];
+        for (int i = 0; i < cards.length; ++i) {
+          selection.setCard(slot, cards[i]);
+          promise[i] = selection.getNaughtiness();
+          order[i] = i;
+        }
+        selection.setCard(slot, null);
+        Arrays.sort(order, Comparator.comparingDouble(i -> promise[i]));
+        Card[] sorted = new Card[cards.length];
+        for (int i = 0; i < cards.length; ++i) {
+          sorted[i] = cards[order[i]];
+        }
+        System.arraycopy(sorted, 0, cards, 0, cards.length);
+      }
+
+      // Each child's bound is worked out from the cards' contributions before
+      // the card is put in the selection, which is the costly part, so that
+      // pruned children are never put in at all.
+      private void visit(int depth, Selection selection) {
+        if (++nodes > repairNodeLimit) {
+          return;
+        }
+        int termCount = terms.size();
+        for (int t = 0; t < termCount; ++t) {
+          quantities[depth * termCount + t] = terms.get(t).quantity.applyAsInt(selection);
+        }
+        if (isPruned(getLeastNaughtiness(depth, null, 0))) {
+          return;
+        }
+        if (depth == freedCount) {
+          double newNaughtiness = selection.getNaughtiness();
+          int newCost = selection.getCost();
+          boolean better = found
+              ? isBetter(newNaughtiness, newCost, naughtiness, cost)
+              : newNaughtiness <= naughtiness;
+          if (better && !isOriginal()) {
+            found = true;
+            naughtiness = newNaughtiness;
+            cost = newCost;
+            System.arraycopy(chosen, 0, best, 0, freedCount);
+          }
+          return;
+        }
+
+        // After the previous freed slot of the run: a higher index, or empty.
+        int previous = previousInRun[depth] < 0 ? EMPTY - 1 : chosen[previousInRun[depth]];
+        int slot = freed[depth];
+        if (previous != EMPTY) {
+          Card[] cards = candidates[depth];
+          for (int k = 0; k < cards.length; ++k) {
+            Card card = cards[k];
+            if (card.getIndex() <= previous
+                || isPruned(getLeastNaughtiness(depth, contributions[depth], k))
+                || selection.isUsed(card)) {
+              continue;
+            }
+            selection.setCard(slot, card);
+            chosen[depth] = card.getIndex();
+            visit(depth + 1, selection);
+          }
+          selection.setCard(slot, null);
+        }
+        chosen[depth] = EMPTY;
+        visit(depth + 1, selection);
+      }
+
+      // Without a cost, a tie with the best so far is no use either; until
+      // one is found, naughtiness is the round's threshold, which may be met.
+      private boolean isPruned(double least) {
+        return least > naughtiness || (found && !minimizeCost && least == naughtiness);
+      }
+
+      // A lower bound on the naughtiness of any completion of the freed
+      // slots from depth on, given the quantities at depth. With
+      // contributions, the bound is for the depth slot holding candidate k.
+      private double getLeastNaughtiness(int depth, int[] contributions, int k) {
+        int termCount = terms.size();
+        int rest = contributions == null ? depth : depth + 1;
+        double least = 0;
+        for (int t = 0; t < termCount; ++t) {
+          long quantity = quantities[depth * termCount + t]
+              + (contributions == null ? 0 : contributions[k * termCount + t]);
+          least += terms.get(t).getLeastDistance(
+              quantity + remainingLowest[rest * termCount + t],
+              quantity + remainingHighest[rest * termCount + t]);
+        }
+        return least;
+      }
+
+      // Whether the chosen cards are the old ones, perhaps in other slots of
+      // the same runs. The old cards of a run are in index order, as the
+      // chosen ones are, so comparing slot by slot is enough.
+      private boolean isOriginal() {
+        for (int i = 0; i < freedCount; ++i) {
+          if (chosen[i] != original[i]) {
+            return false;
+          }
+        }
+        return true;
+      }
+
+      // Puts the best cards found into the given selection.
+      void applyTo(Selection selection) {
+        for (int i = 0; i < freedCount; ++i) {
+          selection.setCard(freed[i], null);
+        }
+        for (int i = 0; i < freedCount; ++i) {
+          selection.setCard(freed[i], best[i] == EMPTY ? null : catalog.getCard(best[i]));
+        }
+      }
+    }
+  }
+
+  private static boolean contains(int[] values, int length, int value) {
+    for (int i = 0; i < length; ++i) {
+      if (values[i] == value) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
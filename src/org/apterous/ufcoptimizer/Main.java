@@ -5,8 +5,12 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultiset;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.FileSystems;
-import java.util.Random;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
 
 /**
  * The entry point for the application.
@@ -19,25 +23,115 @@ import java.util.Random;
  *
  * <p>The cards used are loaded from a file, in a rather clunky CSV format.
  * This will be improved in a future version.
+ *
+ * <p>Usage: {@code Main MOVES.csv BOOSTS.csv [--serve PORT | --coordinate
+ * PORT WORKERS | --checkpoint DIRECTORY]}. With {@code --serve}, instead of solving the hard-coded
+ * puzzles, the cards are loaded once and puzzles are accepted over HTTP; see
+ * {@link SolverServer}. The card files are watched, and edits are picked up
+ * without a restart. With {@code --coordinate}, the hard-coded puzzles are
+ * solved by {@link SolveWorker} processes, once the given number of them
+ * have connected to the port; see {@link SolveCoordinator}. With
+ * {@code --checkpoint}, each puzzle's walk is saved to a file in the
+ * directory every few seconds, and running again with the same directory
+ * resumes the walks from there with the same results; see
+ * {@link Solver#solveWithCheckpoints}.
  */
 public final class Main {
 
-  public static void main(String[] args) throws IOException {
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length >= 4 && args[2].equals("--serve")) {
+      CardCatalogWatcher watcher =
+          new CardCatalogWatcher(
+              FileSystems.getDefault().getPath(args[0]),
+              FileSystems.getDefault().getPath(args[1]));
+      watcher.start();
+      int threads = Runtime.getRuntime().availableProcessors();
+      SolverServer server =
+          new SolverServer(watcher::getCurrent, Integer.parseInt(args[3]), threads, 4 * threads);
+      server.start();
+      System.out.printf("Serving on http://localhost:%d/solve%n", server.getPort());
+      return;
+    }
+
     CardFileParser.Cards cards =
         new CardFileParser(
                 FileSystems.getDefault().getPath(args[0]),
                 FileSystems.getDefault().getPath(args[1]))
             .load();
+    CardCatalog catalog = CardCatalog.of(cards);
+
+    ImmutableList<Puzzle> puzzles = getExamplePuzzles(catalog);
+
+    Stream<Puzzle> feasiblePuzzles = puzzles.stream()
+        .filter(puzzle -> {
+          Feasibility feasibility = puzzle.getFeasibility();
+          if (!feasibility.isFeasible()) {
+            System.out.println("Cannot be solved: " + feasibility);
+          }
+          return feasibility.isFeasible();
+        });
 
+    if (args.length >= 5 && args[2].equals("--coordinate")) {
+      try (SolveCoordinator coordinator = new SolveCoordinator(Integer.parseInt(args[3]))) {
+        coordinator.start();
+        System.out.printf("Waiting for %s workers on port %d%n", args[4], coordinator.getPort());
+        coordinator.awaitWorkers(Integer.parseInt(args[4]));
+        coordinator
+            .solve(
+                feasiblePuzzles.collect(ImmutableList.toImmutableList()),
+                new Solver.SolverConfig(1_000_000),
+                129189)
+            .forEach(Main::printSolution);
+      }
+      return;
+    }
+
+    if (args.length >= 4 && args[2].equals("--checkpoint")) {
+      Path directory = FileSystems.getDefault().getPath(args[3]);
+      feasiblePuzzles
+          .map(puzzle -> solveWithCheckpoints(
+              puzzle, directory.resolve("puzzle-" + puzzles.indexOf(puzzle) + ".checkpoint")))
+          .forEach(Main::printSolution);
+      return;
+    }
+
+    feasiblePuzzles
+        .map(puzzle ->
+            new Solver(new Solver.SolverConfig(1_000_000), puzzle)
+                .getBestSelection(new SplittableRandom(129189)))
+        .forEach(Main::printSolution);
+  }
+
+  private static Selection solveWithCheckpoints(Puzzle puzzle, Path file) {
+    Solver.SolverConfig config =
+        Solver.SolverConfig.builder()
+            .setMaximumIterations(1_000_000)
+            .setCheckpoints(file, Duration.ofSeconds(10))
+            .build();
+    try {
+      return new Solver(config, puzzle).solveWithCheckpoints(129189);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void printSolution(Selection solution) {
+    System.out.println(solution);
+    System.out.println(solution.getDescription());
+    System.out.println(solution.getNaughtiness());
+    System.out.println(solution.getLongDescription());
+  }
+
+  /** The hard-coded puzzles, over the given cards. */
+  static ImmutableList<Puzzle> getExamplePuzzles(CardCatalog catalog) {
     // Descriptive constants.
     ImmutableMap<Skill, RangeConstraint> NO_SKILL_CONSTRAINTS = ImmutableMap.of();
     ImmutableMap<Tier, RangeConstraint> NO_TIER_CONSTRAINTS = ImmutableMap.of();
     ImmutableMap<Style, RangeConstraint> NO_STYLE_CONSTRAINTS = ImmutableMap.of();
 
-    ImmutableList<Puzzle> puzzles = ImmutableList.of(
+    return ImmutableList.of(
         new Puzzle(
-            cards.availableMoves,
-            cards.availableBoosts,
+            catalog,
             Weight.BW,
             Style.BALANCED,
             ImmutableMultiset.<MoveType>builder()
@@ -83,8 +177,7 @@ public final class Main {
                 .build()),
         // Pack: UFC 200: Normal. Puzzle 1: Miesha Tate: Normal.
         new Puzzle(
-            cards.availableMoves,
-            cards.availableBoosts,
+            catalog,
             Weight.BW,
             Style.BRAWLER,
             ImmutableMultiset.<MoveType>builder()
@@ -128,8 +221,7 @@ public final class Main {
                 .build()),
         // Pack: UFC 200: Normal. Puzzle 2: Amanda Nunes: Normal.
         new Puzzle(
-            cards.availableMoves,
-            cards.availableBoosts,
+            catalog,
             Weight.BW,
             Style.GRAPPLER,
             ImmutableMultiset.<MoveType>builder()
@@ -172,8 +264,7 @@ public final class Main {
                 .build()),
         // Pack: UFC 200: Hard. Puzzle 8: Travis Browne: Hard.
         new Puzzle(
-            cards.availableMoves,
-            cards.availableBoosts,
+            catalog,
             Weight.HW,
             Style.BRAWLER,
             ImmutableMultiset.<MoveType>builder()
@@ -217,17 +308,6 @@ public final class Main {
                 .put(Skill.BODY, 79)
                 .put(Skill.LEGS, 79)
                 .build()));
-
-    puzzles.stream()
-        .map(puzzle ->
-            new Solver(new Solver.SolverConfig(1_000_000), puzzle)
-                .getBestSelection(new Random(129189)))
-        .forEach(solution -> {
-          System.out.println(solution);
-          System.out.println(solution.getDescription());
-          System.out.println(solution.getNaughtiness());
-          System.out.println(solution.getLongDescription());
-        });
   }
 
   private Main() {}  // Not for instantiation.
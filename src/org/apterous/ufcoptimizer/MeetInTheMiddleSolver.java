@@ -0,0 +1,741 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.ToIntBiFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An exact solving engine that splits a puzzle into its striking, grappling
+ * and boost slots and meets in the middle.
+ *
+ * <p>Every constraint is on a sum over cards, so a selection can be scored by
+ * adding up a short vector per card: one entry per constrained skill, summary
+ * skill, tier and style, and chemistry (and cost, if the config has a
+ * {@link CostModel}). The three slot groups draw on disjoint cards, so:
+ *
+ * <ol>
+ * <li>For each group, cards that are never needed are dropped: a card is
+ *     never needed in a slot type if an empty slot, or at least as many other
+ *     cards as the group has slots, are at least as good on every entry.
+ * <li>Each group's assignments are enumerated depth first, taking the cards
+ *     of each run of interchangeable slots in one fixed order so that no
+ *     rearrangement is visited twice (see {@link Selection#canonicalize}).
+ *     Only the assignments that no other beats on every entry are kept, and a
+ *     branch is cut off once even its best case is beaten by one already
+ *     kept, or could not be completed by the best the other groups offer.
+ * <li>The striking and grappling lists are joined pairwise, filtered the same
+ *     way, and joined with the boost list through a lookup sorted on one
+ *     constrained entry.
+ * </ol>
+ *
+ * <p>None of these steps loses a solution, so if the search runs to the end it
+ * either finds a selection meeting every constraint (the cheapest one, with a
+ * cost model) or proves there is none. If the enumeration would pass the
+ * configured number of states, it gives up instead.
+ */
+@Immutable
+final class MeetInTheMiddleSolver {
+
+  /** How a solve ended. */
+  enum Status {
+    /** A selection meeting every constraint was found. */
+    SOLVED,
+    /** There is no selection meeting every constraint. */
+    INFEASIBLE,
+    /** The enumeration would have passed the state limit. */
+    TOO_LARGE,
+    /** The time limit passed or the solve was cancelled. */
+    STOPPED,
+  }
+
+  /** The outcome of a solve, with the sizes of its intermediate lists. */
+  @Immutable
+  static final class Result {
+    private final Status status;
+    private final Selection selection;
+    private final String statistics;
+
+    private Result(Status status, Selection selection, String statistics) {
+      this.status = status;
+      this.selection = selection;
+      this.statistics = statistics;
+    }
+
+    Status getStatus() {
+      return status;
+    }
+
+    /** The solution, present only if the status is {@link Status#SOLVED}. */
+    Optional<Selection> getSelection() {
+      return Optional.ofNullable(selection);
+    }
+
+    @Override
+    public String toString() {
+      return status + " " + statistics;
+    }
+  }
+
+  private static final int NO_MINIMUM = SkillKernel.NO_MINIMUM;
+  private static final int NO_MAXIMUM = SkillKernel.NO_MAXIMUM;
+  private static final int EMPTY = -1;
+  private static final int GROUP_COUNT = 3;
+  private static final int[] ENUMERATION_ORDER = {2, 0, 1};
+  // How often (in states) the clock and cancellation token are checked.
+  private static final int CHECK_MASK = (1 << 12) - 1;
+
+  private final Solver.SolverConfig solverConfig;
+  private final Puzzle puzzle;
+  private final int stateLimit;
+
+  /** Gives up after about 67 million states, several seconds' work. */
+  MeetInTheMiddleSolver(Solver.SolverConfig solverConfig, Puzzle puzzle) {
+    this(solverConfig, puzzle, 1 << 26);
+  }
+
+  /**
+   * @param stateLimit how many partial assignments, summed over every list
+   *     built, to consider before giving up
+   */
+  MeetInTheMiddleSolver(Solver.SolverConfig solverConfig, Puzzle puzzle, int stateLimit) {
+    checkArgument(stateLimit > 0);
+    this.solverConfig = checkNotNull(solverConfig);
+    this.puzzle = checkNotNull(puzzle);
+    this.stateLimit = stateLimit;
+  }
+
+  /** Solves the puzzle. The iteration and stagnation limits of the config are ignored. */
+  Result solve() {
+    return new Run().execute();
+  }
+
+  // One entry of the per-card vectors: how a card in a slot of a given type
+  // (null for a boost slot) adds to it, and the bounds on its total over the
+  // cards. Direction says which way is better: +1 higher, -1 lower, or 0 if
+  // both bounds are set and only equal values are interchangeable.
+  private static final class Dimension {
+    final String name;
+    final ToIntBiFunction<Card, MoveType> value;
+    final int lower;
+    final int upper;
+    final int direction;
+
+    Dimension(String name, ToIntBiFunction<Card, MoveType> value, long lower, long upper) {
+      this(name, value, lower, upper,
+          lower > NO_MINIMUM && upper < NO_MAXIMUM ? 0 : upper < NO_MAXIMUM ? -1 : 1);
+    }
+
+    Dimension(
+        String name, ToIntBiFunction<Card, MoveType> value, long lower, long upper, int direction) {
+      this.name = name;
+      this.value = value;
+      this.lower = (int) Math.max(NO_MINIMUM, lower);
+      this.upper = (int) Math.min(NO_MAXIMUM, upper);
+      this.direction = direction;
+    }
+
+    static Dimension forConstraint(
+        String name, ToIntBiFunction<Card, MoveType> value, RangeConstraint constraint, int offset) {
+      return new Dimension(
+          name,
+          value,
+          constraint.getMinimum().isPresent()
+              ? (long) constraint.getMinimum().getAsInt() - offset : NO_MINIMUM,
+          constraint.getMaximum().isPresent()
+              ? (long) constraint.getMaximum().getAsInt() - offset : NO_MAXIMUM);
+    }
+  }
+
+  // A growable list of partial assignments: each has a vector of D ints and
+  // the card index (or EMPTY) in each of W slots, stored flat.
+  private static final class StateList {
+    final int dimensions;
+    final int width;
+    int[] vectors;
+    int[] cards;
+    int size = 0;
+
+    StateList(int dimensions, int width) {
+      this.dimensions = dimensions;
+      this.width = width;
+      this.vectors = new int[16 * dimensions];
+      this.cards = new int[16 * Math.max(1, width)];
+    }
+
+    void add(int[] vector, int vectorOffset, int[] cardsFrom, int cardsOffset) {
+      if (size * dimensions == vectors.length) {
+        vectors = Arrays.copyOf(vectors, vectors.length * 2);
+      }
+      if (size * width >= cards.length) {
+        cards = Arrays.copyOf(cards, Math.max(cards.length * 2, (size + 1) * width));
+      }
+      System.arraycopy(vector, vectorOffset, vectors, size * dimensions, dimensions);
+      System.arraycopy(cardsFrom, cardsOffset, cards, size * width, width);
+      ++size;
+    }
+
+    // Removes the state at i, moving the last state into its place.
+    void remove(int i) {
+      --size;
+      System.arraycopy(vectors, size * dimensions, vectors, i * dimensions, dimensions);
+      System.arraycopy(cards, size * width, cards, i * width, width);
+    }
+  }
+
+  private final class Run {
+    final SearchBudget budget = new SearchBudget(solverConfig);
+    final SelectionTemplate template = puzzle.getSelectionTemplate();
+    final CardCatalog catalog = puzzle.getCatalog();
+    final ImmutableList<Dimension> dimensions = buildDimensions();
+    final int dimensionCount = dimensions.size();
+    final int costDimension = solverConfig.getCostModel().isPresent() ? dimensionCount - 1 : -1;
+
+    final int[] groupStarts = {
+        0, puzzle.getStrikingSlotCount(), puzzle.getMoveSlotCount(), puzzle.getSlotCount()};
+    // Candidates per slot, after dropping unneeded cards and sorting the rest
+    // best first: slots in one run share the same arrays.
+    final int[][] candidates = new int[puzzle.getSlotCount()][];
+    final int[][] candidateVectors = new int[puzzle.getSlotCount()][];
+    // The most and least the slots from each one to the end of its group
+    // could add to each dimension, ignoring that a card can only be used once.
+    final long[][] remainingHighest = new long[puzzle.getSlotCount() + 1][];
+    final long[][] remainingLowest = new long[puzzle.getSlotCount() + 1][];
+    final long[] none;
+    // The most and least each group could add to each dimension.
+    final long[][] groupHighest = new long[GROUP_COUNT][];
+    final long[][] groupLowest = new long[GROUP_COUNT][];
+
+    long states = 0;
+    Status stoppedWith = null;
+
+    Run() {
+      none = new long[dimensionCount];
+    }
+
+    Result execute() {
+      StringBuilder statistics = new StringBuilder("dimensions [");
+      for (Dimension dimension : dimensions) {
+        statistics.append(dimension == dimensions.get(0) ? "" : ", ").append(dimension.name);
+      }
+      statistics.append("]");
+      for (int group = 0; group < GROUP_COUNT; ++group) {
+        prepareGroup(group);
+        groupHighest[group] = remainingHighest[groupStarts[group]];
+        groupLowest[group] = remainingLowest[groupStarts[group]];
+      }
+      // Boosts first, since they are usually fewest, and each finished group
+      // then bounds the next more tightly.
+      StateList[] lists = new StateList[GROUP_COUNT];
+      for (int group : ENUMERATION_ORDER) {
+        lists[group] = enumerateGroup(group);
+        if (stoppedWith != null) {
+          return new Result(stoppedWith, null, statistics.toString());
+        }
+        statistics.append(String.format("; group %d: %d", group, lists[group].size));
+        if (lists[group].size == 0) {
+          return new Result(Status.INFEASIBLE, null, statistics.toString());
+        }
+        tightenBounds(group, lists[group]);
+      }
+
+      StateList moves = join(lists[0], lists[1]);
+      if (stoppedWith != null) {
+        return new Result(stoppedWith, null, statistics.toString());
+      }
+      statistics.append(String.format("; moves: %d; states: %d", moves.size, states));
+
+      Selection selection = lookUp(moves, lists[2]);
+      if (stoppedWith != null) {
+        return new Result(stoppedWith, null, statistics.toString());
+      }
+      if (selection == null) {
+        return new Result(Status.INFEASIBLE, null, statistics.toString());
+      }
+      return new Result(Status.SOLVED, selection, statistics.toString());
+    }
+
+    private ImmutableList<Dimension> buildDimensions() {
+      ImmutableList.Builder<Dimension> result = ImmutableList.builder();
+      for (Skill skill : Skill.values()) {
+        RangeConstraint constraint = puzzle.getSkillConstraint(skill);
+        if (!constraint.acceptsAnything()) {
+          result.add(Dimension.forConstraint(
+              skill.toString(),
+              (card, slotType) -> catalog.getSkillModifier(card, skill),
+              constraint,
+              puzzle.getInitialSkill(skill)));
+        }
+      }
+      for (SummarySkill summarySkill : SummarySkill.values()) {
+        RangeConstraint constraint = puzzle.getSummarySkillConstraint(summarySkill);
+        if (constraint.acceptsAnything()) {
+          continue;
+        }
+        if (summarySkill.equals(SummarySkill.CHEMISTRY)) {
+          result.add(Dimension.forConstraint(
+              summarySkill.toString(),
+              (card, slotType) ->
+                  slotType == null ? 0 : puzzle.getChemistry((MoveCard) card, slotType),
+              constraint,
+              0));
+          continue;
+        }
+        // The summary is the sum of its n components divided by n, rounded
+        // towards zero, so bound the sum instead: for a non-negative sum, the
+        // summary is in [a, b] exactly when the sum is in [a * n, b * n + n - 1].
+        List<Skill> components = Selection.getComponentSkills(summarySkill);
+        int n = components.size();
+        long initial = 0;
+        for (Skill skill : components) {
+          initial += puzzle.getInitialSkill(skill);
+        }
+        ToIntBiFunction<Card, MoveType> value = (card, slotType) -> {
+          int sum = 0;
+          for (Skill skill : components) {
+            sum += catalog.getSkillModifier(card, skill);
+          }
+          return sum;
+        };
+        result.add(new Dimension(
+            summarySkill.toString(),
+            value,
+            constraint.getMinimum().isPresent()
+                ? (long) constraint.getMinimum().getAsInt() * n - initial : NO_MINIMUM,
+            constraint.getMaximum().isPresent()
+                ? (long) constraint.getMaximum().getAsInt() * n + n - 1 - initial : NO_MAXIMUM));
+      }
+      for (Tier tier : Tier.values()) {
+        RangeConstraint constraint = puzzle.getCardTierConstraint(tier);
+        if (!constraint.acceptsAnything()) {
+          result.add(Dimension.forConstraint(
+              tier.toString(),
+              (card, slotType) -> card.getTier().equals(tier) ? 1 : 0,
+              constraint,
+              0));
+        }
+      }
+      for (Style style : Style.values()) {
+        RangeConstraint constraint = puzzle.getCardStyleConstraint(style);
+        if (!constraint.acceptsAnything()) {
+          result.add(Dimension.forConstraint(
+              style.toString(),
+              (card, slotType) ->
+                  card instanceof MoveCard && ((MoveCard) card).getStyle().equals(style) ? 1 : 0,
+              constraint,
+              0));
+        }
+      }
+      // Lower cost is better, and it has no bounds.
+      solverConfig.getCostModel().ifPresent(costModel ->
+          result.add(new Dimension(
+              "cost", (card, slotType) -> costModel.getCost(card), NO_MINIMUM, NO_MAXIMUM, -1)));
+      return result.build();
+    }
+
+    // Drops unneeded cards from each run of the group, sorts the rest, and
+    // works out how much the group's slots could add to each dimension.
+    private void prepareGroup(int group) {
+      int start = groupStarts[group];
+      int end = groupStarts[group + 1];
+      int slots = end - start;
+      ImmutableList<? extends Card> cards =
+          group == 0 ? puzzle.getStrikingCards()
+              : group == 1 ? puzzle.getGrapplingCards() : puzzle.getBoostCards();
+      for (int runStart = start; runStart < end; runStart = template.groupEnds[runStart]) {
+        MoveType slotType =
+            runStart < puzzle.getMoveSlotCount() ? template.moveSlotTypes[runStart] : null;
+        int[] vectors = new int[cards.size() * dimensionCount];
+        for (int i = 0; i < cards.size(); ++i) {
+          for (int d = 0; d < dimensionCount; ++d) {
+            vectors[i * dimensionCount + d] =
+                dimensions.get(d).value.applyAsInt(cards.get(i), slotType);
+          }
+        }
+        int[] empty = new int[dimensionCount];
+        List<Integer> kept = new ArrayList<>();
+        for (int i = 0; i < cards.size(); ++i) {
+          if (dominates(empty, 0, vectors, i * dimensionCount)) {
+            continue;
+          }
+          int dominators = 0;
+          for (int j = 0; j < cards.size() && dominators < slots; ++j) {
+            // Of two cards with equal vectors, the earlier one wins.
+            if (j != i
+                && dominates(vectors, j * dimensionCount, vectors, i * dimensionCount)
+                && (j < i || !Arrays.equals(
+                    vectors, j * dimensionCount, (j + 1) * dimensionCount,
+                    vectors, i * dimensionCount, (i + 1) * dimensionCount))) {
+              ++dominators;
+            }
+          }
+          if (dominators < slots) {
+            kept.add(i);
+          }
+        }
+        // Best first, so good assignments are found early and cut off the
+        // rest. Dimensions are scaled so each counts about the same.
+        double[] scales = new double[dimensionCount];
+        for (int i : kept) {
+          for (int d = 0; d < dimensionCount; ++d) {
+            scales[d] = Math.max(scales[d], Math.abs(vectors[i * dimensionCount + d]));
+          }
+        }
+        double[] scores = new double[cards.size()];
+        for (int i : kept) {
+          for (int d = 0; d < dimensionCount; ++d) {
+            if (scales[d] > 0) {
+              scores[i] += dimensions.get(d).direction * vectors[i * dimensionCount + d] / scales[d];
+            }
+          }
+        }
+        kept.sort((x, y) -> Double.compare(scores[y], scores[x]));
+
+        int[] runCandidates = new int[kept.size()];
+        int[] runVectors = new int[kept.size() * dimensionCount];
+        for (int k = 0; k < kept.size(); ++k) {
+          runCandidates[k] = cards.get(kept.get(k)).getIndex();
+          System.arraycopy(
+              vectors, kept.get(k) * dimensionCount, runVectors, k * dimensionCount, dimensionCount);
+        }
+        for (int slot = runStart; slot < template.groupEnds[runStart]; ++slot) {
+          candidates[slot] = runCandidates;
+          candidateVectors[slot] = runVectors;
+        }
+      }
+
+      // The rest of a run takes the best of its kept cards (or nothing) for
+      // the dimension, each card at most once.
+      remainingHighest[end] = none;
+      remainingLowest[end] = none;
+      int[] values = new int[cards.size()];
+      for (int slot = end - 1; slot >= start; --slot) {
+        int runEnd = template.groupEnds[slot];
+        remainingHighest[slot] = remainingHighest[runEnd].clone();
+        remainingLowest[slot] = remainingLowest[runEnd].clone();
+        int n = candidates[slot].length;
+        for (int d = 0; d < dimensionCount; ++d) {
+          for (int k = 0; k < n; ++k) {
+            values[k] = candidateVectors[slot][k * dimensionCount + d];
+          }
+          Arrays.sort(values, 0, n);
+          for (int k = 0; k < runEnd - slot && k < n; ++k) {
+            remainingHighest[slot][d] += Math.max(0, values[n - 1 - k]);
+            remainingLowest[slot][d] += Math.min(0, values[k]);
+          }
+        }
+      }
+    }
+
+    // Narrows a group's bounds to those of its enumerated assignments. Every
+    // assignment is at least as good as one of them, so the most and least
+    // useful values are among theirs.
+    private void tightenBounds(int group, StateList list) {
+      long[] highest = new long[dimensionCount];
+      long[] lowest = new long[dimensionCount];
+      Arrays.fill(highest, Long.MIN_VALUE);
+      Arrays.fill(lowest, Long.MAX_VALUE);
+      for (int i = 0; i < list.size; ++i) {
+        for (int d = 0; d < dimensionCount; ++d) {
+          highest[d] = Math.max(highest[d], list.vectors[i * dimensionCount + d]);
+          lowest[d] = Math.min(lowest[d], list.vectors[i * dimensionCount + d]);
+        }
+      }
+      groupHighest[group] = highest;
+      groupLowest[group] = lowest;
+    }
+
+    // The group's assignments that no other beats and that the other groups
+    // could complete.
+    private StateList enumerateGroup(int group) {
+      int start = groupStarts[group];
+      int end = groupStarts[group + 1];
+      long[] otherHighest = new long[dimensionCount];
+      long[] otherLowest = new long[dimensionCount];
+      for (int other = 0; other < GROUP_COUNT; ++other) {
+        if (other != group) {
+          add(otherHighest, groupHighest[other]);
+          add(otherLowest, groupLowest[other]);
+        }
+      }
+      Enumeration enumeration = new Enumeration(start, end, otherHighest, otherLowest);
+      enumeration.visit(start);
+      return enumeration.frontier;
+    }
+
+    // The depth-first search over one group's slots.
+    private final class Enumeration {
+      final int start;
+      final int end;
+      final long[] otherHighest;
+      final long[] otherLowest;
+      final StateList frontier;
+      final int[] vector = new int[dimensionCount];
+      final int[] chosen;
+      final int[] positions;
+      final BitSet used = new BitSet(catalog.getMaximumIndex() + 1);
+      final long[] highest = new long[dimensionCount];
+      final long[] lowest = new long[dimensionCount];
+
+      Enumeration(int start, int end, long[] otherHighest, long[] otherLowest) {
+        this.start = start;
+        this.end = end;
+        this.otherHighest = otherHighest;
+        this.otherLowest = otherLowest;
+        this.frontier = new StateList(dimensionCount, end - start);
+        this.chosen = new int[end - start];
+        this.positions = new int[end - start];
+      }
+
+      void visit(int slot) {
+        if (!countState()) {
+          return;
+        }
+        for (int d = 0; d < dimensionCount; ++d) {
+          highest[d] = vector[d] + remainingHighest[slot][d];
+          lowest[d] = vector[d] + remainingLowest[slot][d];
+        }
+        if (isBeaten(frontier, highest, lowest)
+            || !canComplete(highest, lowest, otherHighest, otherLowest)) {
+          return;
+        }
+        if (slot == end) {
+          insert(frontier, vector, 0, chosen, 0);
+          return;
+        }
+
+        // Within a run, cards go in candidate order, then empty slots.
+        boolean runStart = slot == start || template.groupEnds[slot - 1] != template.groupEnds[slot];
+        int previous = runStart ? -1 : positions[slot - start - 1];
+        int[] slotCandidates = candidates[slot];
+        for (int k = previous + 1; k < slotCandidates.length; ++k) {
+          int card = slotCandidates[k];
+          if (used.get(card)) {
+            continue;
+          }
+          used.set(card);
+          addVector(vector, candidateVectors[slot], k * dimensionCount, 1);
+          chosen[slot - start] = card;
+          positions[slot - start] = k;
+          visit(slot + 1);
+          addVector(vector, candidateVectors[slot], k * dimensionCount, -1);
+          used.clear(card);
+          if (stoppedWith != null) {
+            return;
+          }
+        }
+        chosen[slot - start] = EMPTY;
+        positions[slot - start] = slotCandidates.length;
+        visit(slot + 1);
+      }
+    }
+
+    // Combines the striking and grappling assignments pairwise, keeping those
+    // that no other pair beats and that the boosts could complete.
+    private StateList join(StateList striking, StateList grappling) {
+      StateList list = new StateList(dimensionCount, striking.width + grappling.width);
+      int[] vector = new int[dimensionCount];
+      long[] value = new long[dimensionCount];
+      int[] cards = new int[striking.width + grappling.width];
+      for (int a = 0; a < striking.size; ++a) {
+        System.arraycopy(striking.cards, a * striking.width, cards, 0, striking.width);
+        for (int b = 0; b < grappling.size; ++b) {
+          if (!countState()) {
+            return null;
+          }
+          for (int d = 0; d < dimensionCount; ++d) {
+            vector[d] = striking.vectors[a * dimensionCount + d]
+                + grappling.vectors[b * dimensionCount + d];
+            value[d] = vector[d];
+          }
+          if (canComplete(value, value, groupHighest[2], groupLowest[2])) {
+            System.arraycopy(
+                grappling.cards, b * grappling.width, cards, striking.width, grappling.width);
+            insert(list, vector, 0, cards, 0);
+          }
+        }
+      }
+      return list;
+    }
+
+    // Finds the move assignment and boost assignment that together meet every
+    // bound, the cheapest if there is a cost. The boosts are sorted by one
+    // bounded-below dimension, so for each move assignment only the boosts
+    // adding enough to it are scanned.
+    private Selection lookUp(StateList moves, StateList boosts) {
+      int key = -1;
+      for (int d = 0; d < dimensionCount && key < 0; ++d) {
+        if (dimensions.get(d).lower > NO_MINIMUM) {
+          key = d;
+        }
+      }
+      Integer[] order = new Integer[boosts.size];
+      for (int i = 0; i < order.length; ++i) {
+        order[i] = i;
+      }
+      int sortKey = key;
+      if (sortKey >= 0) {
+        Arrays.sort(order, (x, y) -> Integer.compare(
+            boosts.vectors[y * dimensionCount + sortKey], boosts.vectors[x * dimensionCount + sortKey]));
+      }
+
+      int bestMoves = -1;
+      int bestBoosts = -1;
+      long bestCost = Long.MAX_VALUE;
+      int[] total = new int[dimensionCount];
+      for (int m = 0; m < moves.size; ++m) {
+        for (int b : order) {
+          if (sortKey >= 0
+              && moves.vectors[m * dimensionCount + sortKey] + boosts.vectors[b * dimensionCount + sortKey]
+                  < dimensions.get(sortKey).lower) {
+            break;
+          }
+          if (!countState()) {
+            return null;
+          }
+          for (int d = 0; d < dimensionCount; ++d) {
+            total[d] = moves.vectors[m * dimensionCount + d] + boosts.vectors[b * dimensionCount + d];
+          }
+          if (!isWithinBounds(total)) {
+            continue;
+          }
+          long cost = costDimension < 0 ? 0 : total[costDimension];
+          if (cost < bestCost) {
+            bestCost = cost;
+            bestMoves = m;
+            bestBoosts = b;
+            if (costDimension < 0) {
+              return toSelection(moves, bestMoves, boosts, bestBoosts);
+            }
+          }
+        }
+      }
+      return bestMoves < 0 ? null : toSelection(moves, bestMoves, boosts, bestBoosts);
+    }
+
+    private Selection toSelection(StateList moves, int m, StateList boosts, int b) {
+      Selection selection =
+          new Selection(puzzle, solverConfig.getCostModel().orElse(CostModel.DEFAULT));
+      for (int slot = 0; slot < moves.width; ++slot) {
+        setCard(selection, slot, moves.cards[m * moves.width + slot]);
+      }
+      for (int slot = 0; slot < boosts.width; ++slot) {
+        setCard(selection, moves.width + slot, boosts.cards[b * boosts.width + slot]);
+      }
+      // Candidates were taken best first rather than by index.
+      selection.canonicalize();
+      return selection;
+    }
+
+    private void setCard(Selection selection, int slot, int index) {
+      selection.setCard(slot, index == EMPTY ? null : catalog.getCard(index));
+    }
+
+    // Adds the state to the list unless one there is at least as good,
+    // removing any it beats.
+    private void insert(StateList list, int[] vector, int vectorOffset, int[] cards, int cardsOffset) {
+      for (int i = 0; i < list.size; ++i) {
+        if (dominates(list.vectors, i * dimensionCount, vector, vectorOffset)) {
+          return;
+        }
+      }
+      for (int i = list.size - 1; i >= 0; --i) {
+        if (dominates(vector, vectorOffset, list.vectors, i * dimensionCount)) {
+          list.remove(i);
+        }
+      }
+      list.add(vector, vectorOffset, cards, cardsOffset);
+    }
+
+    // Whether a is at least as good as b on every dimension.
+    private boolean dominates(int[] a, int aOffset, int[] b, int bOffset) {
+      for (int d = 0; d < dimensionCount; ++d) {
+        int difference = a[aOffset + d] - b[bOffset + d];
+        int direction = dimensions.get(d).direction;
+        if (direction == 0 ? difference != 0 : difference * direction < 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    // Whether a state in the list is at least as good as every completion of
+    // a branch whose values lie between lowest and highest.
+    private boolean isBeaten(StateList list, long[] highest, long[] lowest) {
+      for (int i = 0; i < list.size; ++i) {
+        boolean beaten = true;
+        for (int d = 0; d < dimensionCount && beaten; ++d) {
+          int value = list.vectors[i * dimensionCount + d];
+          switch (dimensions.get(d).direction) {
+            case 1:
+              beaten = value >= highest[d];
+              break;
+            case -1:
+              beaten = value <= lowest[d];
+              break;
+            default:
+              beaten = value == lowest[d] && value == highest[d];
+          }
+        }
+        if (beaten) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    // Whether values between lowest and highest, plus between otherLowest and
+    // otherHighest, could meet every bound.
+    private boolean canComplete(long[] highest, long[] lowest, long[] otherHighest, long[] otherLowest) {
+      for (int d = 0; d < dimensionCount; ++d) {
+        Dimension dimension = dimensions.get(d);
+        if (highest[d] + otherHighest[d] < dimension.lower
+            || lowest[d] + otherLowest[d] > dimension.upper) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean isWithinBounds(int[] vector) {
+      for (int d = 0; d < dimensionCount; ++d) {
+        Dimension dimension = dimensions.get(d);
+        if (vector[d] < dimension.lower || vector[d] > dimension.upper) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void addVector(int[] vector, int[] from, int offset, int sign) {
+      for (int d = 0; d < dimensionCount; ++d) {
+        vector[d] += sign * from[offset + d];
+      }
+    }
+
+    private void add(long[] sum, long[] values) {
+      for (int d = 0; d < dimensionCount; ++d) {
+        sum[d] += values[d];
+      }
+    }
+
+    // Counts one more state, returning false (and recording why) if the
+    // search must stop.
+    private boolean countState() {
+      if (++states > stateLimit) {
+        stoppedWith = Status.TOO_LARGE;
+      } else if ((states & CHECK_MASK) == 0 && budget.isExhaustedNow(0, Double.POSITIVE_INFINITY)) {
+        stoppedWith = Status.STOPPED;
+      }
+      return stoppedWith == null;
+    }
+  }
+}
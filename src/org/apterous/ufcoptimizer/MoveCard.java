@@ -32,6 +32,24 @@ final class MoveCard extends Card {
         getSkillModifierDescription());
   }
 
+  @Override
+  public boolean hasSameAttributes(Card other) {
+    if (!super.hasSameAttributes(other)) {
+      return false;
+    }
+    MoveCard otherMove = (MoveCard) other;
+    return otherMove.weight == weight && otherMove.style == style && otherMove.moveType == moveType;
+  }
+
+  @Override
+  MoveCard withTier(Tier tier) {
+    return new MoveCard(getIndex(), weight, style, moveType, getSkillModifiers(), tier);
+  }
+
+  public Weight getWeight() {
+    return weight;
+  }
+
   public Style getStyle() { return style; }
 
   public MoveType getMoveType() {
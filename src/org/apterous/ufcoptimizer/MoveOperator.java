@@ -0,0 +1,19 @@
+package org.apterous.ufcoptimizer;
+
+/** The kinds of step a solver can take from one {@link Selection} to a neighbouring one. */
+enum MoveOperator {
+  /** Put a random unused card in a random slot. */
+  REPLACE,
+  /** Empty a random slot. */
+  CLEAR,
+  /** Exchange the cards in two move slots of the same kind, which changes only chemistry. */
+  SWAP,
+  /** Two {@link #REPLACE} steps taken together, to cross a ridge that neither crosses alone. */
+  DOUBLE_REPLACE,
+  /**
+   * Aim at the constraint that is currently violated by the widest margin:
+   * place a card known to help it, or, if its value is too high, empty a slot
+   * holding a card that adds to it.
+   */
+  REPAIR,
+}
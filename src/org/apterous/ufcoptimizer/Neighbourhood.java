@@ -0,0 +1,220 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.random.RandomGenerator;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Applies {@link MoveOperator}s to a {@link Selection}, remembering enough to
+ * undo the most recent one.
+ *
+ * <p>Slots are numbered as for {@link Selection#getCard}. Nothing is
+ * allocated per move, so this is safe to use in a solver's hot loop.
+ *
+ * <p>Not thread-safe; each walk should own its own instance.
+ */
+final class Neighbourhood {
+
+  // The most slots any single operator changes.
+  private static final int MAX_CHANGES = 2;
+  // How many random draws a repair makes looking for an unused helpful card.
+  private static final int REPAIR_ATTEMPTS = 8;
+
+  private final Puzzle puzzle;
+  private final RepairIndex repairIndex;
+
+  // Undo log for the last move: either a swap of two slots, or a sequence of
+  // (slot, previous card) pairs to restore in reverse order.
+  private boolean lastWasSwap;
+  private final int[] changedSlots = new int[MAX_CHANGES];
+  private final Card[] previousCards = new Card[MAX_CHANGES];
+  private int changeCount;
+
+  Neighbourhood(Puzzle puzzle) {
+    this.puzzle = checkNotNull(puzzle);
+    this.repairIndex = puzzle.getRepairIndex();
+  }
+
+  /**
+   * Applies the given operator to the selection. If the operator cannot apply
+   * (a swap with no two slots of the same kind, or a repair with nothing to
+   * repair) a {@link MoveOperator#REPLACE} is applied instead.
+   *
+   * @return the operator that was actually applied
+   */
+  MoveOperator apply(MoveOperator operator, Selection selection, RandomGenerator random) {
+    lastWasSwap = false;
+    changeCount = 0;
+    switch (operator) {
+      case REPLACE:
+        replace(randomSlot(random), selection, random);
+        return MoveOperator.REPLACE;
+      case CLEAR:
+        set(randomSlot(random), null, selection);
+        return MoveOperator.CLEAR;
+      case SWAP:
+        if (swap(selection, random)) {
+          return MoveOperator.SWAP;
+        }
+        replace(randomSlot(random), selection, random);
+        return MoveOperator.REPLACE;
+      case DOUBLE_REPLACE:
+        replace(randomSlot(random), selection, random);
+        replace(randomSlot(random), selection, random);
+        return MoveOperator.DOUBLE_REPLACE;
+      case REPAIR:
+        if (repair(selection, random)) {
+          return MoveOperator.REPAIR;
+        }
+        replace(randomSlot(random), selection, random);
+        return MoveOperator.REPLACE;
+      default:
+        throw new AssertionError(operator);
+    }
+  }
+
+  /** Puts a random unused card that fits the given slot into it. */
+  void replace(int slot, Selection selection, RandomGenerator random) {
+    set(slot, selection.getRandomUnused(getCandidates(slot), random), selection);
+  }
+
+  /** Reverts the selection to how it was before the last {@link #apply}. */
+  void undo(Selection selection) {
+    if (lastWasSwap) {
+      selection.swapMoves(changedSlots[0], changedSlots[1]);
+    } else {
+      for (int i = changeCount - 1; i >= 0; --i) {
+        selection.setCard(changedSlots[i], previousCards[i]);
+      }
+    }
+    lastWasSwap = false;
+    changeCount = 0;
+  }
+
+  /** The cards that may go in the given slot. */
+  ImmutableList<? extends Card> getCandidates(int slot) {
+    if (slot < puzzle.getStrikingSlotCount()) {
+      return puzzle.getStrikingCards();
+    } else if (slot < puzzle.getMoveSlotCount()) {
+      return puzzle.getGrapplingCards();
+    } else {
+      return puzzle.getBoostCards();
+    }
+  }
+
+  private int randomSlot(RandomGenerator random) {
+    return random.nextInt(puzzle.getSlotCount());
+  }
+
+  private void set(int slot, Card card, Selection selection) {
+    checkState(changeCount < MAX_CHANGES);
+    changedSlots[changeCount] = slot;
+    previousCards[changeCount] = selection.setCard(slot, card);
+    ++changeCount;
+  }
+
+  // Swaps two distinct slots of the same kind, choosing the kind in proportion
+  // to the number of pairs available. Returns false if there are no such pairs.
+  private boolean swap(Selection selection, RandomGenerator random) {
+    int strikingSlots = puzzle.getStrikingSlotCount();
+    int grapplingSlots = puzzle.getGrapplingSlotCount();
+    int strikingPairs = strikingSlots * (strikingSlots - 1);
+    int grapplingPairs = grapplingSlots * (grapplingSlots - 1);
+    if (strikingPairs + grapplingPairs == 0) {
+      return false;
+    }
+
+    int first, size;
+    if (random.nextInt(strikingPairs + grapplingPairs) < strikingPairs) {
+      first = 0;
+      size = strikingSlots;
+    } else {
+      first = strikingSlots;
+      size = grapplingSlots;
+    }
+    int slotA = first + random.nextInt(size);
+    int slotB = first + random.nextInt(size - 1);
+    if (slotB >= slotA) {
+      ++slotB;
+    }
+
+    selection.swapMoves(slotA, slotB);
+    lastWasSwap = true;
+    changedSlots[0] = slotA;
+    changedSlots[1] = slotB;
+    return true;
+  }
+
+  // Makes a step aimed at the most violated constraint. Returns false if there
+  // is none, or no obvious way to improve it.
+  private boolean repair(Selection selection, RandomGenerator random) {
+    RepairIndex.Target target = repairIndex.getMostViolated(selection);
+    if (target == null) {
+      return false;
+    }
+
+    if (!target.isTooLow(selection)) {
+      // Empty a random slot among those holding a contributing card.
+      int contributing = 0;
+      int chosen = -1;
+      for (int slot = 0; slot < puzzle.getSlotCount(); ++slot) {
+        Card card = selection.getCard(slot);
+        if (card != null && target.contributes(card) && random.nextInt(++contributing) == 0) {
+          chosen = slot;
+        }
+      }
+      if (chosen < 0) {
+        return false;
+      }
+      set(chosen, null, selection);
+      return true;
+    }
+
+    // Choose a slot group in proportion to its size, among those with any
+    // helpful cards at all.
+    int weight = 0;
+    int group = -1;
+    for (int candidate = 0; candidate < RepairIndex.GROUP_COUNT; ++candidate) {
+      int size = repairIndex.getGroupSize(candidate);
+      if (size > 0 && !target.getHelpers(candidate).isEmpty()) {
+        weight += size;
+        if (random.nextInt(weight) < size) {
+          group = candidate;
+        }
+      }
+    }
+    if (group < 0) {
+      return false;
+    }
+
+    ImmutableList<Card> helpers = target.getHelpers(group);
+    for (int attempt = 0; attempt < REPAIR_ATTEMPTS; ++attempt) {
+      Card card = helpers.get(random.nextInt(helpers.size()));
+      if (!selection.isUsed(card)) {
+        set(chooseSlotToOverwrite(group, target, selection, random), card, selection);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Picks a random slot in the group, preferring one whose card does not
+  // already help the target so the repair does not undo itself.
+  private int chooseSlotToOverwrite(
+      int group, RepairIndex.Target target, Selection selection, RandomGenerator random) {
+    int start = repairIndex.getGroupStart(group);
+    int end = start + repairIndex.getGroupSize(group);
+    int seen = 0;
+    int chosen = -1;
+    for (int slot = start; slot < end; ++slot) {
+      Card card = selection.getCard(slot);
+      if ((card == null || !target.contributes(card)) && random.nextInt(++seen) == 0) {
+        chosen = slot;
+      }
+    }
+    return chosen >= 0 ? chosen : start + random.nextInt(end - start);
+  }
+}
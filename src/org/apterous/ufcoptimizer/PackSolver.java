@@ -0,0 +1,231 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Solves the puzzles of a pack together, where a card spent on one puzzle
+ * cannot be spent on another.
+ *
+ * <p>Solving the puzzles one at a time, each taking its pick of what the
+ * earlier ones left, can fail late or waste premium cards on an early puzzle
+ * that did not need them. Instead, every puzzle is first solved in parallel
+ * over all the cards. Then, in rounds:
+ *
+ * <ol>
+ * <li>Each card held by more than one puzzle is reserved for the holder whose
+ *     naughtiness would rise most without it (the earliest puzzle on a tie).
+ * <li>The other holders are solved again, in parallel, without the cards
+ *     reserved for anyone else. A reservation lapses once its puzzle no
+ *     longer holds the card.
+ * </ol>
+ *
+ * <p>If cards are still contested after the last round, the puzzles holding
+ * them are solved once more, one at a time, each without any card another
+ * puzzle holds. So no card is ever returned in two selections.
+ *
+ * <p>All the puzzles must share one {@link CardCatalog}. The selections
+ * returned are over copies of the puzzles restricted to the cards they were
+ * allowed, with the same constraints.
+ */
+@Immutable
+final class PackSolver {
+
+  /** The selections for a pack, one per puzzle, sharing no cards. */
+  @Immutable
+  static final class Result {
+    private final ImmutableList<Selection> selections;
+    private final int rounds;
+
+    private Result(ImmutableList<Selection> selections, int rounds) {
+      this.selections = selections;
+      this.rounds = rounds;
+    }
+
+    /** The selections, in the order of the puzzles. */
+    ImmutableList<Selection> getSelections() {
+      return selections;
+    }
+
+    /** Whether every selection solves its puzzle. */
+    boolean isSolved() {
+      return selections.stream().allMatch(Selection::isSolved);
+    }
+
+    /** How many rounds of re-solving it took to settle the contested cards. */
+    int getRounds() {
+      return rounds;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s after %d rounds", isSolved() ? "solved" : "unsolved", rounds);
+    }
+  }
+
+  private static final int NO_OWNER = -1;
+
+  private final Solver.SolverConfig solverConfig;
+  private final ImmutableList<Puzzle> puzzles;
+  private final int maximumRounds;
+
+  /** Settles contested cards over up to eight rounds. */
+  PackSolver(Solver.SolverConfig solverConfig, ImmutableList<Puzzle> puzzles) {
+    this(solverConfig, puzzles, 8);
+  }
+
+  /** @param maximumRounds how many rounds to try before falling back to excluding cards outright */
+  PackSolver(Solver.SolverConfig solverConfig, ImmutableList<Puzzle> puzzles, int maximumRounds) {
+    checkArgument(!puzzles.isEmpty());
+    checkArgument(maximumRounds >= 0);
+    for (Puzzle puzzle : puzzles) {
+      checkArgument(puzzle.getCatalog() == puzzles.get(0).getCatalog(),
+          "The puzzles of a pack must share a catalog");
+    }
+    this.solverConfig = checkNotNull(solverConfig);
+    this.puzzles = puzzles;
+    this.maximumRounds = maximumRounds;
+  }
+
+  /**
+   * Solves every puzzle of the pack. The puzzle solved in round r with index
+   * i draws from the generator split at position r * puzzles + i from the
+   * given seed (see {@link Solver#splitRandoms}), so the result does not
+   * depend on thread scheduling unless a time limit cuts a solve short.
+   */
+  Result solve(long rootSeed) {
+    int count = puzzles.size();
+    CardCatalog catalog = puzzles.get(0).getCatalog();
+    ImmutableList<SplittableRandom> randoms =
+        Solver.splitRandoms(rootSeed, (maximumRounds + 2) * count);
+    Selection[] selections = new Selection[count];
+    int[] owners = new int[catalog.getMaximumIndex() + 1];
+    Arrays.fill(owners, NO_OWNER);
+
+    BitSet toSolve = new BitSet(count);
+    toSolve.set(0, count);
+    int round;
+    for (round = 0; ; ++round) {
+      int offset = round * count;
+      toSolve.stream().parallel().forEach(i -> {
+        BitSet excluded = new BitSet(owners.length);
+        for (int index = 0; index < owners.length; ++index) {
+          if (owners[index] != NO_OWNER && owners[index] != i) {
+            excluded.set(index);
+          }
+        }
+        selections[i] = solve(puzzles.get(i).withoutCards(excluded), randoms.get(offset + i));
+      });
+
+      for (int index = 0; index < owners.length; ++index) {
+        if (owners[index] != NO_OWNER && !selections[owners[index]].isUsed(catalog.getCard(index))) {
+          owners[index] = NO_OWNER;
+        }
+      }
+      BitSet contested = getContestedCards(selections, catalog);
+      if (solverConfig.isVerbose()) {
+        System.out.printf("Round %d: %d contested cards%n", round, contested.cardinality());
+      }
+      if (contested.isEmpty() || round == maximumRounds) {
+        if (!contested.isEmpty()) {
+          settleByExclusion(
+              selections, contested, catalog, randoms.subList(offset + count, offset + 2 * count));
+        }
+        break;
+      }
+
+      toSolve.clear();
+      for (int index = contested.nextSetBit(0); index >= 0; index = contested.nextSetBit(index + 1)) {
+        Card card = catalog.getCard(index);
+        int owner = NO_OWNER;
+        double ownerLoss = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; ++i) {
+          if (selections[i].isUsed(card)) {
+            double loss = getLossWithout(selections[i], card, puzzles.get(i).getSlotCount());
+            if (loss > ownerLoss) {
+              owner = i;
+              ownerLoss = loss;
+            }
+          }
+        }
+        owners[index] = owner;
+      }
+      // A puzzle that lost one card re-solves, even if it won another.
+      for (int index = contested.nextSetBit(0); index >= 0; index = contested.nextSetBit(index + 1)) {
+        for (int i = 0; i < count; ++i) {
+          if (i != owners[index] && selections[i].isUsed(catalog.getCard(index))) {
+            toSolve.set(i);
+          }
+        }
+      }
+    }
+    return new Result(ImmutableList.copyOf(selections), round);
+  }
+
+  // Re-solves each puzzle holding a contested card, in order, without any
+  // card that another puzzle holds.
+  private void settleByExclusion(
+      Selection[] selections,
+      BitSet contested,
+      CardCatalog catalog,
+      ImmutableList<SplittableRandom> randoms) {
+    for (int i = 0; i < selections.length; ++i) {
+      boolean holdsContested = false;
+      for (int index = contested.nextSetBit(0);
+           index >= 0 && !holdsContested;
+           index = contested.nextSetBit(index + 1)) {
+        holdsContested = selections[i].isUsed(catalog.getCard(index));
+      }
+      if (!holdsContested) {
+        continue;
+      }
+      BitSet excluded = new BitSet(catalog.getMaximumIndex() + 1);
+      for (int j = 0; j < selections.length; ++j) {
+        if (j != i) {
+          excluded.or(selections[j].getCardSetKey());
+        }
+      }
+      selections[i] = solve(puzzles.get(i).withoutCards(excluded), randoms.get(i));
+      contested = getContestedCards(selections, catalog);
+    }
+  }
+
+  private Selection solve(Puzzle puzzle, SplittableRandom random) {
+    return new Solver(solverConfig, puzzle).getBestSelection(random);
+  }
+
+  // The indexes of the cards held by more than one selection.
+  private static BitSet getContestedCards(Selection[] selections, CardCatalog catalog) {
+    BitSet held = new BitSet(catalog.getMaximumIndex() + 1);
+    BitSet contested = new BitSet(catalog.getMaximumIndex() + 1);
+    for (Selection selection : selections) {
+      BitSet cards = selection.getCardSetKey();
+      BitSet overlap = (BitSet) cards.clone();
+      overlap.and(held);
+      contested.or(overlap);
+      held.or(cards);
+    }
+    return contested;
+  }
+
+  // How much the selection's naughtiness would rise if the card were taken
+  // out of it.
+  private static double getLossWithout(Selection selection, Card card, int slotCount) {
+    Selection without = new Selection(selection);
+    for (int slot = 0; slot < slotCount; ++slot) {
+      Card held = without.getCard(slot);
+      if (held != null && held.getIndex() == card.getIndex()) {
+        without.setCard(slot, null);
+        break;
+      }
+    }
+    return without.getNaughtiness() - selection.getNaughtiness();
+  }
+}
@@ -1,24 +1,31 @@
 package org.apterous.ufcoptimizer;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultiset;
 import com.google.common.primitives.Ints;
 
 import javax.annotation.concurrent.Immutable;
+import java.util.BitSet;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.collect.ImmutableList.toImmutableList;
 
-/** An immutable general description of a puzzle to be solved. */
+/**
+ * An immutable general description of a puzzle to be solved.
+ *
+ * <p>The cards, and everything derived from them alone, live in a shared
+ * {@link CardCatalog}; a puzzle only holds its own constraints and the
+ * tables that depend on them, such as each move's chemistry in each slot type.
+ */
 @Immutable
 final class Puzzle {
 
-  private final ImmutableList<MoveCard> availableCards;
-  private final ImmutableList<MoveCard> strikingCards;
-  private final ImmutableList<MoveCard> grapplingCards;
-  private final ImmutableList<BoostCard> availableBoosts;
+  private static final int MOVE_TYPE_COUNT = MoveType.values().length;
+
+  private final CardCatalog catalog;
 
   private final Weight fighterWeight;
   private final Style fighterStyle;
@@ -34,6 +41,16 @@ final class Puzzle {
   private final ImmutableMap<Style, RangeConstraint> cardStyleConstraints;
   private final ImmutableMap<Skill, Integer> initialSkill;
 
+  // Chemistry of the move with index i in a slot of type t is at
+  // i * MOVE_TYPE_COUNT + t.ordinal().
+  private final int[] chemistryTable;
+
+  // Built on first use, since not every caller needs it.
+  private final Supplier<RepairIndex> repairIndex = Suppliers.memoize(() -> new RepairIndex(this));
+  private final Supplier<SelectionTemplate> selectionTemplate =
+      Suppliers.memoize(() -> new SelectionTemplate(this));
+  private final Supplier<Feasibility> feasibility = Suppliers.memoize(() -> Feasibility.analyze(this));
+
   public Puzzle(
       ImmutableList<MoveCard> availableCards,
       ImmutableList<BoostCard> availableBoosts,
@@ -46,12 +63,38 @@ final class Puzzle {
       ImmutableMap<Tier, RangeConstraint> cardTierConstraints,
       ImmutableMap<Style, RangeConstraint> cardStyleConstraints,
       ImmutableMap<Skill, Integer> initialSkill) {
-    this.availableCards = availableCards;
-    strikingCards =
-        availableCards.stream().filter(card -> card.getMoveType().isStriking()).collect(toImmutableList());
-    grapplingCards =
-        availableCards.stream().filter(card -> !card.getMoveType().isStriking()).collect(toImmutableList());
-    this.availableBoosts = checkNotNull(availableBoosts);
+    this(
+        CardCatalog.of(availableCards, availableBoosts),
+        fighterWeight,
+        fighterStyle,
+        moveSlots,
+        boostSlots,
+        skillConstraints,
+        summarySkillConstraints,
+        cardTierConstraints,
+        cardStyleConstraints,
+        initialSkill);
+  }
+
+  /**
+   * Constructs a puzzle over a catalog of cards. The catalog's derived
+   * indexes are shared rather than rebuilt, so prefer this constructor when
+   * building many puzzles over the same cards.
+   */
+  public Puzzle(
+      CardCatalog catalog,
+      Weight fighterWeight,
+      Style fighterStyle,
+      ImmutableMultiset<MoveType> moveSlots,
+      int boostSlots,
+      ImmutableMap<Skill, RangeConstraint> skillConstraints,
+      ImmutableMap<SummarySkill, RangeConstraint> summarySkillConstraints,
+      ImmutableMap<Tier, RangeConstraint> cardTierConstraints,
+      ImmutableMap<Style, RangeConstraint> cardStyleConstraints,
+      ImmutableMap<Skill, Integer> initialSkill) {
+    SolverEvents.PuzzleConstruction event = new SolverEvents.PuzzleConstruction();
+    event.begin();
+    this.catalog = checkNotNull(catalog);
 
     this.fighterWeight = checkNotNull(fighterWeight);
     this.fighterStyle = checkNotNull(fighterStyle);
@@ -68,22 +111,81 @@ final class Puzzle {
     this.cardStyleConstraints = checkNotNull(cardStyleConstraints);
     Preconditions.checkArgument(initialSkill.size() == Skill.values().length);
     this.initialSkill = checkNotNull(initialSkill);
+
+    this.chemistryTable = new int[(catalog.getMaximumIndex() + 1) * MOVE_TYPE_COUNT];
+    for (MoveCard card : catalog.getMoves()) {
+      for (MoveType slotType : MoveType.values()) {
+        chemistryTable[card.getIndex() * MOVE_TYPE_COUNT + slotType.ordinal()] =
+            card.getChemistryInSlot(this, slotType);
+      }
+    }
+    if (event.shouldCommit()) {
+      event.moveSlotCount = moveSlots.size();
+      event.boostSlotCount = boostSlots;
+      event.cardCount = catalog.getMoves().size() + catalog.getBoosts().size();
+      event.commit();
+    }
+  }
+
+  public CardCatalog getCatalog() {
+    return catalog;
+  }
+
+  /**
+   * Returns this puzzle over only those of its cards whose indexes are not in
+   * the given set, or this puzzle itself if that is all of them.
+   */
+  Puzzle withoutCards(BitSet excluded) {
+    CardCatalog remaining = catalog.update(new CardFileParser.Cards(
+        catalog.getMoves().stream()
+            .filter(card -> !excluded.get(card.getIndex()))
+            .collect(ImmutableList.toImmutableList()),
+        catalog.getBoosts().stream()
+            .filter(card -> !excluded.get(card.getIndex()))
+            .collect(ImmutableList.toImmutableList())));
+    return withCatalog(remaining);
+  }
+
+  /**
+   * Returns this puzzle over the given cards, with the same slots and
+   * constraints, or this puzzle itself if they are its cards already.
+   */
+  Puzzle withCatalog(CardCatalog newCatalog) {
+    if (newCatalog == catalog) {
+      return this;
+    }
+    return new Puzzle(
+        newCatalog,
+        fighterWeight,
+        fighterStyle,
+        moveSlots,
+        boostSlots,
+        skillConstraints,
+        summarySkillConstraints,
+        cardTierConstraints,
+        cardStyleConstraints,
+        initialSkill);
   }
 
   public int getCardCount() {
-    return availableCards.size() + availableBoosts.size();
+    return catalog.getMoves().size() + catalog.getBoosts().size();
   }
 
   public ImmutableList<MoveCard> getStrikingCards() {
-    return strikingCards;
+    return catalog.getStrikingMoves();
   }
 
   public ImmutableList<MoveCard> getGrapplingCards() {
-    return grapplingCards;
+    return catalog.getGrapplingMoves();
   }
 
   public ImmutableList<BoostCard> getBoostCards() {
-    return availableBoosts;
+    return catalog.getBoosts();
+  }
+
+  /** Same as {@link MoveCard#getChemistryInSlot}, from a precomputed table. */
+  public int getChemistry(MoveCard card, MoveType slotType) {
+    return chemistryTable[card.getIndex() * MOVE_TYPE_COUNT + slotType.ordinal()];
   }
 
   public Weight getFighterWeight() {
@@ -137,4 +239,19 @@ final class Puzzle {
   public int getInitialSkill(Skill skill) {
     return initialSkill.getOrDefault(skill, 0);
   }
+
+  /** The index of which cards help with which of this puzzle's constraints. */
+  RepairIndex getRepairIndex() {
+    return repairIndex.get();
+  }
+
+  /** What every empty selection of this puzzle starts from. */
+  SelectionTemplate getSelectionTemplate() {
+    return selectionTemplate.get();
+  }
+
+  /** Whether this puzzle could be solved at all, as far as a quick check can tell. */
+  Feasibility getFeasibility() {
+    return feasibility.get();
+  }
 }
@@ -0,0 +1,315 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.OptionalInt;
+
+/**
+ * Converts card snapshots, puzzles, solver configs and selections to and from
+ * the compact binary form exchanged by {@link SolveCoordinator} and
+ * {@link SolveWorker}.
+ *
+ * <p>Enum values are written as their ordinals, so both ends must be built
+ * from the same source. Constraints that accept anything and skill modifiers
+ * of zero are left out, and a selection is just the index of the card in each
+ * slot. A puzzle is written without its cards, which are sent once as a
+ * snapshot and shared by every puzzle over them.
+ */
+final class PuzzleBinary {
+
+  private static final byte MOVE = 0;
+  private static final byte BOOST = 1;
+  private static final int EMPTY_SLOT = -1;
+
+  /** Writes every card of the catalog. */
+  static void writeCards(DataOutput out, CardCatalog catalog) throws IOException {
+    out.writeInt(catalog.getMoves().size());
+    for (MoveCard card : catalog.getMoves()) {
+      writeCard(out, card);
+    }
+    out.writeInt(catalog.getBoosts().size());
+    for (BoostCard card : catalog.getBoosts()) {
+      writeCard(out, card);
+    }
+  }
+
+  /** Reads cards written by {@link #writeCards} into a new catalog. */
+  static CardCatalog readCards(DataInput in) throws IOException {
+    ImmutableList.Builder<MoveCard> moves = ImmutableList.builder();
+    for (int i = in.readInt(); i > 0; --i) {
+      moves.add((MoveCard) readCard(in));
+    }
+    ImmutableList.Builder<BoostCard> boosts = ImmutableList.builder();
+    for (int i = in.readInt(); i > 0; --i) {
+      boosts.add((BoostCard) readCard(in));
+    }
+    return CardCatalog.of(moves.build(), boosts.build());
+  }
+
+  private static void writeCard(DataOutput out, Card card) throws IOException {
+    out.writeByte(card instanceof MoveCard ? MOVE : BOOST);
+    out.writeInt(card.getIndex());
+    out.writeByte(card.getTier().ordinal());
+    if (card instanceof MoveCard) {
+      MoveCard move = (MoveCard) card;
+      out.writeByte(move.getWeight().ordinal());
+      out.writeByte(move.getStyle().ordinal());
+      out.writeByte(move.getMoveType().ordinal());
+    } else {
+      out.writeShort(((BoostCard) card).getUsageCount());
+    }
+    int modifiers = 0;
+    for (Skill skill : Skill.values()) {
+      if (card.getSkillModifier(skill) != 0) {
+        ++modifiers;
+      }
+    }
+    out.writeByte(modifiers);
+    for (Skill skill : Skill.values()) {
+      if (card.getSkillModifier(skill) != 0) {
+        out.writeByte(skill.ordinal());
+        out.writeShort(card.getSkillModifier(skill));
+      }
+    }
+  }
+
+  private static Card readCard(DataInput in) throws IOException {
+    byte kind = in.readByte();
+    int index = in.readInt();
+    Tier tier = readEnum(in, Tier.values());
+    Weight weight = null;
+    Style style = null;
+    MoveType moveType = null;
+    int usageCount = 1;
+    if (kind == MOVE) {
+      weight = readEnum(in, Weight.values());
+      style = readEnum(in, Style.values());
+      moveType = readEnum(in, MoveType.values());
+    } else if (kind == BOOST) {
+      usageCount = in.readShort();
+    } else {
+      throw new IOException("Bad card kind " + kind);
+    }
+    ImmutableMap.Builder<Skill, Integer> modifiers = ImmutableMap.builder();
+    for (int i = in.readByte(); i > 0; --i) {
+      modifiers.put(readEnum(in, Skill.values()), (int) in.readShort());
+    }
+    return kind == MOVE
+        ? new MoveCard(index, weight, style, moveType, modifiers.build(), tier)
+        : new BoostCard(index, modifiers.build(), tier, usageCount);
+  }
+
+  /** Writes the puzzle's slots and constraints, but not its cards. */
+  static void writePuzzle(DataOutput out, Puzzle puzzle) throws IOException {
+    out.writeByte(puzzle.getFighterWeight().ordinal());
+    out.writeByte(puzzle.getFighterStyle().ordinal());
+    for (MoveType type : MoveType.values()) {
+      out.writeByte(puzzle.getMoveSlots().count(type));
+    }
+    out.writeByte(puzzle.getBoostSlotCount());
+    writeConstraints(out, Skill.values(), puzzle::getSkillConstraint);
+    writeConstraints(out, SummarySkill.values(), puzzle::getSummarySkillConstraint);
+    writeConstraints(out, Tier.values(), puzzle::getCardTierConstraint);
+    writeConstraints(out, Style.values(), puzzle::getCardStyleConstraint);
+    for (Skill skill : Skill.values()) {
+      out.writeShort(puzzle.getInitialSkill(skill));
+    }
+  }
+
+  /** Reads a puzzle written by {@link #writePuzzle}, over the given cards. */
+  static Puzzle readPuzzle(DataInput in, CardCatalog cards) throws IOException {
+    Weight weight = readEnum(in, Weight.values());
+    Style style = readEnum(in, Style.values());
+    ImmutableMultiset.Builder<MoveType> moveSlots = ImmutableMultiset.builder();
+    for (MoveType type : MoveType.values()) {
+      moveSlots.addCopies(type, in.readByte());
+    }
+    int boostSlots = in.readByte();
+    ImmutableMap<Skill, RangeConstraint> skillConstraints = readConstraints(in, Skill.values());
+    ImmutableMap<SummarySkill, RangeConstraint> summarySkillConstraints =
+        readConstraints(in, SummarySkill.values());
+    ImmutableMap<Tier, RangeConstraint> tierConstraints = readConstraints(in, Tier.values());
+    ImmutableMap<Style, RangeConstraint> styleConstraints = readConstraints(in, Style.values());
+    ImmutableMap.Builder<Skill, Integer> initialSkill = ImmutableMap.builder();
+    for (Skill skill : Skill.values()) {
+      initialSkill.put(skill, (int) in.readShort());
+    }
+    return new Puzzle(
+        cards,
+        weight,
+        style,
+        moveSlots.build(),
+        boostSlots,
+        skillConstraints,
+        summarySkillConstraints,
+        tierConstraints,
+        styleConstraints,
+        initialSkill.build());
+  }
+
+  // Only the constraints that rule something out are written.
+  private interface ConstraintGetter<E> {
+    RangeConstraint get(E key);
+  }
+
+  private static <E extends Enum<E>> void writeConstraints(
+      DataOutput out, E[] keys, ConstraintGetter<E> constraints) throws IOException {
+    int count = 0;
+    for (E key : keys) {
+      if (!constraints.get(key).acceptsAnything()) {
+        ++count;
+      }
+    }
+    out.writeByte(count);
+    for (E key : keys) {
+      RangeConstraint constraint = constraints.get(key);
+      if (!constraint.acceptsAnything()) {
+        out.writeByte(key.ordinal());
+        writeBound(out, constraint.getMinimum());
+        writeBound(out, constraint.getMaximum());
+      }
+    }
+  }
+
+  private static <E extends Enum<E>> ImmutableMap<E, RangeConstraint> readConstraints(
+      DataInput in, E[] keys) throws IOException {
+    ImmutableMap.Builder<E, RangeConstraint> constraints = ImmutableMap.builder();
+    for (int i = in.readByte(); i > 0; --i) {
+      E key = readEnum(in, keys);
+      OptionalInt min = readBound(in);
+      constraints.put(key, new RangeConstraint(min, readBound(in)));
+    }
+    return constraints.build();
+  }
+
+  private static void writeBound(DataOutput out, OptionalInt bound) throws IOException {
+    out.writeBoolean(bound.isPresent());
+    if (bound.isPresent()) {
+      out.writeInt(bound.getAsInt());
+    }
+  }
+
+  private static OptionalInt readBound(DataInput in) throws IOException {
+    return in.readBoolean() ? OptionalInt.of(in.readInt()) : OptionalInt.empty();
+  }
+
+  /**
+   * Writes the config's limits, acceptance, restart and cost settings. Its
+   * cancellation token, progress listener and verbosity belong to the
+   * process running it, and are not written.
+   */
+  static void writeConfig(DataOutput out, Solver.SolverConfig config) throws IOException {
+    out.writeInt(config.getMaximumIterations());
+    out.writeLong(config.getTimeLimitNanos());
+    out.writeDouble(config.getTargetNaughtiness());
+    out.writeLong(config.getStagnationLimit());
+    out.writeDouble(config.getAcceptanceWithinOne());
+    out.writeDouble(config.getAcceptanceWithinTwo());
+    out.writeLong(config.getRestartInterval());
+    out.writeBoolean(config.getCostModel().isPresent());
+    if (config.getCostModel().isPresent()) {
+      CostModel costModel = config.getCostModel().get();
+      for (Tier tier : Tier.values()) {
+        out.writeInt(costModel.getTierCost(tier));
+      }
+      out.writeInt(costModel.getBoostUsePenalty());
+    }
+  }
+
+  /**
+   * Reads a config written by {@link #writeConfig}, as a quiet builder to
+   * which the reader can add its own token and listener.
+   */
+  static Solver.SolverConfig.Builder readConfig(DataInput in) throws IOException {
+    Solver.SolverConfig.Builder config =
+        Solver.SolverConfig.builder().setVerbose(false).setMaximumIterations(in.readInt());
+    long timeLimitNanos = in.readLong();
+    if (timeLimitNanos != Long.MAX_VALUE) {
+      config.setTimeLimit(Duration.ofNanos(timeLimitNanos));
+    }
+    config.setTargetNaughtiness(in.readDouble());
+    long stagnationLimit = in.readLong();
+    if (stagnationLimit != Long.MAX_VALUE) {
+      config.setStagnationLimit(stagnationLimit);
+    }
+    config.setUphillAcceptance(in.readDouble(), in.readDouble());
+    long restartInterval = in.readLong();
+    if (restartInterval != Long.MAX_VALUE) {
+      config.setRestartInterval(restartInterval);
+    }
+    if (in.readBoolean()) {
+      ImmutableMap.Builder<Tier, Integer> tierCosts = ImmutableMap.builder();
+      for (Tier tier : Tier.values()) {
+        tierCosts.put(tier, in.readInt());
+      }
+      config.setCostModel(new CostModel(tierCosts.build(), in.readInt()));
+    }
+    return config;
+  }
+
+  /** Writes the index of the card in each slot of the selection. */
+  static void writeSelection(DataOutput out, Selection selection) throws IOException {
+    int slots = selection.getPuzzle().getSlotCount();
+    out.writeByte(slots);
+    for (int slot = 0; slot < slots; ++slot) {
+      Card card = selection.getCard(slot);
+      out.writeInt(card == null ? EMPTY_SLOT : card.getIndex());
+    }
+  }
+
+  /**
+   * Reads a selection written by {@link #writeSelection}, putting the cards
+   * of the given puzzle with those indexes in the same slots.
+   */
+  static Selection readSelection(DataInput in, Puzzle puzzle) throws IOException {
+    return toSelection(readSelectionIndexes(in), puzzle);
+  }
+
+  /**
+   * Reads a selection written by {@link #writeSelection} as the index of the
+   * card in each slot, or -1 for an empty one, for a reader that does not yet
+   * know which puzzle it belongs to.
+   */
+  static int[] readSelectionIndexes(DataInput in) throws IOException {
+    int[] indexes = new int[in.readUnsignedByte()];
+    for (int slot = 0; slot < indexes.length; ++slot) {
+      indexes[slot] = in.readInt();
+    }
+    return indexes;
+  }
+
+  /** Puts the cards of the given puzzle with the given indexes in a new selection. */
+  static Selection toSelection(int[] indexes, Puzzle puzzle) throws IOException {
+    if (indexes.length != puzzle.getSlotCount()) {
+      throw new IOException(
+          String.format("Expected %d slots but got %d", puzzle.getSlotCount(), indexes.length));
+    }
+    Selection selection = new Selection(puzzle);
+    for (int slot = 0; slot < indexes.length; ++slot) {
+      if (indexes[slot] != EMPTY_SLOT) {
+        Card card = puzzle.getCatalog().getCard(indexes[slot]);
+        if (card == null) {
+          throw new IOException("No card " + indexes[slot]);
+        }
+        selection.setCard(slot, card);
+      }
+    }
+    return selection;
+  }
+
+  private static <E extends Enum<E>> E readEnum(DataInput in, E[] values) throws IOException {
+    int ordinal = in.readUnsignedByte();
+    if (ordinal >= values.length) {
+      throw new IOException("Bad ordinal " + ordinal + " for " + values[0].getDeclaringClass());
+    }
+    return values[ordinal];
+  }
+
+  private PuzzleBinary() {}  // Not for instantiation.
+}
@@ -0,0 +1,180 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Converts puzzle definitions and solutions to and from the JSON form used by
+ * {@link SolverServer}.
+ *
+ * <p>A puzzle looks like this; every key except {@code weight},
+ * {@code style}, {@code moveSlots} and {@code initialSkill} is optional:
+ *
+ * <pre>{@code
+ * {
+ *   "weight": "BW",
+ *   "style": "BALANCED",
+ *   "moveSlots": {"ARM": 3, "LEG": 3, "CLINCH": 2, "TAKEDOWN": 2, "SUBMISSION": 2, "GROUND": 2},
+ *   "boostSlots": 6,
+ *   "skillConstraints": {"HMVT": {"min": 100}},
+ *   "summarySkillConstraints": {"CHEMISTRY": {"min": 75}},
+ *   "tierConstraints": {"SILVER": {"max": 1}},
+ *   "styleConstraints": {},
+ *   "initialSkill": {"SPD": 69, "PWR": 69, ...},
+ *   "maximumIterations": 1000000,
+ *   "timeLimitMillis": 200,
+ *   "targetNaughtiness": 0,
+ *   "seed": 129189,
+ *   "walks": 1
+ * }
+ * }</pre>
+ *
+ * <p>Enum values are given by name, as in the Java source.
+ */
+final class PuzzleJson {
+
+  /** Builds a puzzle from its JSON form, over the given cards. */
+  static Puzzle readPuzzle(Map<String, Object> json, CardCatalog cards) {
+    ImmutableMultiset.Builder<MoveType> moveSlots = ImmutableMultiset.builder();
+    readObject(json, "moveSlots", true).forEach(
+        (type, count) -> moveSlots.addCopies(MoveType.valueOf(type), toInt(count)));
+
+    return new Puzzle(
+        cards,
+        Weight.valueOf(readString(json, "weight")),
+        Style.valueOf(readString(json, "style")),
+        moveSlots.build(),
+        json.containsKey("boostSlots") ? toInt(json.get("boostSlots")) : 6,
+        readConstraints(json, "skillConstraints", Skill.class),
+        readConstraints(json, "summarySkillConstraints", SummarySkill.class),
+        readConstraints(json, "tierConstraints", Tier.class),
+        readConstraints(json, "styleConstraints", Style.class),
+        readEnumMap(readObject(json, "initialSkill", true), Skill.class, PuzzleJson::toInt));
+  }
+
+  /**
+   * Starts a solver config from the optional limits in a puzzle's JSON form.
+   * Without a time limit the walks get the maximum; a longer one is refused.
+   */
+  static Solver.SolverConfig.Builder readConfig(
+      Map<String, Object> json, int defaultIterations, Duration maximumTimeLimit) {
+    Solver.SolverConfig.Builder config =
+        Solver.SolverConfig.builder()
+            .setVerbose(false)
+            .setMaximumIterations(
+                json.containsKey("maximumIterations")
+                    ? toInt(json.get("maximumIterations"))
+                    : defaultIterations);
+    Duration timeLimit = maximumTimeLimit;
+    if (json.containsKey("timeLimitMillis")) {
+      timeLimit = Duration.ofMillis(toInt(json.get("timeLimitMillis")));
+      checkArgument(
+          timeLimit.compareTo(maximumTimeLimit) <= 0,
+          "'timeLimitMillis' must be at most %s", maximumTimeLimit.toMillis());
+    }
+    config.setTimeLimit(timeLimit);
+    if (json.containsKey("targetNaughtiness")) {
+      config.setTargetNaughtiness(toDouble(json.get("targetNaughtiness")));
+    }
+    return config;
+  }
+
+  /** The JSON form of a selection. Empty slots have a null card. */
+  static Map<String, Object> writeSelection(Puzzle puzzle, Selection selection) {
+    List<Object> cards = new ArrayList<>();
+    for (int slot = 0; slot < puzzle.getSlotCount(); ++slot) {
+      Card card = selection.getCard(slot);
+      cards.add(card == null ? null : card.getIndex());
+    }
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("solved", selection.isSolved());
+    json.put("naughtiness", selection.getNaughtiness());
+    json.put("cost", selection.getCost());
+    json.put("cards", cards);
+    json.put("summary", selection.toString());
+    json.put("description", selection.getLongDescription());
+    return json;
+  }
+
+  private static <E extends Enum<E>> ImmutableMap<E, RangeConstraint> readConstraints(
+      Map<String, Object> json, String key, Class<E> enumClass) {
+    return readEnumMap(readObject(json, key, false), enumClass, PuzzleJson::toConstraint);
+  }
+
+  private static RangeConstraint toConstraint(Object json) {
+    Map<String, Object> bounds = asObject(json);
+    return new RangeConstraint(
+        bounds.containsKey("min") ? OptionalInt.of(toInt(bounds.get("min"))) : OptionalInt.empty(),
+        bounds.containsKey("max") ? OptionalInt.of(toInt(bounds.get("max"))) : OptionalInt.empty());
+  }
+
+  private static <E extends Enum<E>, V> ImmutableMap<E, V> readEnumMap(
+      Map<String, Object> json, Class<E> enumClass, Function<Object, V> reader) {
+    ImmutableMap.Builder<E, V> map = ImmutableMap.builder();
+    json.forEach((name, value) -> map.put(Enum.valueOf(enumClass, name), reader.apply(value)));
+    return map.build();
+  }
+
+  private static Map<String, Object> readObject(Map<String, Object> json, String key, boolean required) {
+    Object value = json.get(key);
+    if (value == null) {
+      if (required) {
+        throw new IllegalArgumentException("Missing '" + key + "'");
+      }
+      return ImmutableMap.of();
+    }
+    return asObject(value);
+  }
+
+  private static String readString(Map<String, Object> json, String key) {
+    Object value = json.get(key);
+    if (!(value instanceof String)) {
+      throw new IllegalArgumentException("Expected a string for '" + key + "'");
+    }
+    return (String) value;
+  }
+
+  @SuppressWarnings("unchecked")
+  static Map<String, Object> asObject(Object json) {
+    if (!(json instanceof Map)) {
+      throw new IllegalArgumentException("Expected an object but got " + json);
+    }
+    return (Map<String, Object>) json;
+  }
+
+  static double toDouble(Object json) {
+    if (!(json instanceof Number)) {
+      throw new IllegalArgumentException("Expected a number but got " + json);
+    }
+    return ((Number) json).doubleValue();
+  }
+
+  static int toInt(Object json) {
+    double value = toDouble(json);
+    if (value != Math.rint(value) || Math.abs(value) > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Expected an integer but got " + json);
+    }
+    return (int) value;
+  }
+
+  // JSON numbers are read as doubles, so seeds beyond 2^53 lose precision.
+  static long toLong(Object json) {
+    double value = toDouble(json);
+    if (value != Math.rint(value)) {
+      throw new IllegalArgumentException("Expected an integer but got " + json);
+    }
+    return (long) value;
+  }
+
+  private PuzzleJson() {}  // Not for instantiation.
+}
@@ -58,6 +58,21 @@ class RangeConstraint {
         (!max.isPresent() || value <= max.getAsInt());
   }
 
+  /** The inclusive lower bound, if any. */
+  OptionalInt getMinimum() {
+    return min;
+  }
+
+  /** The inclusive upper bound, if any. */
+  OptionalInt getMaximum() {
+    return max;
+  }
+
+  /** Whether the given value fails the constraints by being too small. */
+  boolean isBelowMinimum(int value) {
+    return min.isPresent() && value < min.getAsInt();
+  }
+
   /** Whether there is some int value that can fail these constraints. */
   boolean acceptsAnything() {
     return
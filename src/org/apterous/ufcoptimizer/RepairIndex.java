@@ -0,0 +1,194 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+/**
+ * Per-puzzle index of which cards help repair each of the puzzle's
+ * constraints, so that solvers can propose cards aimed at whatever is
+ * currently most wrong rather than uniformly at random.
+ *
+ * <p>Only constraints the puzzle actually imposes are indexed. Slots are
+ * split into three groups, numbered as in {@link #getGroupStart}: striking,
+ * grappling and boost.
+ */
+@Immutable
+final class RepairIndex {
+
+  static final int STRIKING_GROUP = 0;
+  static final int GRAPPLING_GROUP = 1;
+  static final int BOOST_GROUP = 2;
+  static final int GROUP_COUNT = 3;
+
+  /** One constraint of the puzzle, and the cards that can move it towards satisfaction. */
+  @Immutable
+  static final class Target {
+    private final String name;
+    private final RangeConstraint constraint;
+    private final ToIntFunction<Selection> value;
+    private final Predicate<Card> contributes;
+    // Cards that raise the value, by slot group.
+    private final ImmutableList<ImmutableList<Card>> helpersByGroup;
+
+    private Target(
+        String name,
+        RangeConstraint constraint,
+        ToIntFunction<Selection> value,
+        Predicate<Card> contributes,
+        ImmutableList<ImmutableList<Card>> helpersByGroup) {
+      this.name = name;
+      this.constraint = constraint;
+      this.value = value;
+      this.contributes = contributes;
+      this.helpersByGroup = helpersByGroup;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+
+    /** How far the selection is from satisfying this constraint; positive means violated. */
+    int getSatisfactionDistance(Selection selection) {
+      return constraint.getSatisfactionDistance(value.applyAsInt(selection));
+    }
+
+    /** Whether the selection's value is below the constraint's minimum. */
+    boolean isTooLow(Selection selection) {
+      return constraint.isBelowMinimum(value.applyAsInt(selection));
+    }
+
+    /** Whether the given card, once placed, adds to this constraint's value. */
+    boolean contributes(Card card) {
+      return contributes.test(card);
+    }
+
+    /** The cards that raise this constraint's value if placed in the given slot group. */
+    ImmutableList<Card> getHelpers(int group) {
+      return helpersByGroup.get(group);
+    }
+  }
+
+  private final Puzzle puzzle;
+  private final ImmutableList<Target> targets;
+
+  RepairIndex(Puzzle puzzle) {
+    this.puzzle = puzzle;
+    ImmutableList.Builder<Target> targets = ImmutableList.builder();
+    for (Skill skill : Skill.values()) {
+      RangeConstraint constraint = puzzle.getSkillConstraint(skill);
+      if (!constraint.acceptsAnything()) {
+        targets.add(target(
+            skill.name(), constraint,
+            selection -> selection.getSkillValue(skill),
+            card -> card.getSkillModifier(skill) > 0));
+      }
+    }
+    for (SummarySkill summarySkill : SummarySkill.values()) {
+      RangeConstraint constraint = puzzle.getSummarySkillConstraint(summarySkill);
+      if (constraint.acceptsAnything()) {
+        continue;
+      }
+      Predicate<Card> contributes;
+      if (summarySkill.equals(SummarySkill.CHEMISTRY)) {
+        // Any move gives some chemistry somewhere, but only those matching the
+        // fighter's weight or style give a lot.
+        contributes = card -> card instanceof MoveCard
+            && puzzle.getChemistry((MoveCard) card, ((MoveCard) card).getMoveType()) > 2;
+      } else {
+        ImmutableList<Skill> components = Selection.getComponentSkills(summarySkill);
+        contributes = card -> components.stream().anyMatch(skill -> card.getSkillModifier(skill) > 0);
+      }
+      targets.add(target(
+          summarySkill.name(), constraint,
+          selection -> selection.getSummarySkillValue(summarySkill),
+          contributes));
+    }
+    for (Tier tier : Tier.values()) {
+      RangeConstraint constraint = puzzle.getCardTierConstraint(tier);
+      if (!constraint.acceptsAnything()) {
+        targets.add(target(
+            tier.name(), constraint,
+            selection -> selection.getCardTierCount(tier),
+            card -> card.getTier().equals(tier)));
+      }
+    }
+    for (Style style : Style.values()) {
+      RangeConstraint constraint = puzzle.getCardStyleConstraint(style);
+      if (!constraint.acceptsAnything()) {
+        targets.add(target(
+            style.name(), constraint,
+            selection -> selection.getCardStyleCount(style),
+            card -> card instanceof MoveCard && ((MoveCard) card).getStyle().equals(style)));
+      }
+    }
+    this.targets = targets.build();
+  }
+
+  private Target target(
+      String name,
+      RangeConstraint constraint,
+      ToIntFunction<Selection> value,
+      Predicate<Card> contributes) {
+    return new Target(
+        name,
+        constraint,
+        value,
+        contributes,
+        ImmutableList.of(
+            helpers(puzzle.getStrikingCards(), contributes),
+            helpers(puzzle.getGrapplingCards(), contributes),
+            helpers(puzzle.getBoostCards(), contributes)));
+  }
+
+  private static ImmutableList<Card> helpers(ImmutableList<? extends Card> cards, Predicate<Card> contributes) {
+    return cards.stream().filter(contributes).collect(toImmutableList());
+  }
+
+  /** The constraints this puzzle imposes. */
+  ImmutableList<Target> getTargets() {
+    return targets;
+  }
+
+  /**
+   * The constraint the given selection violates by the widest margin, or null
+   * if it violates none.
+   */
+  Target getMostViolated(Selection selection) {
+    Target worst = null;
+    int worstDistance = 0;
+    for (Target target : targets) {
+      int distance = target.getSatisfactionDistance(selection);
+      if (distance > worstDistance) {
+        worst = target;
+        worstDistance = distance;
+      }
+    }
+    return worst;
+  }
+
+  /** The first slot in the given group. */
+  int getGroupStart(int group) {
+    switch (group) {
+      case STRIKING_GROUP: return 0;
+      case GRAPPLING_GROUP: return puzzle.getStrikingSlotCount();
+      case BOOST_GROUP: return puzzle.getMoveSlotCount();
+      default: throw new IllegalArgumentException("Bad group " + group);
+    }
+  }
+
+  /** The number of slots in the given group. */
+  int getGroupSize(int group) {
+    switch (group) {
+      case STRIKING_GROUP: return puzzle.getStrikingSlotCount();
+      case GRAPPLING_GROUP: return puzzle.getGrapplingSlotCount();
+      case BOOST_GROUP: return puzzle.getBoostSlotCount();
+      default: throw new IllegalArgumentException("Bad group " + group);
+    }
+  }
+}
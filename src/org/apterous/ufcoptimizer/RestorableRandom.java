@@ -0,0 +1,83 @@
+package org.apterous.ufcoptimizer;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * A SplitMix64 generator that draws exactly the values a
+ * {@link java.util.SplittableRandom} made with the same seed would, but whose
+ * state can be read back, so that a checkpointed walk can resume the very
+ * sequence it was drawing. Its {@link #split} matches
+ * {@link java.util.SplittableRandom#split} too.
+ *
+ * <p>Not thread-safe; each walk should own its own instance.
+ */
+final class RestorableRandom implements RandomGenerator {
+
+  // The increment SplittableRandom uses for a generator made from a seed.
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  private long state;
+  // Split generators step by their own odd increment.
+  private final long gamma;
+
+  /**
+   * Makes a generator with the given seed, or one that carries on from a
+   * {@link #getState} of another made this way.
+   */
+  RestorableRandom(long state) {
+    this(state, GOLDEN_GAMMA);
+  }
+
+  private RestorableRandom(long state, long gamma) {
+    this.state = state;
+    this.gamma = gamma;
+  }
+
+  /** The state, from which {@link #withState} will draw what this one would next. */
+  long getState() {
+    return state;
+  }
+
+  /**
+   * A generator that carries on from the given {@link #getState} of this one,
+   * or of a generator split the same way.
+   */
+  RestorableRandom withState(long state) {
+    return new RestorableRandom(state, gamma);
+  }
+
+  /** A new generator, as {@link java.util.SplittableRandom#split} makes one. */
+  RestorableRandom split() {
+    return new RestorableRandom(nextLong(), mixGamma(state += gamma));
+  }
+
+  @Override
+  public long nextLong() {
+    return mix64(state += gamma);
+  }
+
+  @Override
+  public int nextInt() {
+    return mix32(state += gamma);
+  }
+
+  private static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  private static int mix32(long z) {
+    z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+    return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+  }
+
+  // An odd increment with enough bit transitions, as SplittableRandom picks.
+  private static long mixGamma(long z) {
+    z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+    z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    z = (z ^ (z >>> 33)) | 1L;
+    int transitions = Long.bitCount(z ^ (z >>> 1));
+    return transitions < 24 ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+  }
+}
@@ -0,0 +1,123 @@
+package org.apterous.ufcoptimizer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Tracks the stopping conditions of a single run of a solver.
+ *
+ * <p>The cheap conditions (iteration count, target naughtiness, stagnation)
+ * are checked on every call. The expensive ones (reading the clock and the
+ * volatile cancellation flag) are only checked once every
+ * {@link #CHECK_INTERVAL} iterations, so the hot loop does not pay for a
+ * {@link System#nanoTime()} call per step.
+ *
+ * <p>Not thread-safe; each search thread should own its own instance.
+ */
+final class SearchBudget {
+
+  /** Why a search stopped. */
+  enum Reason {
+    /** The search reached a selection at or below the target naughtiness. */
+    TARGET_REACHED,
+    /** The configured number of iterations was exhausted. */
+    ITERATIONS_EXHAUSTED,
+    /** The wall-clock deadline passed. */
+    DEADLINE_PASSED,
+    /** The best naughtiness did not improve for too many iterations. */
+    STAGNATED,
+    /** The {@link CancellationToken} was tripped. */
+    CANCELLED,
+  }
+
+  /** How often (in iterations) the clock and cancellation token are polled. Must be a power of 2. */
+  static final int CHECK_INTERVAL = 1 << 10;
+  private static final int CHECK_MASK = CHECK_INTERVAL - 1;
+
+  private final Solver.SolverConfig config;
+  private final long deadlineNanos;
+
+  private double bestNaughtiness = Double.POSITIVE_INFINITY;
+  private long lastImprovementIteration = 0;
+  private Reason reason = null;
+
+  /** Starts the clock for a search governed by the given config. */
+  SearchBudget(Solver.SolverConfig config) {
+    this.config = checkNotNull(config);
+    this.deadlineNanos = config.getTimeLimitNanos() == Long.MAX_VALUE
+        ? Long.MAX_VALUE
+        : System.nanoTime() + config.getTimeLimitNanos();
+  }
+
+  /**
+   * Records the best naughtiness seen so far at the given iteration. Only
+   * strict improvements reset the stagnation counter.
+   */
+  void recordBest(long iteration, double naughtiness) {
+    if (naughtiness < bestNaughtiness) {
+      bestNaughtiness = naughtiness;
+      lastImprovementIteration = iteration;
+    }
+  }
+
+  /** Records some other kind of progress, resetting the stagnation counter. */
+  void recordProgress(long iteration) {
+    lastImprovementIteration = iteration;
+  }
+
+  /** The iteration of the last improvement or other progress. */
+  long getLastProgressIteration() {
+    return lastImprovementIteration;
+  }
+
+  /**
+   * Whether the search should stop before starting the given iteration,
+   * ignoring the target naughtiness. For searches that keep going after
+   * reaching the target.
+   */
+  boolean isExhausted(long iteration) {
+    return isExhausted(iteration, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Whether the search should stop before starting the given iteration, given
+   * the naughtiness of its current state. Once this returns true it keeps
+   * returning true.
+   */
+  boolean isExhausted(long iteration, double currentNaughtiness) {
+    return isExhausted(iteration, currentNaughtiness, (iteration & CHECK_MASK) == 0);
+  }
+
+  /**
+   * Same as {@link #isExhausted(long, double)}, but always checks the clock
+   * and the cancellation token. For searches that only check between batches
+   * of iterations.
+   */
+  boolean isExhaustedNow(long iteration, double currentNaughtiness) {
+    return isExhausted(iteration, currentNaughtiness, true);
+  }
+
+  private boolean isExhausted(long iteration, double currentNaughtiness, boolean poll) {
+    if (reason != null) {
+      return true;
+    }
+    if (currentNaughtiness <= config.getTargetNaughtiness()) {
+      reason = Reason.TARGET_REACHED;
+    } else if (iteration >= config.getMaximumIterations()) {
+      reason = Reason.ITERATIONS_EXHAUSTED;
+    } else if (iteration - lastImprovementIteration >= config.getStagnationLimit()) {
+      reason = Reason.STAGNATED;
+    } else if (poll) {
+      if (config.getCancellationToken().isCancelled()) {
+        reason = Reason.CANCELLED;
+      } else if (deadlineNanos != Long.MAX_VALUE && System.nanoTime() - deadlineNanos >= 0) {
+        reason = Reason.DEADLINE_PASSED;
+      }
+    }
+    return reason != null;
+  }
+
+  /** Why the search stopped, or null if it has not. */
+  Reason getReason() {
+    return reason;
+  }
+}
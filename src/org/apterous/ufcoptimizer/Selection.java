@@ -8,7 +8,7 @@ import com.google.common.collect.Streams;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
-import java.util.Random;
+import java.util.random.RandomGenerator;
 import java.util.stream.IntStream;
 
 import static java.util.stream.Collectors.joining;
@@ -20,7 +20,7 @@ public class Selection {
   // Map from summary skill to the skills that roll up to them. Generally the value of
   // a summary skill is the average, rounded down, of the composite skills. However
   // CHEMISTRY is a special case.
-  private final ImmutableListMultimap<SummarySkill, Skill> SKILLS_BY_SUMMARY =
+  private static final ImmutableListMultimap<SummarySkill, Skill> SKILLS_BY_SUMMARY =
       ImmutableListMultimap.<SummarySkill, Skill>builder()
           .putAll(
               SummarySkill.STRIKING,
@@ -36,46 +36,122 @@ public class Selection {
               Skill.TGH, Skill.HART, Skill.CHIN, Skill.BODY, Skill.LEGS)
           .build();
 
+  private static final int SUMMARY_SKILL_COUNT = SummarySkill.values().length;
+  // For each skill ordinal, the ordinal of the summary skill it rolls up into,
+  // or -1 if none.
+  private static final int[] SUMMARY_SKILL_OF_SKILL = new int[Skill.values().length];
+  // For each summary skill ordinal, how many skills roll up into it.
+  private static final int[] COMPONENT_COUNTS = new int[SUMMARY_SKILL_COUNT];
+
+  static {
+    Arrays.fill(SUMMARY_SKILL_OF_SKILL, -1);
+    SKILLS_BY_SUMMARY.forEach((summarySkill, skill) -> {
+      SUMMARY_SKILL_OF_SKILL[skill.ordinal()] = summarySkill.ordinal();
+      ++COMPONENT_COUNTS[summarySkill.ordinal()];
+    });
+  }
+
+  private static final ImmutableList<Skill> SKILLS = ImmutableList.copyOf(Skill.values());
+  private static final ImmutableList<Tier> TIERS = ImmutableList.copyOf(Tier.values());
+  private static final ImmutableList<Style> STYLES = ImmutableList.copyOf(Style.values());
+  private static final int[] ZERO_TIER_COUNTS = new int[TIERS.size()];
+  private static final int[] ZERO_STYLE_COUNTS = new int[STYLES.size()];
+
   private final Puzzle puzzle;
+  private final CostModel costModel;
+  private final SelectionTemplate template;
   private final MoveCard[] cards; // TODO: use two arrays.
   private final BoostCard[] boostCards;
   private final MoveType[] moveSlotTypes;
+  // Shared with the puzzle's catalog; never modified.
+  private final int[] skillVectors;
+  private final int[] summarySkillVectors;
 
   private final BitSet used;
   private int chemistry;
-  private final EnumCounter<Skill> skillCounter;
+  // Skill values by ordinal, padded to the kernel stride.
+  private final int[] skillValues;
+  private final SkillKernel kernel;
+  // Running sums of the skills rolling up into each summary skill, by ordinal.
+  private final int[] summarySkillSums;
   private final EnumCounter<Tier> cardTierCounter;
   private final EnumCounter<Style> cardStyleCounter;
+  private int cost;
 
   public Selection(Puzzle puzzle) {
+    this(puzzle, CostModel.DEFAULT);
+  }
+
+  public Selection(Puzzle puzzle, CostModel costModel) {
     this.puzzle = Preconditions.checkNotNull(puzzle);
+    this.costModel = Preconditions.checkNotNull(costModel);
+    this.template = puzzle.getSelectionTemplate();
     this.cards = new MoveCard[puzzle.getMoveSlotCount()];
     this.boostCards = new BoostCard[puzzle.getBoostSlotCount()];
-    // Order can be arbitrary as long as striking slots are first.
-    this.moveSlotTypes =
-        puzzle.getMoveSlots().stream()
-            .sorted((slotA, slotB) -> Boolean.compare(slotB.isStriking(), slotA.isStriking()))
-            .collect(toList())
-            .toArray(new MoveType[0]);
-
-    this.used = new BitSet(puzzle.getCardCount());
+    this.moveSlotTypes = template.moveSlotTypes;
+
+    this.skillVectors = puzzle.getCatalog().getSkillVectors();
+    this.summarySkillVectors = puzzle.getCatalog().getSummarySkillVectors();
+    this.used = new BitSet(puzzle.getCatalog().getMaximumIndex() + 1);
     this.chemistry = 0;
-    this.skillCounter = new EnumCounter<>(Skill.values(), puzzle::getInitialSkill);
-    this.cardTierCounter = new EnumCounter<>(Tier.values(), tier -> 0);
-    this.cardStyleCounter = new EnumCounter<>(Style.values(), style -> 0);
+    this.skillValues = template.initialSkills.clone();
+    this.kernel = template.kernel;
+    this.summarySkillSums = template.initialSummarySkillSums.clone();
+    this.cardTierCounter = new EnumCounter<>(TIERS, new int[TIERS.size()]);
+    this.cardStyleCounter = new EnumCounter<>(STYLES, new int[STYLES.size()]);
+    this.cost = 0;
   }
 
   public Selection(Selection selection) {
     puzzle = selection.puzzle;
+    costModel = selection.costModel;
+    template = selection.template;
     cards = selection.cards.clone();
     boostCards = selection.boostCards.clone();
-    moveSlotTypes = selection.moveSlotTypes.clone();
+    moveSlotTypes = selection.moveSlotTypes;
+    skillVectors = selection.skillVectors;
+    summarySkillVectors = selection.summarySkillVectors;
 
     used = (BitSet) selection.used.clone();
     chemistry = selection.chemistry;
-    skillCounter = new EnumCounter<>(selection.skillCounter);
+    skillValues = selection.skillValues.clone();
+    kernel = selection.kernel;
+    summarySkillSums = selection.summarySkillSums.clone();
     cardTierCounter = new EnumCounter<>(selection.cardTierCounter);
     cardStyleCounter = new EnumCounter<>(selection.cardStyleCounter);
+    cost = selection.cost;
+  }
+
+  /** Empties every slot, as if newly constructed, without allocating. */
+  public void reset() {
+    Arrays.fill(cards, null);
+    Arrays.fill(boostCards, null);
+    used.clear();
+    chemistry = 0;
+    System.arraycopy(template.initialSkills, 0, skillValues, 0, skillValues.length);
+    System.arraycopy(
+        template.initialSummarySkillSums, 0, summarySkillSums, 0, summarySkillSums.length);
+    cardTierCounter.setAll(ZERO_TIER_COUNTS);
+    cardStyleCounter.setAll(ZERO_STYLE_COUNTS);
+    cost = 0;
+  }
+
+  /**
+   * Makes this selection a copy of another of the same puzzle and cost model,
+   * without allocating.
+   */
+  public void copyFrom(Selection selection) {
+    Preconditions.checkArgument(selection.puzzle == puzzle && selection.costModel == costModel);
+    System.arraycopy(selection.cards, 0, cards, 0, cards.length);
+    System.arraycopy(selection.boostCards, 0, boostCards, 0, boostCards.length);
+    used.clear();
+    used.or(selection.used);
+    chemistry = selection.chemistry;
+    System.arraycopy(selection.skillValues, 0, skillValues, 0, skillValues.length);
+    System.arraycopy(selection.summarySkillSums, 0, summarySkillSums, 0, summarySkillSums.length);
+    cardTierCounter.setAll(selection.cardTierCounter);
+    cardStyleCounter.setAll(selection.cardStyleCounter);
+    cost = selection.cost;
   }
 
   @Override
@@ -88,9 +164,9 @@ public class Selection {
                     .map(skill -> String.format("%9s=%3d", skill, getSummarySkillValue(skill)))
                     .collect(toList()))
             .addAll(
-                skillCounter.values().stream()
+                SKILLS.stream()
                     .filter(skill -> !puzzle.getSkillConstraint(skill).acceptsAnything())
-                    .map(skill -> String.format("%4s=%3d", skill, skillCounter.get(skill)))
+                    .map(skill -> String.format("%4s=%3d", skill, getSkillValue(skill)))
                     .collect(toList()))
             .addAll(
                 cardTierCounter.values().stream()
@@ -107,9 +183,21 @@ public class Selection {
             .collect(joining("; "));
   }
 
+  /**
+   * Lists the index of the card in each slot. Interchangeable cards are listed
+   * in canonical order (see {@link #canonicalize}), so two selections have the
+   * same description exactly when they are the same up to exchanging them, and
+   * the description can serve as a cache key.
+   */
   public String getDescription() {
-    return Streams.concat(Arrays.stream(cards), Arrays.stream(boostCards))
-        .map(card -> card == null ? "___" : String.format("%03d", card.getIndex()))
+    int[] indexes = new int[cards.length + boostCards.length];
+    for (int slot = 0; slot < indexes.length; ++slot) {
+      Card card = getCard(slot);
+      indexes[slot] = card == null ? -1 : card.getIndex();
+    }
+    template.canonicalize(indexes, 0);
+    return Arrays.stream(indexes)
+        .mapToObj(index -> index < 0 ? "___" : String.format("%03d", index))
         .collect(joining(","));
   }
 
@@ -150,6 +238,102 @@ public class Selection {
     return oldCard;
   }
 
+  public Puzzle getPuzzle() {
+    return puzzle;
+  }
+
+  /**
+   * Returns the card in the given slot, or null if it is empty. Slots are
+   * numbered with the striking slots first, then the grappling slots, then the
+   * boost slots.
+   */
+  public Card getCard(int slot) {
+    return slot < cards.length ? cards[slot] : boostCards[slot - cards.length];
+  }
+
+  /**
+   * Puts the given card (which may be null) in the given slot, numbered as for
+   * {@link #getCard}, and returns the card that was there before.
+   */
+  public Card setCard(int slot, Card newCard) {
+    if (slot < puzzle.getStrikingSlotCount()) {
+      return setStriking(slot, (MoveCard) newCard);
+    } else if (slot < cards.length) {
+      return setGrappling(slot - puzzle.getStrikingSlotCount(), (MoveCard) newCard);
+    } else {
+      return setBoost(slot - cards.length, (BoostCard) newCard);
+    }
+  }
+
+  /**
+   * Rearranges cards between interchangeable slots (move slots of the same
+   * type, or boost slots) into increasing index order, with empty slots last.
+   * Nothing else about the selection changes.
+   */
+  public void canonicalize() {
+    int[] groupEnds = template.groupEnds;
+    for (int start = 0; start < groupEnds.length; start = groupEnds[start]) {
+      for (int i = start + 1; i < groupEnds[start]; ++i) {
+        Card card = getCard(i);
+        int j = i;
+        while (j > start && sortKey(getCard(j - 1)) > sortKey(card)) {
+          placeCard(j, getCard(j - 1));
+          --j;
+        }
+        placeCard(j, card);
+      }
+    }
+  }
+
+  /** Whether the selection is in the form {@link #canonicalize} leaves it in. */
+  public boolean isCanonical() {
+    int[] groupEnds = template.groupEnds;
+    for (int slot = 0; slot + 1 < groupEnds.length; ++slot) {
+      if (groupEnds[slot] > slot + 1 && sortKey(getCard(slot)) > sortKey(getCard(slot + 1))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int sortKey(Card card) {
+    return SelectionTemplate.sortKey(card == null ? -1 : card.getIndex());
+  }
+
+  // Puts a card in a slot without any bookkeeping. Only for rearranging cards
+  // between interchangeable slots.
+  private void placeCard(int slot, Card card) {
+    if (slot < cards.length) {
+      cards[slot] = (MoveCard) card;
+    } else {
+      boostCards[slot - cards.length] = (BoostCard) card;
+    }
+  }
+
+  /**
+   * Exchanges the cards (either of which may be null) in two move slots of the
+   * same kind, numbered as for {@link #getCard}. The same cards stay in use, so
+   * only chemistry can change.
+   */
+  public void swapMoves(int slotA, int slotB) {
+    Preconditions.checkArgument(slotA >= 0 && slotA < cards.length);
+    Preconditions.checkArgument(slotB >= 0 && slotB < cards.length);
+    MoveType typeA = moveSlotTypes[slotA];
+    MoveType typeB = moveSlotTypes[slotB];
+    Preconditions.checkArgument(typeA.isStriking() == typeB.isStriking());
+
+    MoveCard cardA = cards[slotA];
+    MoveCard cardB = cards[slotB];
+    if (cardA != null) {
+      chemistry += puzzle.getChemistry(cardA, typeB) - puzzle.getChemistry(cardA, typeA);
+    }
+    if (cardB != null) {
+      chemistry += puzzle.getChemistry(cardB, typeA) - puzzle.getChemistry(cardB, typeB);
+    }
+    cards[slotA] = cardB;
+    cards[slotB] = cardA;
+  }
+
   // This method is performance-sensitive; it's the main workhorse that solvers
   // will use to iterate and explore the space.
   private MoveCard set(int index, MoveCard newCard) {
@@ -157,14 +341,12 @@ public class Selection {
     set(index, newCard, cards);
 
     if (oldCard != null) {
-      chemistry -= oldCard.getChemistryInSlot(puzzle, moveSlotTypes[index]);
-      cardTierCounter.add(oldCard.getTier(), -1);
+      chemistry -= puzzle.getChemistry(oldCard, moveSlotTypes[index]);
       cardStyleCounter.add(oldCard.getStyle(), -1);
     }
 
     if (newCard != null) {
-      chemistry += newCard.getChemistryInSlot(puzzle, moveSlotTypes[index]);
-      cardTierCounter.add(newCard.getTier(), 1);
+      chemistry += puzzle.getChemistry(newCard, moveSlotTypes[index]);
       cardStyleCounter.add(newCard.getStyle(), 1);
     }
 
@@ -182,23 +364,30 @@ public class Selection {
 
     if (oldCard != null) {
       Preconditions.checkArgument(isUsed(oldCard));
-      for (Skill skill : skillCounter.values()) {
-        skillCounter.add(skill, -oldCard.getSkillModifier(skill));
-      }
+      kernel.add(skillValues, skillVectors, oldCard.getIndex() * SkillKernel.STRIDE, true);
+      addSummarySkills(oldCard, -1);
       cardTierCounter.add(oldCard.getTier(), -1);
+      cost -= costModel.getCost(oldCard);
       setUsed(oldCard,false);
     }
 
     if (newCard != null) {
       Preconditions.checkArgument(!isUsed(newCard));
-      for (Skill skill : skillCounter.values()) {
-        skillCounter.add(skill, newCard.getSkillModifier(skill));
-      }
+      kernel.add(skillValues, skillVectors, newCard.getIndex() * SkillKernel.STRIDE, false);
+      addSummarySkills(newCard, 1);
       cardTierCounter.add(newCard.getTier(), 1);
+      cost += costModel.getCost(newCard);
       setUsed(newCard, true);
     }
   }
 
+  private void addSummarySkills(Card card, int sign) {
+    int offset = card.getIndex() * SUMMARY_SKILL_COUNT;
+    for (int summary = 0; summary < SUMMARY_SKILL_COUNT; ++summary) {
+      summarySkillSums[summary] += sign * summarySkillVectors[offset + summary];
+    }
+  }
+
   public boolean isUsed(Card card) {
     return used.get(card.getIndex());
   }
@@ -207,7 +396,25 @@ public class Selection {
     used.set(card.getIndex(), isUsed);
   }
 
-  public <CardT extends Card> CardT getRandomUnused(List<? extends CardT> cards, Random random) {
+  /**
+   * Returns a key identifying the set of cards in use, regardless of which
+   * slot each is in. Two selections with equal keys use exactly the same
+   * cards. The returned value is a copy and may be kept.
+   */
+  public BitSet getCardSetKey() {
+    return (BitSet) used.clone();
+  }
+
+  /** The total cost of the cards in use, according to this selection's {@link CostModel}. */
+  public int getCost() {
+    return cost;
+  }
+
+  public int getCardTierCount(Tier tier) {
+    return cardTierCounter.get(tier);
+  }
+
+  public <CardT extends Card> CardT getRandomUnused(List<? extends CardT> cards, RandomGenerator random) {
     while (true) {
       CardT card = cards.get(random.nextInt(cards.size()));
       if (!isUsed(card)) {
@@ -216,26 +423,37 @@ public class Selection {
     }
   }
 
+  /** The ordinal of the summary skill the given skill rolls up into, or -1 if none. */
+  static int getSummarySkillOrdinal(Skill skill) {
+    return SUMMARY_SKILL_OF_SKILL[skill.ordinal()];
+  }
+
+  /** The skills that roll up into the given summary skill; empty for CHEMISTRY. */
+  static ImmutableList<Skill> getComponentSkills(SummarySkill summarySkill) {
+    return SKILLS_BY_SUMMARY.get(summarySkill);
+  }
+
+  public int getSkillValue(Skill skill) {
+    return skillValues[skill.ordinal()];
+  }
+
+  public int getCardStyleCount(Style style) {
+    return cardStyleCounter.get(style);
+  }
+
   public int getSummarySkillValue(SummarySkill summarySkill) {
     // Chemistry is a special case that is not derived from other attributes.
     if (summarySkill.equals(SummarySkill.CHEMISTRY)) {
       return chemistry;
     }
 
-    ImmutableList<Skill> relevantSkills = SKILLS_BY_SUMMARY.get(summarySkill);
-    int sum = 0;
-    for (Skill skill : relevantSkills) {
-      sum += skillCounter.get(skill);
-    }
-    return sum / relevantSkills.size();
+    int summary = summarySkill.ordinal();
+    return summarySkillSums[summary] / COMPONENT_COUNTS[summary];
   }
 
   public boolean isSolved() {
-    for (Skill skill : Skill.values()) {
-      if (!puzzle.getSkillConstraint(skill).isSatisfiedBy(
-          skillCounter.get(skill))) {
-        return false;
-      }
+    if (kernel.violation(skillValues, template.skillMinimums, template.skillMaximums) != 0) {
+      return false;
     }
     for (Tier tier : Tier.values()) {
       if (!puzzle.getCardTierConstraint(tier).isSatisfiedBy(
@@ -262,13 +480,9 @@ public class Selection {
   }
 
   public double getNaughtiness() {
-    double naughtiness = 0;
-    for (Skill skill : Skill.values()) {
-      // TODO: use the negative values more flexibly.
-      naughtiness += Math.max(0,
-          puzzle.getSkillConstraint(skill).getSatisfactionDistance(
-             skillCounter.get(skill)));
-    }
+    // TODO: use the negative values more flexibly.
+    double naughtiness =
+        kernel.violation(skillValues, template.skillMinimums, template.skillMaximums);
     for (Tier tier : cardTierCounter.values()) {
       // TODO: use the negative values more flexibly.
       naughtiness += Math.max(0,
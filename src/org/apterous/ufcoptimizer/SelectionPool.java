@@ -0,0 +1,59 @@
+package org.apterous.ufcoptimizer;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A pool of reusable scratch {@link Selection}s for one puzzle and cost model,
+ * for workloads that would otherwise create and discard many of them.
+ *
+ * <p>Not to be confused with {@link SolutionPool}, which collects results.
+ *
+ * <p>Thread-safe. A selection must not be used after it is released.
+ */
+final class SelectionPool {
+
+  private final Puzzle puzzle;
+  private final CostModel costModel;
+  private final int capacity;
+  private final ConcurrentLinkedDeque<Selection> idle = new ConcurrentLinkedDeque<>();
+  private final AtomicInteger idleCount = new AtomicInteger();
+
+  /** @param capacity the most idle selections to keep; any more are dropped */
+  SelectionPool(Puzzle puzzle, CostModel costModel, int capacity) {
+    checkArgument(capacity > 0);
+    this.puzzle = checkNotNull(puzzle);
+    this.costModel = checkNotNull(costModel);
+    this.capacity = capacity;
+  }
+
+  /** An empty selection, reused if one is idle. */
+  Selection acquire() {
+    Selection selection = idle.pollFirst();
+    if (selection == null) {
+      return new Selection(puzzle, costModel);
+    }
+    idleCount.decrementAndGet();
+    selection.reset();
+    return selection;
+  }
+
+  /** A copy of the given selection, which must be of the same puzzle and cost model. */
+  Selection acquireCopyOf(Selection selection) {
+    Selection copy = acquire();
+    copy.copyFrom(selection);
+    return copy;
+  }
+
+  /** Returns a selection acquired from this pool, for reuse. */
+  void release(Selection selection) {
+    if (idleCount.incrementAndGet() <= capacity) {
+      idle.addFirst(selection);
+    } else {
+      idleCount.decrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package org.apterous.ufcoptimizer;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Arrays;
+
+/**
+ * The parts of an empty {@link Selection} that depend only on its puzzle,
+ * worked out once per puzzle so that making or resetting a selection is just
+ * a few array copies.
+ */
+@Immutable
+final class SelectionTemplate {
+
+  // The type of each move slot, striking slots first, and slots of the same
+  // type next to each other. Never modified.
+  final MoveType[] moveSlotTypes;
+  // Slots (numbered as for Selection#getCard) holding cards that could be
+  // exchanged without changing anything are interchangeable: move slots of the
+  // same type, or any two boost slots. They form runs; entry i is the end
+  // (exclusive) of the run containing slot i. Never modified.
+  final int[] groupEnds;
+  // The puzzle's initial skills, by skill ordinal, padded to the kernel
+  // stride. Never modified.
+  final int[] initialSkills;
+  // The bounds of the puzzle's skill constraints, by skill ordinal, padded to
+  // the kernel stride. Never modified.
+  final int[] skillMinimums;
+  final int[] skillMaximums;
+  final SkillKernel kernel;
+  // The sums of the initial skills rolling up into each summary skill, by
+  // summary skill ordinal. Never modified.
+  final int[] initialSummarySkillSums;
+
+  SelectionTemplate(Puzzle puzzle) {
+    // Order can be arbitrary as long as striking slots are first.
+    this.moveSlotTypes =
+        puzzle.getMoveSlots().stream()
+            .sorted((slotA, slotB) -> Boolean.compare(slotB.isStriking(), slotA.isStriking()))
+            .toArray(MoveType[]::new);
+    this.groupEnds = new int[puzzle.getSlotCount()];
+    for (int slot = puzzle.getMoveSlotCount() - 1; slot >= 0; --slot) {
+      boolean lastOfType =
+          slot + 1 == moveSlotTypes.length || moveSlotTypes[slot + 1] != moveSlotTypes[slot];
+      groupEnds[slot] = lastOfType ? slot + 1 : groupEnds[slot + 1];
+    }
+    Arrays.fill(groupEnds, puzzle.getMoveSlotCount(), groupEnds.length, groupEnds.length);
+    this.initialSkills = new int[SkillKernel.STRIDE];
+    this.skillMinimums = new int[SkillKernel.STRIDE];
+    this.skillMaximums = new int[SkillKernel.STRIDE];
+    Arrays.fill(skillMinimums, SkillKernel.NO_MINIMUM);
+    Arrays.fill(skillMaximums, SkillKernel.NO_MAXIMUM);
+    this.kernel = SkillKernel.getDefault();
+    this.initialSummarySkillSums = new int[SummarySkill.values().length];
+    for (Skill skill : Skill.values()) {
+      initialSkills[skill.ordinal()] = puzzle.getInitialSkill(skill);
+      RangeConstraint constraint = puzzle.getSkillConstraint(skill);
+      skillMinimums[skill.ordinal()] =
+          Math.max(SkillKernel.NO_MINIMUM, constraint.getMinimum().orElse(SkillKernel.NO_MINIMUM));
+      skillMaximums[skill.ordinal()] =
+          Math.min(SkillKernel.NO_MAXIMUM, constraint.getMaximum().orElse(SkillKernel.NO_MAXIMUM));
+      int summary = Selection.getSummarySkillOrdinal(skill);
+      if (summary >= 0) {
+        initialSummarySkillSums[summary] += puzzle.getInitialSkill(skill);
+      }
+    }
+  }
+
+  /**
+   * Puts a selection given as card indexes by slot, starting at the given
+   * offset, into canonical form: within each run of interchangeable slots,
+   * cards in increasing index order with empty slots ({@code -1}) last.
+   * Arrangements that differ only by exchanging interchangeable cards have
+   * the same canonical form.
+   */
+  void canonicalize(int[] indexes, int offset) {
+    for (int start = 0; start < groupEnds.length; start = groupEnds[start]) {
+      // Runs are short, so insertion sort.
+      for (int i = start + 1; i < groupEnds[start]; ++i) {
+        int index = indexes[offset + i];
+        int j = i;
+        while (j > start && sortKey(indexes[offset + j - 1]) > sortKey(index)) {
+          indexes[offset + j] = indexes[offset + j - 1];
+          --j;
+        }
+        indexes[offset + j] = index;
+      }
+    }
+  }
+
+  // Orders card indexes, with empty slots after every card.
+  static int sortKey(int index) {
+    return index < 0 ? Integer.MAX_VALUE : index;
+  }
+}
@@ -0,0 +1,114 @@
+package org.apterous.ufcoptimizer;
+
+import java.util.Optional;
+
+/**
+ * The element-wise arithmetic on skill vectors that a {@link Selection} does
+ * on every step: adding or subtracting a card's skill modifiers, and summing
+ * how far each skill is outside its constraint.
+ *
+ * <p>Skill vectors are padded to {@link #STRIDE} ints, so that they fill a
+ * whole number of SIMD registers. Padding lanes are 0 in value arrays and in
+ * card rows, and unconstrained in bound arrays, so they never add anything.
+ *
+ * <p>The default kernel is plain scalar Java. If the system property
+ * {@code ufcoptimizer.simd} is {@code true}, the incubating
+ * {@code jdk.incubator.vector} module is available (run with
+ * {@code --add-modules jdk.incubator.vector}) and the {@code src-vector}
+ * source root was compiled onto the class path, it is the Vector API kernel
+ * instead. Both give identical results; see {@link SkillKernelBenchmark}.
+ */
+abstract class SkillKernel {
+
+  /** The length of every padded skill vector: a multiple of 16 lanes. */
+  static final int STRIDE = (Skill.values().length + 15) & ~15;
+
+  /** Stands in for a missing minimum; far below any reachable skill value. */
+  static final int NO_MINIMUM = Integer.MIN_VALUE / 4;
+  /** Stands in for a missing maximum; far above any reachable skill value. */
+  static final int NO_MAXIMUM = Integer.MAX_VALUE / 4;
+
+  private static final SkillKernel DEFAULT = chooseDefault();
+
+  /** The kernel chosen for this process, as described above. */
+  static SkillKernel getDefault() {
+    return DEFAULT;
+  }
+
+  /** The plain Java kernel, always available. */
+  static SkillKernel scalar() {
+    return ScalarSkillKernel.INSTANCE;
+  }
+
+  /**
+   * The Vector API kernel, if the {@code jdk.incubator.vector} module is
+   * present, the kernel was compiled, and the machine's preferred vectors fit
+   * the stride.
+   */
+  static Optional<SkillKernel> vector() {
+    if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.ofNullable((SkillKernel) Class.forName(SkillKernel.class.getPackageName()
+              + ".VectorSkillKernel")
+          .getDeclaredField("INSTANCE")
+          .get(null));
+    } catch (ReflectiveOperationException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Adds (or, with {@code subtract}, subtracts) the row of {@code vectors}
+   * starting at {@code offset} to {@code values}, over all {@link #STRIDE} lanes.
+   */
+  abstract void add(int[] values, int[] vectors, int offset, boolean subtract);
+
+  /**
+   * The sum over all lanes of how far each value is below its minimum or
+   * above its maximum. Zero means every skill constraint is met.
+   */
+  abstract int violation(int[] values, int[] minimums, int[] maximums);
+
+  /** A short name for reports. */
+  abstract String getName();
+
+  private static SkillKernel chooseDefault() {
+    if (!Boolean.getBoolean("ufcoptimizer.simd")) {
+      return scalar();
+    }
+    return vector().orElseGet(SkillKernel::scalar);
+  }
+
+  private static final class ScalarSkillKernel extends SkillKernel {
+    static final ScalarSkillKernel INSTANCE = new ScalarSkillKernel();
+
+    @Override
+    void add(int[] values, int[] vectors, int offset, boolean subtract) {
+      if (subtract) {
+        for (int i = 0; i < STRIDE; ++i) {
+          values[i] -= vectors[offset + i];
+        }
+      } else {
+        for (int i = 0; i < STRIDE; ++i) {
+          values[i] += vectors[offset + i];
+        }
+      }
+    }
+
+    @Override
+    int violation(int[] values, int[] minimums, int[] maximums) {
+      int sum = 0;
+      for (int i = 0; i < STRIDE; ++i) {
+        sum += Math.max(0, minimums[i] - values[i]) + Math.max(0, values[i] - maximums[i]);
+      }
+      return sum;
+    }
+
+    @Override
+    String getName() {
+      return "scalar";
+    }
+  }
+}
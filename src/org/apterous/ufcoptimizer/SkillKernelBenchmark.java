@@ -0,0 +1,117 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.SplittableRandom;
+
+/**
+ * Compares the {@link SkillKernel}s, first on their own and then inside a
+ * solver.
+ *
+ * <p>Usage: {@code SkillKernelBenchmark MOVES.csv BOOSTS.csv}. The kernel
+ * comparison runs every kernel available, which includes the Vector API one
+ * only with the {@code src-vector} root on the class path. The solver
+ * comparison uses the process's default kernel, so run it twice, once with
+ * {@code -Dufcoptimizer.simd=true --add-modules jdk.incubator.vector}, to
+ * compare the two.
+ */
+final class SkillKernelBenchmark {
+
+  private static final int KERNEL_STEPS = 20_000_000;
+  private static final int SOLVER_ITERATIONS = 2_000_000;
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) throws IOException {
+    CardCatalog catalog =
+        CardCatalog.of(
+            new CardFileParser(
+                    FileSystems.getDefault().getPath(args[0]),
+                    FileSystems.getDefault().getPath(args[1]))
+                .load());
+    Puzzle puzzle = newPuzzle(catalog);
+
+    ImmutableList.Builder<SkillKernel> kernels = ImmutableList.builder();
+    kernels.add(SkillKernel.scalar());
+    SkillKernel.vector().ifPresent(kernels::add);
+    for (int round = 0; round < ROUNDS; ++round) {
+      for (SkillKernel kernel : kernels.build()) {
+        long start = System.nanoTime();
+        long checksum = runKernel(kernel, catalog, puzzle.getSelectionTemplate());
+        System.out.printf("%-12s %6.2f ns/step (checksum %d)%n",
+            kernel.getName(), (double) (System.nanoTime() - start) / KERNEL_STEPS, checksum);
+      }
+    }
+
+    Solver solver =
+        new Solver(
+            Solver.SolverConfig.builder()
+                .setMaximumIterations(SOLVER_ITERATIONS)
+                .setVerbose(false)
+                .build(),
+            // Unsolvable, so every round runs all its iterations.
+            newPuzzle(catalog, Integer.MAX_VALUE));
+    for (int round = 0; round < ROUNDS; ++round) {
+      long start = System.nanoTime();
+      solver.getBestSelection(new SplittableRandom(round));
+      System.out.printf("solver with %-12s %6.2f ns/iteration%n",
+          SkillKernel.getDefault().getName(),
+          (double) (System.nanoTime() - start) / SOLVER_ITERATIONS);
+    }
+  }
+
+  // Mimics a solver step: swap one random card out for another, then check.
+  private static long runKernel(SkillKernel kernel, CardCatalog catalog, SelectionTemplate template) {
+    int[] values = template.initialSkills.clone();
+    int[] vectors = catalog.getSkillVectors();
+    int rows = catalog.getMaximumIndex() + 1;
+    SplittableRandom random = new SplittableRandom(0);
+    long checksum = 0;
+    int previous = 0;
+    for (int step = 0; step < KERNEL_STEPS; ++step) {
+      int next = random.nextInt(rows);
+      kernel.add(values, vectors, previous * SkillKernel.STRIDE, true);
+      kernel.add(values, vectors, next * SkillKernel.STRIDE, false);
+      checksum += kernel.violation(values, template.skillMinimums, template.skillMaximums);
+      previous = next;
+    }
+    return checksum;
+  }
+
+  private static Puzzle newPuzzle(CardCatalog catalog) {
+    return newPuzzle(catalog, 75);
+  }
+
+  private static Puzzle newPuzzle(CardCatalog catalog, int minimumChemistry) {
+    ImmutableMap.Builder<Skill, Integer> initialSkill = ImmutableMap.builder();
+    for (Skill skill : Skill.values()) {
+      initialSkill.put(skill, 70);
+    }
+    return new Puzzle(
+        catalog,
+        Weight.BW,
+        Style.BALANCED,
+        ImmutableMultiset.<MoveType>builder()
+            .addCopies(MoveType.ARM, 3)
+            .addCopies(MoveType.LEG, 3)
+            .addCopies(MoveType.CLINCH, 2)
+            .addCopies(MoveType.TAKEDOWN, 2)
+            .addCopies(MoveType.SUBMISSION, 2)
+            .addCopies(MoveType.GROUND, 2)
+            .build(),
+        6,
+        ImmutableMap.of(
+            Skill.HMVT, RangeConstraint.min(100),
+            Skill.THRW, RangeConstraint.min(95),
+            Skill.SPD, RangeConstraint.of(60, 90)),
+        ImmutableMap.of(SummarySkill.CHEMISTRY, RangeConstraint.min(minimumChemistry)),
+        ImmutableMap.of(Tier.SILVER, RangeConstraint.max(1)),
+        ImmutableMap.of(),
+        initialSkill.build());
+  }
+
+  private SkillKernelBenchmark() {}  // Not for instantiation.
+}
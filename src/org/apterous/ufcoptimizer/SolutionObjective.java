@@ -0,0 +1,44 @@
+package org.apterous.ufcoptimizer;
+
+/**
+ * A secondary quality of a solved {@link Selection}, used to rank distinct
+ * solutions against each other. Lower values are always better.
+ */
+enum SolutionObjective {
+  /** Number of ELITE cards spent. */
+  ELITE_CARDS {
+    @Override
+    int evaluate(Puzzle puzzle, Selection selection) {
+      return selection.getCardTierCount(Tier.ELITE);
+    }
+  },
+  /** Number of MASTER cards spent. */
+  MASTER_CARDS {
+    @Override
+    int evaluate(Puzzle puzzle, Selection selection) {
+      return selection.getCardTierCount(Tier.MASTER);
+    }
+  },
+  /** Number of ELITE or MASTER cards spent. */
+  PREMIUM_CARDS {
+    @Override
+    int evaluate(Puzzle puzzle, Selection selection) {
+      return selection.getCardTierCount(Tier.ELITE) + selection.getCardTierCount(Tier.MASTER);
+    }
+  },
+  /**
+   * How close chemistry is to its constraint; more negative means more
+   * headroom. Without a chemistry constraint this just rewards chemistry.
+   */
+  CHEMISTRY_HEADROOM {
+    @Override
+    int evaluate(Puzzle puzzle, Selection selection) {
+      int chemistry = selection.getSummarySkillValue(SummarySkill.CHEMISTRY);
+      RangeConstraint constraint = puzzle.getSummarySkillConstraint(SummarySkill.CHEMISTRY);
+      return constraint.acceptsAnything() ? -chemistry : constraint.getSatisfactionDistance(chemistry);
+    }
+  };
+
+  /** The value of this objective for the given selection of the given puzzle. */
+  abstract int evaluate(Puzzle puzzle, Selection selection);
+}
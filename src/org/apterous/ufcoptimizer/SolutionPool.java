@@ -0,0 +1,183 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+/**
+ * A bounded collection of distinct solutions to a single puzzle.
+ *
+ * <p>Two selections are the same solution if they use the same set of cards
+ * (see {@link Selection#getCardSetKey()}), whatever slots they are in. The
+ * pool keeps the best {@code capacity} distinct solutions, ranked
+ * lexicographically by the objectives in the order given. Independently of
+ * that ranking it also keeps every distinct solution that is not dominated on
+ * all objectives at once, which is the Pareto front.
+ *
+ * <p>Some objectives, such as chemistry, depend on which slots the cards are
+ * in, so the same cards can come back with better values. The ranking then
+ * keeps the arrangement that ranks higher, and the front the one that
+ * dominates the other; otherwise the first arrangement offered stays.
+ *
+ * <p>Not thread-safe.
+ */
+final class SolutionPool {
+
+  /** A solution held in the pool, with its objective values. */
+  static final class Entry {
+    private final Selection selection;
+    private final BitSet key;
+    private final int[] objectiveValues;
+    private final long sequence;
+
+    private Entry(Selection selection, BitSet key, int[] objectiveValues, long sequence) {
+      this.selection = selection;
+      this.key = key;
+      this.objectiveValues = objectiveValues;
+      this.sequence = sequence;
+    }
+
+    /** A copy of the solution; safe to mutate. */
+    Selection getSelection() {
+      return new Selection(selection);
+    }
+
+    /** The value of the i-th objective passed to the pool's constructor. */
+    int getObjectiveValue(int index) {
+      return objectiveValues[index];
+    }
+  }
+
+  private final Puzzle puzzle;
+  private final ImmutableList<SolutionObjective> objectives;
+  private final int capacity;
+
+  private final TreeSet<Entry> ranked;
+  private final Map<BitSet, Entry> rankedByKey = new HashMap<>();
+  private final List<Entry> paretoFront = new ArrayList<>();
+  private long sequence = 0;
+
+  SolutionPool(Puzzle puzzle, int capacity, ImmutableList<SolutionObjective> objectives) {
+    checkArgument(capacity > 0);
+    checkArgument(!objectives.isEmpty());
+    this.puzzle = checkNotNull(puzzle);
+    this.objectives = objectives;
+    this.capacity = capacity;
+    this.ranked = new TreeSet<>(
+        ((Comparator<Entry>) SolutionPool::compareObjectives)
+            .thenComparingLong(entry -> entry.sequence));
+  }
+
+  /**
+   * Offers a solved selection to the pool. The selection is copied if kept.
+   *
+   * @return whether the pool changed, either in its ranking or its Pareto front
+   */
+  boolean offer(Selection selection) {
+    int[] values = new int[objectives.size()];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = objectives.get(i).evaluate(puzzle, selection);
+    }
+
+    boolean fitsRanking = ranked.size() < capacity || compare(values, ranked.last().objectiveValues) < 0;
+    boolean fitsFront = !isDominated(values);
+    if (!fitsRanking && !fitsFront) {
+      return false;
+    }
+
+    BitSet key = selection.getCardSetKey();
+    Entry rankedSame = rankedByKey.get(key);
+    Entry frontSame =
+        paretoFront.stream().filter(entry -> entry.key.equals(key)).findFirst().orElse(null);
+    boolean improvesRanking =
+        fitsRanking && (rankedSame == null || compare(values, rankedSame.objectiveValues) < 0);
+    // The same cards' old entry on the front, if dominated, goes below with
+    // everything else the new values dominate.
+    boolean improvesFront =
+        fitsFront && (frontSame == null || dominates(values, frontSame.objectiveValues));
+    if (!improvesRanking && !improvesFront) {
+      return false;
+    }
+
+    Entry entry = new Entry(new Selection(selection), key, values, sequence++);
+    if (improvesRanking) {
+      if (rankedSame != null) {
+        ranked.remove(rankedSame);
+      }
+      ranked.add(entry);
+      rankedByKey.put(key, entry);
+      if (ranked.size() > capacity) {
+        rankedByKey.remove(ranked.pollLast().key);
+      }
+    }
+    if (improvesFront) {
+      paretoFront.removeIf(other -> dominates(values, other.objectiveValues));
+      paretoFront.add(entry);
+    }
+    return true;
+  }
+
+  /** The number of distinct solutions in the ranking. */
+  int size() {
+    return ranked.size();
+  }
+
+  /** The best distinct solutions, best first. */
+  ImmutableList<Entry> getRanked() {
+    return ImmutableList.copyOf(ranked);
+  }
+
+  /**
+   * The distinct solutions found that no other found solution beats on every
+   * objective, ordered by the objectives lexicographically.
+   */
+  ImmutableList<Entry> getParetoFront() {
+    return paretoFront.stream()
+        .sorted(SolutionPool::compareObjectives)
+        .collect(toImmutableList());
+  }
+
+  private boolean isDominated(int[] values) {
+    for (Entry entry : paretoFront) {
+      if (dominates(entry.objectiveValues, values) || compare(entry.objectiveValues, values) == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int compareObjectives(Entry a, Entry b) {
+    return compare(a.objectiveValues, b.objectiveValues);
+  }
+
+  private static int compare(int[] a, int[] b) {
+    for (int i = 0; i < a.length; ++i) {
+      if (a[i] != b[i]) {
+        return Integer.compare(a[i], b[i]);
+      }
+    }
+    return 0;
+  }
+
+  // Whether a is at least as good as b everywhere and strictly better somewhere.
+  private static boolean dominates(int[] a, int[] b) {
+    boolean strictlyBetter = false;
+    for (int i = 0; i < a.length; ++i) {
+      if (a[i] > b[i]) {
+        return false;
+      }
+      strictlyBetter |= a[i] < b[i];
+    }
+    return strictlyBetter;
+  }
+}
@@ -0,0 +1,499 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+/**
+ * Hands the puzzles of a batch out to {@link SolveWorker} processes over TCP,
+ * so that a batch can be spread over several machines.
+ *
+ * <p>Each worker says how many puzzles it solves at once, and is kept that
+ * busy from a shared queue, so faster workers take more of the batch. Once
+ * the queue is empty, an idle worker also starts on a puzzle that one other
+ * worker is still solving, from the same seed; whichever finishes first wins
+ * and the other is cancelled. So one slow or overloaded worker cannot hold up
+ * the end of a batch. A worker that disconnects, or sends nothing at all for
+ * {@link #WORKER_TIMEOUT_MILLIS}, is dropped, and the puzzles it was solving
+ * alone go back to the front of the queue. If every worker is lost, the batch
+ * waits for another to connect. Messages to a worker are queued and written
+ * by a thread of its own, so a worker that stops reading holds up only
+ * itself; if a write to it stalls for {@link #WORKER_TIMEOUT_MILLIS} it is
+ * dropped too.
+ *
+ * <p>Each puzzle is solved with one walk from its own seed, so the result
+ * does not depend on which worker ran it, unless a time limit cuts it short.
+ *
+ * <p>Messages are a type byte and then fields in {@link java.io.DataOutput}
+ * form, with cards, puzzles, configs and selections in {@link PuzzleBinary}
+ * form. A worker opens with {@code HELLO}; after that either side may send at
+ * any time.
+ *
+ * <pre>
+ * worker to coordinator
+ *   HELLO      int slots
+ *   HEARTBEAT
+ *   PROGRESS   int task, long iteration, selection   a walk's new best
+ *   RESULT     int task, selection
+ *   FAILED     int task, UTF message                 the walk threw
+ * coordinator to worker
+ *   CARDS      int snapshot, cards                   before the first task over them
+ *   TASK       int task, int snapshot, config, puzzle, long seed
+ *   CANCEL     int task
+ *   FORGET                                           drop every card snapshot
+ * </pre>
+ */
+final class SolveCoordinator implements Closeable {
+
+  static final byte HELLO = 1;
+  static final byte HEARTBEAT = 2;
+  static final byte PROGRESS = 3;
+  static final byte RESULT = 4;
+  static final byte CARDS = 5;
+  static final byte TASK = 6;
+  static final byte CANCEL = 7;
+  static final byte FORGET = 8;
+  static final byte FAILED = 9;
+
+  /** How often a worker sends a heartbeat. */
+  static final int HEARTBEAT_MILLIS = 1_000;
+
+  /** How long a worker may stay silent before it is taken for lost. */
+  static final int WORKER_TIMEOUT_MILLIS = 10_000;
+
+  // A puzzle of the current batch, and the best selection seen for it.
+  private static final class Task {
+    final int id;
+    final Puzzle puzzle;
+    final long seed;
+    final Set<Worker> runners = new LinkedHashSet<>();
+    Selection best;
+    boolean done = false;
+
+    Task(int id, Puzzle puzzle, long seed) {
+      this.id = id;
+      this.puzzle = puzzle;
+      this.seed = seed;
+      this.best = new Selection(puzzle);
+    }
+  }
+
+  // A connected worker. Its reader thread is the only one to read from it,
+  // and its writer thread the only one to write to it, so no socket I/O is
+  // done holding the coordinator's lock.
+  private final class Worker {
+    final Socket socket;
+    final String name;
+    final DataInputStream in;
+    final DataOutputStream out;
+    final BlockingQueue<Message> outbox = new LinkedBlockingQueue<>();
+    final Thread writer;
+    final Set<Task> running = new LinkedHashSet<>();
+    final Set<Integer> snapshots = new LinkedHashSet<>();
+    int slots;
+    volatile boolean broken = false;
+    volatile long writeStartNanos = 0;  // 0 while no write is in progress.
+
+    Worker(Socket socket) throws IOException {
+      this.socket = socket;
+      this.name = String.valueOf(socket.getRemoteSocketAddress());
+      this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      this.writer = new Thread(this::write, "SolveCoordinator writer " + name);
+      writer.setDaemon(true);
+    }
+
+    void serve() {
+      try {
+        socket.setSoTimeout(WORKER_TIMEOUT_MILLIS);
+        socket.setTcpNoDelay(true);
+        writer.start();
+        if (in.readByte() != HELLO) {
+          throw new IOException("Expected HELLO");
+        }
+        slots = in.readInt();
+        if (slots <= 0) {
+          throw new IOException("Bad slot count " + slots);
+        }
+        register(this);
+        while (true) {
+          byte type = in.readByte();
+          long writeStart = writeStartNanos;
+          if (writeStart != 0
+              && System.nanoTime() - writeStart > WORKER_TIMEOUT_MILLIS * 1_000_000L) {
+            throw new IOException("Stopped reading");
+          }
+          switch (type) {
+            case HEARTBEAT:
+              break;
+            case PROGRESS: {
+              int task = in.readInt();
+              long iteration = in.readLong();
+              onProgress(this, task, iteration, PuzzleBinary.readSelectionIndexes(in));
+              break;
+            }
+            case RESULT: {
+              int task = in.readInt();
+              onResult(this, task, PuzzleBinary.readSelectionIndexes(in));
+              break;
+            }
+            case FAILED: {
+              int task = in.readInt();
+              onFailed(this, task, in.readUTF());
+              break;
+            }
+            default:
+              throw new IOException("Bad message type " + type);
+          }
+        }
+      } catch (IOException e) {
+        lose(this, e);
+      }
+    }
+
+    // Queues a message for the writer thread, unless writing has failed.
+    boolean send(Message message) {
+      if (broken) {
+        return false;
+      }
+      outbox.add(message);
+      return true;
+    }
+
+    // Writes queued messages until interrupted, flushing whenever the queue
+    // runs dry. If a write fails this worker is marked broken and its socket
+    // closed, and the reader thread then drops it.
+    private void write() {
+      try {
+        while (true) {
+          Message message = outbox.take();
+          writeStartNanos = System.nanoTime();
+          message.writeTo(out);
+          if (outbox.isEmpty()) {
+            out.flush();
+          }
+          writeStartNanos = 0;
+        }
+      } catch (InterruptedException e) {
+        // Dropped.
+      } catch (IOException e) {
+        broken = true;
+        closeQuietly(socket);
+      }
+    }
+  }
+
+  private interface Message {
+    void writeTo(DataOutputStream out) throws IOException;
+  }
+
+  private final ServerSocket serverSocket;
+  private final Thread acceptThread;
+
+  // All guarded by this.
+  private final List<Worker> workers = new ArrayList<>();
+  private final Deque<Task> pending = new ArrayDeque<>();
+  private final Map<Integer, Task> tasks = new LinkedHashMap<>();
+  private final IdentityHashMap<CardCatalog, Integer> snapshotIds = new IdentityHashMap<>();
+  private Solver.SolverConfig batchConfig = null;
+  private String batchFailure = null;
+  private int remaining = 0;
+  private int nextTaskId = 0;
+  private int nextSnapshotId = 0;
+  private boolean closed = false;
+
+  /**
+   * Creates a coordinator listening on the given port of every interface (0
+   * to pick a free one). Workers are not accepted until {@link #start()}.
+   */
+  SolveCoordinator(int port) throws IOException {
+    this.serverSocket = new ServerSocket(port);
+    this.acceptThread = new Thread(this::acceptWorkers, "SolveCoordinator accept");
+    acceptThread.setDaemon(true);
+  }
+
+  /** Starts accepting workers. */
+  void start() {
+    acceptThread.start();
+  }
+
+  /** The port the coordinator is listening on. */
+  int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /** Waits until at least the given number of workers are connected. */
+  synchronized void awaitWorkers(int count) throws InterruptedException {
+    while (workers.size() < count && !closed) {
+      wait();
+    }
+  }
+
+  /**
+   * Solves every puzzle on the connected workers, and returns the best
+   * selection for each, in order. Puzzle i is solved from a seed drawn from
+   * the generator split at position i from the given seed (see
+   * {@link Solver#splitRandoms}). Only one batch runs at a time; another
+   * caller waits for it to finish.
+   *
+   * <p>If interrupted, the puzzles still running are cancelled.
+   *
+   * @throws IllegalStateException if a walk throws on a worker; the other
+   *     puzzles are then cancelled
+   */
+  synchronized ImmutableList<Selection> solve(
+      ImmutableList<Puzzle> puzzles, Solver.SolverConfig config, long rootSeed)
+      throws InterruptedException {
+    checkArgument(!puzzles.isEmpty());
+    checkNotNull(config);
+    while (batchConfig != null) {
+      wait();
+    }
+    checkState(!closed, "Closed");
+
+    batchConfig = config;
+    snapshotIds.clear();
+    for (Worker worker : workers) {
+      worker.snapshots.clear();
+      worker.send(out -> out.writeByte(FORGET));
+    }
+    ImmutableList<SplittableRandom> randoms = Solver.splitRandoms(rootSeed, puzzles.size());
+    for (int i = 0; i < puzzles.size(); ++i) {
+      Task task = new Task(nextTaskId++, puzzles.get(i), randoms.get(i).nextLong());
+      tasks.put(task.id, task);
+      pending.add(task);
+    }
+    remaining = puzzles.size();
+    try {
+      dispatch();
+      while (remaining > 0) {
+        checkState(!closed, "Closed");
+        checkState(batchFailure == null, batchFailure);
+        wait();
+      }
+      return tasks.values().stream().map(task -> task.best).collect(toImmutableList());
+    } finally {
+      for (Task task : tasks.values()) {
+        for (Worker runner : task.runners) {
+          runner.running.remove(task);
+          runner.send(out -> {
+            out.writeByte(CANCEL);
+            out.writeInt(task.id);
+          });
+        }
+      }
+      tasks.clear();
+      pending.clear();
+      batchConfig = null;
+      batchFailure = null;
+      notifyAll();
+    }
+  }
+
+  /** Stops accepting workers and disconnects every worker, which then exits. */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    closeQuietly(serverSocket);
+    for (Worker worker : workers) {
+      closeQuietly(worker.socket);
+    }
+    notifyAll();
+  }
+
+  private void acceptWorkers() {
+    while (true) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        return;  // Closed.
+      }
+      try {
+        Worker worker = new Worker(socket);
+        Thread thread = new Thread(worker::serve, "SolveCoordinator " + worker.name);
+        thread.setDaemon(true);
+        thread.start();
+      } catch (IOException e) {
+        closeQuietly(socket);
+      }
+    }
+  }
+
+  private synchronized void register(Worker worker) {
+    if (closed) {
+      closeQuietly(worker.socket);
+      return;
+    }
+    workers.add(worker);
+    if (batchConfig != null && batchConfig.isVerbose()) {
+      System.out.printf("Worker %s joined with %d slots%n", worker.name, worker.slots);
+    }
+    dispatch();
+    notifyAll();
+  }
+
+  private synchronized void lose(Worker worker, IOException cause) {
+    closeQuietly(worker.socket);
+    worker.writer.interrupt();
+    if (!workers.remove(worker)) {
+      return;
+    }
+    if (batchConfig != null && batchConfig.isVerbose()) {
+      System.out.printf("Lost worker %s: %s%n", worker.name, cause);
+    }
+    for (Task task : worker.running) {
+      task.runners.remove(worker);
+      if (!task.done && task.runners.isEmpty()) {
+        pending.addFirst(task);
+      }
+    }
+    worker.running.clear();
+    dispatch();
+    notifyAll();
+  }
+
+  private synchronized void onProgress(Worker worker, int id, long iteration, int[] indexes)
+      throws IOException {
+    Task task = tasks.get(id);
+    if (task == null || task.done) {
+      return;  // From an earlier batch, or already won by another worker.
+    }
+    Selection selection = PuzzleBinary.toSelection(indexes, task.puzzle);
+    if (selection.getNaughtiness() < task.best.getNaughtiness()) {
+      task.best = selection;
+      if (batchConfig.isVerbose()) {
+        System.out.printf("Puzzle %d: %8.5g at iteration %d on %s%n",
+            id, selection.getNaughtiness(), iteration, worker.name);
+      }
+    }
+  }
+
+  private synchronized void onResult(Worker worker, int id, int[] indexes) throws IOException {
+    Task task = tasks.get(id);
+    worker.running.remove(task);
+    if (task != null && !task.done) {
+      task.runners.remove(worker);
+      task.best = PuzzleBinary.toSelection(indexes, task.puzzle);
+      task.done = true;
+      for (Worker other : task.runners) {
+        other.running.remove(task);
+        other.send(out -> {
+          out.writeByte(CANCEL);
+          out.writeInt(id);
+        });
+      }
+      task.runners.clear();
+      --remaining;
+      notifyAll();
+    }
+    dispatch();
+  }
+
+  // A walk that throws would throw again on any other worker, so the whole
+  // batch fails.
+  private synchronized void onFailed(Worker worker, int id, String message) {
+    Task task = tasks.get(id);
+    worker.running.remove(task);
+    if (task != null && !task.done && batchFailure == null) {
+      task.runners.remove(worker);
+      batchFailure = String.format("Puzzle %d failed on %s: %s", id, worker.name, message);
+      notifyAll();
+    }
+  }
+
+  // Fills every worker's free slots from the queue, or failing that by
+  // doubling up on a task one other worker is running.
+  private void dispatch() {
+    if (batchConfig == null) {
+      return;
+    }
+    for (Worker worker : workers) {
+      while (!worker.broken && worker.running.size() < worker.slots) {
+        Task task = pending.pollFirst();
+        boolean stolen = task == null;
+        if (stolen) {
+          task = findTaskToShare(worker);
+          if (task == null) {
+            break;
+          }
+        }
+        if (!send(worker, task)) {
+          if (!stolen) {
+            pending.addFirst(task);
+          }
+          break;
+        }
+        task.runners.add(worker);
+        worker.running.add(task);
+      }
+    }
+  }
+
+  // The earliest unfinished task that exactly one other worker is running.
+  private Task findTaskToShare(Worker worker) {
+    for (Task task : tasks.values()) {
+      if (!task.done && task.runners.size() == 1 && !task.runners.contains(worker)) {
+        return task;
+      }
+    }
+    return null;
+  }
+
+  private boolean send(Worker worker, Task task) {
+    CardCatalog cards = task.puzzle.getCatalog();
+    int snapshot = snapshotIds.computeIfAbsent(cards, key -> nextSnapshotId++);
+    if (!worker.snapshots.contains(snapshot)) {
+      boolean sent = worker.send(out -> {
+        out.writeByte(CARDS);
+        out.writeInt(snapshot);
+        PuzzleBinary.writeCards(out, cards);
+      });
+      if (!sent) {
+        return false;
+      }
+      worker.snapshots.add(snapshot);
+    }
+    Solver.SolverConfig config = batchConfig;
+    return worker.send(out -> {
+      out.writeByte(TASK);
+      out.writeInt(task.id);
+      out.writeInt(snapshot);
+      PuzzleBinary.writeConfig(out, config);
+      PuzzleBinary.writePuzzle(out, task.puzzle);
+      out.writeLong(task.seed);
+    });
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      // Nothing more to do.
+    }
+  }
+}
@@ -0,0 +1,196 @@
+package org.apterous.ufcoptimizer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Solves puzzles handed out by a {@link SolveCoordinator}, several at once,
+ * sending back each walk's improvements as they happen and its final result.
+ *
+ * <p>Usage: {@code SolveWorker HOST PORT [SLOTS]}, where SLOTS, by default the
+ * number of processors, is how many puzzles to solve at once. No card files
+ * are needed, since the coordinator sends the cards along with the puzzles.
+ * The worker exits when the coordinator closes the connection.
+ */
+final class SolveWorker {
+
+  private interface Message {
+    void writeTo(DataOutputStream out) throws IOException;
+  }
+
+  private final String host;
+  private final int port;
+  private final int slots;
+
+  // Read and written only by the thread reading from the coordinator.
+  private final Map<Integer, CardCatalog> snapshots = new HashMap<>();
+  private final Map<Integer, CancellationToken> running = new ConcurrentHashMap<>();
+
+  SolveWorker(String host, int port, int slots) {
+    checkArgument(slots > 0);
+    this.host = checkNotNull(host);
+    this.port = port;
+    this.slots = slots;
+  }
+
+  /** Connects to the coordinator and solves what it sends until it hangs up. */
+  void run() throws IOException {
+    ExecutorService solves = Executors.newFixedThreadPool(slots);
+    ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor();
+    try (Socket socket = new Socket(host, port)) {
+      socket.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      send(out, message -> {
+        message.writeByte(SolveCoordinator.HELLO);
+        message.writeInt(slots);
+      });
+      heartbeats.scheduleAtFixedRate(
+          () -> {
+            try {
+              send(out, message -> message.writeByte(SolveCoordinator.HEARTBEAT));
+            } catch (IOException e) {
+              closeQuietly(socket);
+            }
+          },
+          SolveCoordinator.HEARTBEAT_MILLIS,
+          SolveCoordinator.HEARTBEAT_MILLIS,
+          TimeUnit.MILLISECONDS);
+
+      while (true) {
+        byte type;
+        try {
+          type = in.readByte();
+        } catch (EOFException e) {
+          return;  // The coordinator is done with us.
+        }
+        switch (type) {
+          case SolveCoordinator.CARDS:
+            snapshots.put(in.readInt(), PuzzleBinary.readCards(in));
+            break;
+          case SolveCoordinator.TASK: {
+            int task = in.readInt();
+            int snapshot = in.readInt();
+            CardCatalog cards = snapshots.get(snapshot);
+            if (cards == null) {
+              throw new IOException("No card snapshot " + snapshot);
+            }
+            Solver.SolverConfig.Builder config = PuzzleBinary.readConfig(in);
+            Puzzle puzzle = PuzzleBinary.readPuzzle(in, cards);
+            long seed = in.readLong();
+            CancellationToken token = new CancellationToken();
+            running.put(task, token);
+            solves.execute(() -> solve(socket, out, task, puzzle, config, token, seed));
+            break;
+          }
+          case SolveCoordinator.CANCEL: {
+            CancellationToken token = running.get(in.readInt());
+            if (token != null) {
+              token.cancel();
+            }
+            break;
+          }
+          case SolveCoordinator.FORGET:
+            snapshots.clear();
+            break;
+          default:
+            throw new IOException("Bad message type " + type);
+        }
+      }
+    } finally {
+      running.values().forEach(CancellationToken::cancel);
+      solves.shutdownNow();
+      heartbeats.shutdownNow();
+    }
+  }
+
+  // Runs one walk, reporting each new best, and then the result, or why the
+  // walk failed. If the connection fails the walk is abandoned.
+  private void solve(
+      Socket socket,
+      DataOutputStream out,
+      int task,
+      Puzzle puzzle,
+      Solver.SolverConfig.Builder config,
+      CancellationToken token,
+      long seed) {
+    try {
+      Selection best =
+          new Solver(
+                  config
+                      .setCancellationToken(token)
+                      .setProgressListener((iteration, selection) -> {
+                        try {
+                          send(out, message -> {
+                            message.writeByte(SolveCoordinator.PROGRESS);
+                            message.writeInt(task);
+                            message.writeLong(iteration);
+                            PuzzleBinary.writeSelection(message, selection);
+                          });
+                        } catch (IOException e) {
+                          token.cancel();
+                        }
+                      })
+                      .build(),
+                  puzzle)
+              .getBestSelection(new SplittableRandom(seed));
+      send(out, message -> {
+        message.writeByte(SolveCoordinator.RESULT);
+        message.writeInt(task);
+        PuzzleBinary.writeSelection(message, best);
+      });
+    } catch (RuntimeException e) {
+      try {
+        send(out, message -> {
+          message.writeByte(SolveCoordinator.FAILED);
+          message.writeInt(task);
+          message.writeUTF(String.valueOf(e));
+        });
+      } catch (IOException sendFailure) {
+        closeQuietly(socket);
+      }
+    } catch (IOException e) {
+      closeQuietly(socket);
+    } finally {
+      running.remove(task);
+    }
+  }
+
+  private static void send(DataOutputStream out, Message message) throws IOException {
+    synchronized (out) {
+      message.writeTo(out);
+      out.flush();
+    }
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Nothing more to do.
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    int slots = args.length > 2
+        ? Integer.parseInt(args[2])
+        : Runtime.getRuntime().availableProcessors();
+    new SolveWorker(args[0], Integer.parseInt(args[1]), slots).run();
+  }
+}
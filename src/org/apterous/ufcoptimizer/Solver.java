@@ -1,24 +1,284 @@
 package org.apterous.ufcoptimizer;
 
+import com.google.common.collect.ImmutableList;
+
 import javax.annotation.concurrent.Immutable;
-import java.util.Random;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 
 /** The core solving engine. */
 @Immutable
 final class Solver {
 
+  /**
+   * Limits on how long a solve may run.
+   *
+   * <p>A solve stops at the first of: reaching the target naughtiness,
+   * exhausting its iterations, passing its time limit, going too long without
+   * improving, or being cancelled. Apart from the iteration count, all limits
+   * are off by default.
+   */
   @Immutable
   static final class SolverConfig {
 
     private final int maximumIterations;
+    private final long timeLimitNanos;
+    private final double targetNaughtiness;
+    private final long stagnationLimit;
+    private final CancellationToken cancellationToken;
+    private final CostModel costModel;
+    private final double acceptanceWithinOne;
+    private final double acceptanceWithinTwo;
+    private final long restartInterval;
+    private final ProgressListener progressListener;
+    private final Path checkpointFile;
+    private final Duration checkpointInterval;
+    private final boolean verbose;
 
     SolverConfig(int maximumIterations) {
-      this.maximumIterations = maximumIterations;
+      this(builder().setMaximumIterations(maximumIterations));
+    }
+
+    private SolverConfig(Builder builder) {
+      this.maximumIterations = builder.maximumIterations;
+      this.timeLimitNanos = builder.timeLimitNanos;
+      this.targetNaughtiness = builder.targetNaughtiness;
+      this.stagnationLimit = builder.stagnationLimit;
+      this.cancellationToken = builder.cancellationToken;
+      this.costModel = builder.costModel;
+      this.acceptanceWithinOne = builder.acceptanceWithinOne;
+      this.acceptanceWithinTwo = builder.acceptanceWithinTwo;
+      this.restartInterval = builder.restartInterval;
+      this.progressListener = builder.progressListener;
+      this.checkpointFile = builder.checkpointFile;
+      this.checkpointInterval = builder.checkpointInterval;
+      this.verbose = builder.verbose;
+    }
+
+    static Builder builder() {
+      return new Builder();
+    }
+
+    int getMaximumIterations() {
+      return maximumIterations;
+    }
+
+    /** The wall-clock budget in nanoseconds, or {@link Long#MAX_VALUE} if unlimited. */
+    long getTimeLimitNanos() {
+      return timeLimitNanos;
+    }
+
+    /** The naughtiness at or below which a selection is good enough to stop. */
+    double getTargetNaughtiness() {
+      return targetNaughtiness;
+    }
+
+    /** Iterations without a new best before giving up, or {@link Long#MAX_VALUE}. */
+    long getStagnationLimit() {
+      return stagnationLimit;
+    }
+
+    CancellationToken getCancellationToken() {
+      return cancellationToken;
+    }
+
+    /** Whether to print progress to standard output. */
+    boolean isVerbose() {
+      return verbose;
     }
+
+    /** If present, the cost to minimize once the target naughtiness is reached. */
+    Optional<CostModel> getCostModel() {
+      return Optional.ofNullable(costModel);
+    }
+
+    /** The chance of taking a step that makes things worse by at most 1. */
+    double getAcceptanceWithinOne() {
+      return acceptanceWithinOne;
+    }
+
+    /** The further chance of taking a step that makes things worse by at most 2. */
+    double getAcceptanceWithinTwo() {
+      return acceptanceWithinTwo;
+    }
+
+    /**
+     * Iterations without a new low since the last restart before a walk starts
+     * again from an empty selection, or {@link Long#MAX_VALUE}.
+     */
+    long getRestartInterval() {
+      return restartInterval;
+    }
+
+    ProgressListener getProgressListener() {
+      return progressListener;
+    }
+
+    /**
+     * If present, where {@link #solveWithCheckpoints} keeps its checkpoint,
+     * or the name the per-walk checkpoint files are numbered from.
+     */
+    Optional<Path> getCheckpointFile() {
+      return Optional.ofNullable(checkpointFile);
+    }
+
+    Duration getCheckpointInterval() {
+      return checkpointInterval;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "SolverConfig{maximumIterations=%d, acceptance=%g/%g, restartInterval=%s}",
+          maximumIterations,
+          acceptanceWithinOne,
+          acceptanceWithinTwo,
+          restartInterval == Long.MAX_VALUE ? "never" : restartInterval);
+    }
+
+    /** Mutable builder for {@link SolverConfig}. */
+    static final class Builder {
+
+      private int maximumIterations = Integer.MAX_VALUE;
+      private long timeLimitNanos = Long.MAX_VALUE;
+      private double targetNaughtiness = 0;
+      private long stagnationLimit = Long.MAX_VALUE;
+      private CancellationToken cancellationToken = CancellationToken.NONE;
+      private CostModel costModel = null;
+      private double acceptanceWithinOne = .01;
+      private double acceptanceWithinTwo = .005;
+      private long restartInterval = Long.MAX_VALUE;
+      private ProgressListener progressListener = ProgressListener.NONE;
+      private Path checkpointFile = null;
+      private Duration checkpointInterval = null;
+      private boolean verbose = true;
+
+      private Builder() {}
+
+      Builder setMaximumIterations(int maximumIterations) {
+        checkArgument(maximumIterations >= 0);
+        this.maximumIterations = maximumIterations;
+        return this;
+      }
+
+      Builder setTimeLimit(Duration timeLimit) {
+        checkArgument(!timeLimit.isNegative());
+        this.timeLimitNanos = timeLimit.toNanos();
+        return this;
+      }
+
+      /** Stop once naughtiness is at most this value. The default, 0, means "solved". */
+      Builder setTargetNaughtiness(double targetNaughtiness) {
+        checkArgument(targetNaughtiness >= 0);
+        this.targetNaughtiness = targetNaughtiness;
+        return this;
+      }
+
+      Builder setStagnationLimit(long stagnationLimit) {
+        checkArgument(stagnationLimit > 0);
+        this.stagnationLimit = stagnationLimit;
+        return this;
+      }
+
+      Builder setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = checkNotNull(cancellationToken);
+        return this;
+      }
+
+      /**
+       * Keep searching after the target naughtiness is reached, for the
+       * cheapest selection under the given model that still meets it.
+       */
+      Builder setCostModel(CostModel costModel) {
+        this.costModel = checkNotNull(costModel);
+        return this;
+      }
+
+      /**
+       * The chances of taking a step that makes things worse: by at most 1,
+       * and then, failing that, by at most 2. Steps that do not make things
+       * worse are always taken.
+       */
+      Builder setUphillAcceptance(double withinOne, double withinTwo) {
+        checkArgument(withinOne >= 0 && withinOne <= 1);
+        checkArgument(withinTwo >= 0 && withinTwo <= 1);
+        this.acceptanceWithinOne = withinOne;
+        this.acceptanceWithinTwo = withinTwo;
+        return this;
+      }
+
+      /**
+       * Start a walk again from an empty selection once it has gone this many
+       * iterations without a new low since it last started. The best
+       * selection seen is kept. Walks that minimize cost or collect solutions
+       * never restart.
+       */
+      Builder setRestartInterval(long restartInterval) {
+        checkArgument(restartInterval > 0);
+        this.restartInterval = restartInterval;
+        return this;
+      }
+
+      Builder setProgressListener(ProgressListener progressListener) {
+        this.progressListener = checkNotNull(progressListener);
+        return this;
+      }
+
+      /**
+       * Have {@link #solveWithCheckpoints} save its walk to the given file
+       * about this often, and resume from it. Several walks each get their
+       * own file, named from this one.
+       */
+      Builder setCheckpoints(Path file, Duration interval) {
+        checkArgument(!interval.isNegative() && !interval.isZero());
+        this.checkpointFile = checkNotNull(file);
+        this.checkpointInterval = interval;
+        return this;
+      }
+
+      Builder setVerbose(boolean verbose) {
+        this.verbose = verbose;
+        return this;
+      }
+
+      SolverConfig build() {
+        return new SolverConfig(this);
+      }
+    }
+  }
+
+  /** Told about each new lowest naughtiness a walk reaches. */
+  interface ProgressListener {
+
+    /** A listener that ignores everything. */
+    ProgressListener NONE = (iteration, best) -> {};
+
+    /**
+     * Called on the walk's thread, which waits for it to return. The
+     * selection is only valid during the call and must not be changed.
+     */
+    void onImprovement(long iteration, Selection best);
   }
 
+  // How often, in iterations, a walk records its counters for Flight Recorder.
+  private static final int COUNTERS_INTERVAL_MASK = (1 << 16) - 1;
+  // How often, in iterations, a checkpointed walk reads the clock to see
+  // whether a checkpoint is due.
+  private static final int CHECKPOINT_POLL_MASK = (1 << 12) - 1;
+
   private final SolverConfig solverConfig;
   private final Puzzle puzzle;
 
@@ -27,75 +287,381 @@ final class Solver {
     this.puzzle = checkNotNull(puzzle);
   }
 
-  /** Solves the puzzle, using stochastic gradient descent. */
-  Selection getBestSelection(Random random) {
-    Selection selection = new Selection(puzzle);
+  /**
+   * Solves the puzzle, using stochastic gradient descent.
+   *
+   * <p>Each step is one of the {@link MoveOperator}s, chosen by an
+   * {@link AdaptiveOperatorSelector} that favours whichever kinds of step have
+   * recently been paying off.
+   *
+   * <p>Returns the best selection seen before any of the configured limits
+   * was hit, which may not be a solution.
+   *
+   * <p>If the config has a {@link CostModel}, reaching the target naughtiness
+   * does not stop the walk. Instead it carries on among selections that still
+   * meet the target, minimizing their cost, until some other limit is hit.
+   * The cheapest such selection is returned.
+   */
+  Selection getBestSelection(RandomGenerator random) {
+    return walk(random, null, null, null, null).best;
+  }
+
+  /**
+   * Runs one walk from the given seed, with the same result as
+   * {@code getBestSelection(new SplittableRandom(seed))}, saving it to the
+   * config's checkpoint file as it goes and when it stops. If the file already
+   * holds a checkpoint of this puzzle, the walk resumes from there instead,
+   * and the result is still the same, unless a time limit or cancellation
+   * cut a walk short. Resuming a walk that had stopped returns its result
+   * straight away; the config's limits may be raised to carry it on.
+   *
+   * @throws IllegalStateException if the config has no checkpoint file
+   * @throws IllegalArgumentException if the file holds a checkpoint of another puzzle
+   */
+  Selection solveWithCheckpoints(long seed) throws IOException {
+    try {
+      return resumeWalk(new RestorableRandom(seed), getCheckpointFile());
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Runs several walks in parallel, as {@link #getBestSelection(long, int)}
+   * does and with the same result, each checkpointed as
+   * {@link #solveWithCheckpoints(long)} does to its own file: walk i to the
+   * config's checkpoint file with {@code .i} appended to its name. Walks that
+   * had stopped return their results straight away, and the others resume.
+   *
+   * @throws IllegalStateException if the config has no checkpoint file
+   * @throws IllegalArgumentException if a file holds a checkpoint of another puzzle
+   */
+  Selection solveWithCheckpoints(long rootSeed, int walkCount) throws IOException {
+    checkArgument(walkCount > 0);
+    Path file = getCheckpointFile();
+    RestorableRandom root = new RestorableRandom(rootSeed);
+    ImmutableList<RestorableRandom> randoms =
+        Stream.generate(root::split).limit(walkCount).collect(toImmutableList());
+    try {
+      return getBest(IntStream.range(0, walkCount).parallel()
+          .mapToObj(i -> resumeWalk(
+              randoms.get(i), file.resolveSibling(file.getFileName() + "." + i)))
+          .collect(toImmutableList()));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private Path getCheckpointFile() {
+    return solverConfig.getCheckpointFile()
+        .orElseThrow(() -> new IllegalStateException("No checkpoint file configured"));
+  }
+
+  // Runs a walk drawing from the given fresh generator, or resumes it from
+  // the file, checkpointing it there. Throws UncheckedIOException on failure.
+  private Selection resumeWalk(RestorableRandom fresh, Path file) {
+    long fingerprint = SolverCheckpoint.fingerprint(puzzle);
+    Optional<SolverCheckpoint> saved;
+    try {
+      saved = SolverCheckpoint.read(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    checkArgument(saved.isEmpty() || saved.get().getPuzzleFingerprint() == fingerprint,
+        "%s holds a checkpoint of another puzzle", file);
+    RestorableRandom random =
+        saved.map(checkpoint -> fresh.withState(checkpoint.getRandomState())).orElse(fresh);
+    return walk(
+            random,
+            null,
+            null,
+            saved.orElse(null),
+            new SolverCheckpoint.Writer(file, solverConfig.getCheckpointInterval(), fingerprint))
+        .best;
+  }
+
+  /**
+   * Runs one walk, as {@link #getBestSelection(RandomGenerator)} does, but
+   * starting from the cards of the given selection instead of an empty one.
+   * The selection may be of another puzzle with the same slots, such as this
+   * one over an older catalog: each card is looked up by index in this
+   * puzzle's catalog, and a slot whose card is no longer there starts empty.
+   * A restart still starts again from empty.
+   */
+  Selection getBestSelection(RandomGenerator random, Selection start) {
+    checkArgument(start.getPuzzle().getMoveSlots().equals(puzzle.getMoveSlots())
+        && start.getPuzzle().getBoostSlotCount() == puzzle.getBoostSlotCount());
+    return walk(random, null, start, null, null).best;
+  }
+
+  /**
+   * Runs one walk, as {@link #getBestSelection(RandomGenerator)} does, and
+   * returns how many iterations it took to reach the target naughtiness, or
+   * -1 if it stopped for any other reason. For comparing configurations.
+   */
+  long countIterationsToTarget(RandomGenerator random) {
+    Walk walk = walk(random, null, null, null, null);
+    return walk.reason == SearchBudget.Reason.TARGET_REACHED ? walk.iterations : -1;
+  }
+
+  /**
+   * Runs several independent walks in parallel and returns the best result:
+   * the lowest naughtiness, then the lowest cost, then the earliest walk.
+   *
+   * <p>Each walk draws from its own generator, split in order from a root
+   * generator with the given seed (see {@link #splitRandoms}), so the walks
+   * never contend on shared random state. The result depends only on the seed
+   * and the walk count, not on thread scheduling, as long as no time limit or
+   * cancellation cuts a walk short.
+   */
+  Selection getBestSelection(long rootSeed, int walkCount) {
+    checkArgument(walkCount > 0);
+    ImmutableList<Selection> results =
+        splitRandoms(rootSeed, walkCount).parallelStream()
+            .map(this::getBestSelection)
+            .collect(toImmutableList());
+    return getBest(results);
+  }
+
+  /**
+   * Returns the best of several walks' results: the lowest naughtiness, then
+   * the lowest cost, then the earliest in the list.
+   */
+  static Selection getBest(List<Selection> results) {
+    checkArgument(!results.isEmpty());
+    Comparator<Selection> quality =
+        Comparator.comparingDouble(Selection::getNaughtiness).thenComparingInt(Selection::getCost);
+    Selection best = results.get(0);
+    for (Selection result : results) {
+      if (quality.compare(result, best) < 0) {
+        best = result;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Returns independent generators for the given number of walks, split
+   * deterministically from a root generator with the given seed. The i-th
+   * generator is the same for a given seed whatever the count.
+   */
+  static ImmutableList<SplittableRandom> splitRandoms(long rootSeed, int count) {
+    SplittableRandom root = new SplittableRandom(rootSeed);
+    return Stream.generate(root::split).limit(count).collect(toImmutableList());
+  }
+
+  /**
+   * Keeps walking after the puzzle is first solved, offering every solved
+   * state it visits to the given pool. Sideways steps between solutions are
+   * always accepted so the walk drifts through the space of solutions rather
+   * than sitting on the first one. The walk is never restarted; it stops only
+   * when the iteration, time or stagnation limit is hit or it is cancelled. A
+   * new pool entry counts as progress for the stagnation limit.
+   *
+   * <p>Returns the best selection seen, as {@link #getBestSelection} does.
+   */
+  Selection collectDistinctSelections(RandomGenerator random, SolutionPool pool) {
+    return walk(random, checkNotNull(pool), null, null, null).best;
+  }
+
+  // The outcome of one walk.
+  private static final class Walk {
+    final Selection best;
+    final long iterations;
+    final SearchBudget.Reason reason;
+
+    Walk(Selection best, long iterations, SearchBudget.Reason reason) {
+      this.best = best;
+      this.iterations = iterations;
+      this.reason = reason;
+    }
+  }
+
+  // Walks from an empty selection, or the given start, or the given saved
+  // state. With a checkpoint writer, the generator must be a RestorableRandom.
+  private Walk walk(
+      RandomGenerator random,
+      SolutionPool pool,
+      Selection start,
+      SolverCheckpoint saved,
+      SolverCheckpoint.Writer checkpoints) {
+    SolverEvents.Solve solveEvent = new SolverEvents.Solve();
+    solveEvent.begin();
+    SearchBudget budget = new SearchBudget(solverConfig);
+    double target = solverConfig.getTargetNaughtiness();
+    boolean minimizeCost = pool == null && solverConfig.getCostModel().isPresent();
+    Selection selection = new Selection(puzzle, solverConfig.getCostModel().orElse(CostModel.DEFAULT));
+    Neighbourhood neighbourhood = new Neighbourhood(puzzle);
+    AdaptiveOperatorSelector operators = new AdaptiveOperatorSelector();
+    if (start != null) {
+      for (int slot = 0; slot < puzzle.getSlotCount(); ++slot) {
+        Card card = start.getCard(slot);
+        selection.setCard(slot, card == null ? null : puzzle.getCatalog().getCard(card.getIndex()));
+      }
+    }
+    if (saved != null) {
+      saved.restoreCurrent(selection);
+    }
 
     Selection bestEver = new Selection(selection);
     double lowestEverNaughtiness = bestEver.getNaughtiness();
 
+    // Once the target is reached while minimizing cost, the walk only moves
+    // between selections that still meet the target, and judges them by cost.
+    boolean minimizingCost = false;
+    int oldCost = selection.getCost();
+    int lowestEverCost = Integer.MAX_VALUE;
+
     double oldNaughtiness = selection.getNaughtiness();
-    for (int grind = 0; grind < solverConfig.maximumIterations && !selection.isSolved(); ++grind) {
-      // Put a random card in a random slot.
-      // TODO: support selecting null as newCard.
-      int targetIndex = random.nextInt(puzzle.getSlotCount());
-      MoveCard newMove, oldMove;
-      BoostCard newBoost, oldBoost;
-      int subIndex;
-      if (targetIndex < puzzle.getStrikingSlotCount()) {
-        subIndex = targetIndex;
-        newMove = selection.getRandomUnused(puzzle.getStrikingCards(), random);
-        oldMove = selection.setStriking(targetIndex, newMove);
-        newBoost = oldBoost = null;
-      } else if (targetIndex < puzzle.getMoveSlotCount()) {
-        subIndex = targetIndex - puzzle.getStrikingSlotCount();
-        newMove = selection.getRandomUnused(puzzle.getGrapplingCards(), random);
-        oldMove = selection.setGrappling(subIndex, newMove);
-        newBoost = oldBoost = null;
-      } else {
-        subIndex = targetIndex - puzzle.getMoveSlotCount();
-        newMove = oldMove = null;
-        newBoost = selection.getRandomUnused(puzzle.getBoostCards(), random);
-        oldBoost = selection.setBoost(subIndex, newBoost);
+    long accepted = 0;
+
+    // A restart is due once the walk has gone the interval without a new low
+    // since it last (re)started.
+    boolean mayRestart = pool == null && !minimizeCost
+        && solverConfig.getRestartInterval() != Long.MAX_VALUE;
+    double lowestSinceRestart = oldNaughtiness;
+    long lastLowSinceRestart = 0;
+
+    int grind = 0;
+    if (saved != null) {
+      bestEver.reset();
+      saved.restoreBest(bestEver);
+      lowestEverNaughtiness = saved.getLowestEverNaughtiness();
+      minimizingCost = saved.isMinimizingCost();
+      lowestEverCost = saved.getLowestEverCost();
+      accepted = saved.getAccepted();
+      lowestSinceRestart = saved.getLowestSinceRestart();
+      lastLowSinceRestart = saved.getLastLowSinceRestart();
+      operators.setQualities(saved.getOperatorQualities());
+      grind = saved.getIteration();
+    }
+    budget.recordBest(0, lowestEverNaughtiness);
+    if (saved != null) {
+      budget.recordProgress(saved.getLastProgressIteration());
+    }
+
+    for (; ; ++grind) {
+      boolean exhausted = pool != null || minimizeCost
+          ? budget.isExhausted(grind)
+          : budget.isExhausted(grind, oldNaughtiness);
+      if (checkpoints != null
+          && (exhausted || ((grind & CHECKPOINT_POLL_MASK) == 0 && checkpoints.isDue()))) {
+        SolverCheckpoint checkpoint = new SolverCheckpoint(
+            checkpoints.getPuzzleFingerprint(),
+            grind,
+            ((RestorableRandom) random).getState(),
+            selection,
+            bestEver,
+            lowestEverNaughtiness,
+            minimizingCost,
+            lowestEverCost,
+            accepted,
+            lowestSinceRestart,
+            lastLowSinceRestart,
+            budget.getLastProgressIteration(),
+            operators.getQualities());
+        if (exhausted) {
+          checkpoints.finish(checkpoint);
+        } else {
+          checkpoints.offer(checkpoint);
+        }
       }
+      if (exhausted) {
+        break;
+      }
+      if ((grind & COUNTERS_INTERVAL_MASK) == 0) {
+        SolverEvents.counters(grind, accepted, oldNaughtiness, lowestEverNaughtiness);
+      }
+      if (mayRestart && grind - lastLowSinceRestart >= solverConfig.getRestartInterval()) {
+        selection.reset();
+        oldNaughtiness = selection.getNaughtiness();
+        oldCost = selection.getCost();
+        lowestSinceRestart = oldNaughtiness;
+        lastLowSinceRestart = grind;
+        SolverEvents.restart(grind, lowestEverNaughtiness);
+      }
+      if (minimizeCost && !minimizingCost && oldNaughtiness <= target) {
+        minimizingCost = true;
+        lowestEverCost = oldCost;
+        bestEver.copyFrom(selection);
+        budget.recordProgress(grind);
+      }
+
+      // Take a step, choosing the kind of step adaptively.
+      MoveOperator operator = neighbourhood.apply(operators.select(random), selection, random);
 
       // Evaluate the new fitness against the old one.
       double newNaughtiness = selection.getNaughtiness();
+      int newCost = selection.getCost();
       boolean newLowestEver = newNaughtiness < lowestEverNaughtiness;
-      boolean accept = accept(oldNaughtiness, newNaughtiness, random);
+      boolean accept;
+      if (minimizingCost) {
+        accept = newNaughtiness <= target
+            && (newCost <= oldCost || accept(oldCost, newCost, random));
+      } else {
+        accept = accept(oldNaughtiness, newNaughtiness, random)
+            || (pool != null && newNaughtiness <= target && oldNaughtiness <= target);
+      }
 
       // Print some progress info.
-      if (newLowestEver) {
-        Card oldCard = oldMove == null ? oldBoost : oldMove;
-        Card newCard = newMove == null ? newBoost : newMove;
-        System.out.printf("%08d: %8.5g [%s]    [%-49s] -> [%-49s]    [%s]%n",
+      if (newLowestEver && solverConfig.isVerbose()) {
+        System.out.printf("%08d: %8.5g [%s]    %-14s    [%s]%n",
             grind,
             newNaughtiness,
             selection,
-            oldCard == null ? "                  " : oldCard,
-            newCard == null ? "                  " : newCard,
+            operator,
             selection.getDescription());
       }
 
       // If we like the new state, stick with it. Otherwise roll it back.
       if (accept) {
+        ++accepted;
+        operators.reward(
+            operator, minimizingCost ? oldCost - newCost : oldNaughtiness - newNaughtiness);
         oldNaughtiness = newNaughtiness;
+        oldCost = newCost;
+        if (newNaughtiness < lowestSinceRestart) {
+          lowestSinceRestart = newNaughtiness;
+          lastLowSinceRestart = grind;
+        }
         if (newNaughtiness < lowestEverNaughtiness) {
           lowestEverNaughtiness = newNaughtiness;
-          bestEver = new Selection(selection);
+          if (!minimizingCost) {
+            bestEver.copyFrom(selection);
+          }
+          budget.recordBest(grind, newNaughtiness);
+          SolverEvents.improvement(grind, newNaughtiness, newCost);
+          solverConfig.getProgressListener().onImprovement(grind, selection);
         }
-      } else {
-        if (targetIndex < puzzle.getStrikingSlotCount()) {
-          selection.setStriking(subIndex, oldMove);
-        } else if (targetIndex < puzzle.getMoveSlotCount()) {
-          selection.setGrappling(subIndex, oldMove);
-        } else {
-          selection.setBoost(subIndex, oldBoost);
+        if (minimizingCost && newCost < lowestEverCost) {
+          lowestEverCost = newCost;
+          bestEver.copyFrom(selection);
+          budget.recordProgress(grind);
+          if (solverConfig.isVerbose()) {
+            System.out.printf("%08d: cost %5d [%s]%n", grind, newCost, selection.getDescription());
+          }
         }
+        if (pool != null && newNaughtiness <= target && pool.offer(selection)) {
+          budget.recordProgress(grind);
+        }
+      } else {
+        operators.reward(operator, 0);
+        neighbourhood.undo(selection);
       }
     }
 
-    return bestEver;
+    if (solverConfig.isVerbose()) {
+      System.out.printf("Stopped after %d iterations: %s%n", grind, budget.getReason());
+    }
+    if (solveEvent.shouldCommit()) {
+      solveEvent.slotCount = puzzle.getSlotCount();
+      solveEvent.iterations = grind;
+      solveEvent.bestNaughtiness = bestEver.getNaughtiness();
+      solveEvent.bestCost = bestEver.getCost();
+      solveEvent.reason = String.valueOf(budget.getReason());
+      solveEvent.commit();
+    }
+    return new Walk(bestEver, grind, budget.getReason());
   }
 
   /**
@@ -104,11 +670,11 @@ final class Solver {
    * <p>Downhill steps are always allowed; uphill steps are allowed with some probability.
    */
   // TODO: puzzle hard-coding (might be too rigid).
-  private static boolean accept(double oldNaughtiness, double newNaughtiness, Random random) {
+  private boolean accept(double oldNaughtiness, double newNaughtiness, RandomGenerator random) {
     double worseness = newNaughtiness - oldNaughtiness;
 
     return (worseness < 0) ||
-           (worseness <= 1 && random.nextDouble() < .01) ||
-           (worseness <= 2 && random.nextDouble() < .005);
+           (worseness <= 1 && random.nextDouble() < solverConfig.getAcceptanceWithinOne()) ||
+           (worseness <= 2 && random.nextDouble() < solverConfig.getAcceptanceWithinTwo());
   }
 }
@@ -0,0 +1,376 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.hash.Hashing;
+
+import javax.annotation.concurrent.Immutable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Everything a {@link Solver} walk needs to carry on exactly where it left
+ * off: the iteration, the generator's state, the current and best selections
+ * as card indexes, and the walk's counters and operator qualities. The
+ * walk's acceptance probabilities are fixed by its config, so there is no
+ * temperature to save.
+ *
+ * <p>A checkpoint is a few hundred bytes. It records a fingerprint of the
+ * puzzle and its cards, so it is never resumed against a different puzzle.
+ */
+@Immutable
+final class SolverCheckpoint {
+
+  private static final int MAGIC = 0x55464331;  // "UFC1"
+
+  private final long puzzleFingerprint;
+  private final int iteration;
+  private final long randomState;
+  private final int[] current;
+  private final int[] best;
+  private final double lowestEverNaughtiness;
+  private final boolean minimizingCost;
+  private final int lowestEverCost;
+  private final long accepted;
+  private final double lowestSinceRestart;
+  private final long lastLowSinceRestart;
+  private final long lastProgressIteration;
+  private final double[] operatorQualities;
+
+  SolverCheckpoint(
+      long puzzleFingerprint,
+      int iteration,
+      long randomState,
+      Selection current,
+      Selection best,
+      double lowestEverNaughtiness,
+      boolean minimizingCost,
+      int lowestEverCost,
+      long accepted,
+      double lowestSinceRestart,
+      long lastLowSinceRestart,
+      long lastProgressIteration,
+      double[] operatorQualities) {
+    this(
+        puzzleFingerprint,
+        iteration,
+        randomState,
+        toIndexes(current),
+        toIndexes(best),
+        lowestEverNaughtiness,
+        minimizingCost,
+        lowestEverCost,
+        accepted,
+        lowestSinceRestart,
+        lastLowSinceRestart,
+        lastProgressIteration,
+        operatorQualities.clone());
+  }
+
+  private SolverCheckpoint(
+      long puzzleFingerprint,
+      int iteration,
+      long randomState,
+      int[] current,
+      int[] best,
+      double lowestEverNaughtiness,
+      boolean minimizingCost,
+      int lowestEverCost,
+      long accepted,
+      double lowestSinceRestart,
+      long lastLowSinceRestart,
+      long lastProgressIteration,
+      double[] operatorQualities) {
+    this.puzzleFingerprint = puzzleFingerprint;
+    this.iteration = iteration;
+    this.randomState = randomState;
+    this.current = current;
+    this.best = best;
+    this.lowestEverNaughtiness = lowestEverNaughtiness;
+    this.minimizingCost = minimizingCost;
+    this.lowestEverCost = lowestEverCost;
+    this.accepted = accepted;
+    this.lowestSinceRestart = lowestSinceRestart;
+    this.lastLowSinceRestart = lastLowSinceRestart;
+    this.lastProgressIteration = lastProgressIteration;
+    this.operatorQualities = operatorQualities;
+  }
+
+  /** A fingerprint of the puzzle's slots, constraints and cards. */
+  static long fingerprint(Puzzle puzzle) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      PuzzleBinary.writePuzzle(out, puzzle);
+      PuzzleBinary.writeCards(out, puzzle.getCatalog());
+    } catch (IOException e) {
+      throw new AssertionError(e);  // Writing to memory cannot fail.
+    }
+    return Hashing.farmHashFingerprint64().hashBytes(bytes.toByteArray()).asLong();
+  }
+
+  long getPuzzleFingerprint() {
+    return puzzleFingerprint;
+  }
+
+  /** The iteration the walk was about to start. */
+  int getIteration() {
+    return iteration;
+  }
+
+  /** The generator's state; see {@link RestorableRandom#getState}. */
+  long getRandomState() {
+    return randomState;
+  }
+
+  /** Puts the cards of the current selection into the given empty one. */
+  void restoreCurrent(Selection selection) {
+    restore(current, selection);
+  }
+
+  /** Puts the cards of the best selection into the given empty one. */
+  void restoreBest(Selection selection) {
+    restore(best, selection);
+  }
+
+  double getLowestEverNaughtiness() {
+    return lowestEverNaughtiness;
+  }
+
+  boolean isMinimizingCost() {
+    return minimizingCost;
+  }
+
+  int getLowestEverCost() {
+    return lowestEverCost;
+  }
+
+  long getAccepted() {
+    return accepted;
+  }
+
+  double getLowestSinceRestart() {
+    return lowestSinceRestart;
+  }
+
+  long getLastLowSinceRestart() {
+    return lastLowSinceRestart;
+  }
+
+  long getLastProgressIteration() {
+    return lastProgressIteration;
+  }
+
+  double[] getOperatorQualities() {
+    return operatorQualities.clone();
+  }
+
+  private static int[] toIndexes(Selection selection) {
+    int[] indexes = new int[selection.getPuzzle().getSlotCount()];
+    for (int slot = 0; slot < indexes.length; ++slot) {
+      Card card = selection.getCard(slot);
+      indexes[slot] = card == null ? -1 : card.getIndex();
+    }
+    return indexes;
+  }
+
+  private static void restore(int[] indexes, Selection selection) {
+    CardCatalog catalog = selection.getPuzzle().getCatalog();
+    for (int slot = 0; slot < indexes.length; ++slot) {
+      selection.setCard(slot, indexes[slot] < 0 ? null : catalog.getCard(indexes[slot]));
+    }
+  }
+
+  private byte[] toBytes() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(MAGIC);
+      out.writeLong(puzzleFingerprint);
+      out.writeInt(iteration);
+      out.writeLong(randomState);
+      writeIndexes(out, current);
+      writeIndexes(out, best);
+      out.writeDouble(lowestEverNaughtiness);
+      out.writeBoolean(minimizingCost);
+      out.writeInt(lowestEverCost);
+      out.writeLong(accepted);
+      out.writeDouble(lowestSinceRestart);
+      out.writeLong(lastLowSinceRestart);
+      out.writeLong(lastProgressIteration);
+      out.writeByte(operatorQualities.length);
+      for (double quality : operatorQualities) {
+        out.writeDouble(quality);
+      }
+    } catch (IOException e) {
+      throw new AssertionError(e);  // Writing to memory cannot fail.
+    }
+    return bytes.toByteArray();
+  }
+
+  /** Reads the checkpoint in the given file, or nothing if there is no such file. */
+  static Optional<SolverCheckpoint> read(Path file) throws IOException {
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(file);
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    }
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException(file + " is not a solver checkpoint");
+      }
+      long puzzleFingerprint = in.readLong();
+      int iteration = in.readInt();
+      long randomState = in.readLong();
+      int[] current = readIndexes(in);
+      int[] best = readIndexes(in);
+      double lowestEverNaughtiness = in.readDouble();
+      boolean minimizingCost = in.readBoolean();
+      int lowestEverCost = in.readInt();
+      long accepted = in.readLong();
+      double lowestSinceRestart = in.readDouble();
+      long lastLowSinceRestart = in.readLong();
+      long lastProgressIteration = in.readLong();
+      double[] operatorQualities = new double[in.readUnsignedByte()];
+      for (int i = 0; i < operatorQualities.length; ++i) {
+        operatorQualities[i] = in.readDouble();
+      }
+      return Optional.of(new SolverCheckpoint(
+          puzzleFingerprint,
+          iteration,
+          randomState,
+          current,
+          best,
+          lowestEverNaughtiness,
+          minimizingCost,
+          lowestEverCost,
+          accepted,
+          lowestSinceRestart,
+          lastLowSinceRestart,
+          lastProgressIteration,
+          operatorQualities));
+    }
+  }
+
+  private static void writeIndexes(DataOutputStream out, int[] indexes) throws IOException {
+    out.writeByte(indexes.length);
+    for (int index : indexes) {
+      out.writeInt(index);
+    }
+  }
+
+  private static int[] readIndexes(DataInputStream in) throws IOException {
+    int[] indexes = new int[in.readUnsignedByte()];
+    for (int i = 0; i < indexes.length; ++i) {
+      indexes[i] = in.readInt();
+    }
+    return indexes;
+  }
+
+  /**
+   * Writes one walk's checkpoints to a file, replacing it atomically each time
+   * so that a crash leaves either the old checkpoint or the new one.
+   *
+   * <p>Periodic checkpoints are written on a background thread shared by all
+   * walks; if a walk offers a new one before the last is written, only the
+   * newest is. The final checkpoint is written on the walk's own thread.
+   */
+  static final class Writer {
+
+    private static final ExecutorService BACKGROUND = Executors.newSingleThreadExecutor(task -> {
+      Thread thread = new Thread(task, "SolverCheckpoint writer");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    private final Path file;
+    private final long intervalNanos;
+    private final long puzzleFingerprint;
+    private final AtomicReference<SolverCheckpoint> pending = new AtomicReference<>();
+    private long lastOfferNanos;
+    private int writtenIteration = -1;  // Guarded by this.
+
+    /** @param puzzleFingerprint the {@link #fingerprint} of the walk's puzzle */
+    Writer(Path file, Duration interval, long puzzleFingerprint) {
+      this.file = checkNotNull(file);
+      this.intervalNanos = interval.toNanos();
+      this.puzzleFingerprint = puzzleFingerprint;
+      this.lastOfferNanos = System.nanoTime();
+    }
+
+    long getPuzzleFingerprint() {
+      return puzzleFingerprint;
+    }
+
+    /** Whether the interval has passed since the last checkpoint was offered. */
+    boolean isDue() {
+      return System.nanoTime() - lastOfferNanos >= intervalNanos;
+    }
+
+    /** Queues the checkpoint to be written in the background. */
+    void offer(SolverCheckpoint checkpoint) {
+      lastOfferNanos = System.nanoTime();
+      if (pending.getAndSet(checkpoint) == null) {
+        BACKGROUND.execute(() -> {
+          try {
+            write(pending.getAndSet(null));
+          } catch (IOException e) {
+            // Leave the last checkpoint in place; the final one is written
+            // in the foreground and reports its failure.
+          }
+        });
+      }
+    }
+
+    /**
+     * Writes the walk's final checkpoint now.
+     *
+     * @throws UncheckedIOException if it cannot be written
+     */
+    void finish(SolverCheckpoint checkpoint) {
+      try {
+        write(checkpoint);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    // Writes to a temporary file, flushes it to disk, and renames it over
+    // the checkpoint, unless a later checkpoint is there already.
+    private synchronized void write(SolverCheckpoint checkpoint) throws IOException {
+      if (checkpoint.iteration < writtenIteration) {
+        return;
+      }
+      Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+      try (FileChannel channel = FileChannel.open(
+          temporary,
+          StandardOpenOption.WRITE,
+          StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING)) {
+        ByteBuffer buffer = ByteBuffer.wrap(checkpoint.toBytes());
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        channel.force(true);
+      }
+      Files.move(
+          temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      writtenIteration = checkpoint.iteration;
+    }
+  }
+}
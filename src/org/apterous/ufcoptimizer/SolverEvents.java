@@ -0,0 +1,164 @@
+package org.apterous.ufcoptimizer;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for card loading, puzzle construction and
+ * solving, so that solver progress can be lined up with GC, allocation and
+ * JIT activity in a recording.
+ *
+ * <p>Record with, for example,
+ * {@code -XX:StartFlightRecording:filename=solve.jfr}, and read with
+ * {@code jfr print --categories ufcoptimizer solve.jfr} or JDK Mission
+ * Control. When no recording is running the events are never committed,
+ * and creating one that is not committed costs next to nothing.
+ */
+final class SolverEvents {
+
+  private static final String CATEGORY = "ufcoptimizer";
+
+  @Name("org.apterous.ufcoptimizer.CardLoad")
+  @Label("Card Load")
+  @Description("Parsing the move and boost card files")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static final class CardLoad extends Event {
+    @Label("Move File")
+    String moveFile;
+
+    @Label("Boost File")
+    String boostFile;
+
+    @Label("Moves")
+    int moveCount;
+
+    @Label("Boosts")
+    int boostCount;
+  }
+
+  @Name("org.apterous.ufcoptimizer.PuzzleConstruction")
+  @Label("Puzzle Construction")
+  @Description("Building a puzzle and its chemistry table")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static final class PuzzleConstruction extends Event {
+    @Label("Move Slots")
+    int moveSlotCount;
+
+    @Label("Boost Slots")
+    int boostSlotCount;
+
+    @Label("Cards")
+    int cardCount;
+  }
+
+  @Name("org.apterous.ufcoptimizer.Solve")
+  @Label("Solve")
+  @Description("One walk of the solver, from start to finish")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static final class Solve extends Event {
+    @Label("Slots")
+    int slotCount;
+
+    @Label("Iterations")
+    long iterations;
+
+    @Label("Best Naughtiness")
+    double bestNaughtiness;
+
+    @Label("Best Cost")
+    int bestCost;
+
+    @Label("Stop Reason")
+    String reason;
+  }
+
+  @Name("org.apterous.ufcoptimizer.Improvement")
+  @Label("Improvement")
+  @Description("The solver reaching a new lowest naughtiness")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static final class Improvement extends Event {
+    @Label("Iteration")
+    long iteration;
+
+    @Label("Naughtiness")
+    double naughtiness;
+
+    @Label("Cost")
+    int cost;
+  }
+
+  @Name("org.apterous.ufcoptimizer.Restart")
+  @Label("Restart")
+  @Description("A solver walk starting again from an empty selection")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static final class Restart extends Event {
+    @Label("Iteration")
+    long iteration;
+
+    @Label("Best Naughtiness")
+    double bestNaughtiness;
+  }
+
+  @Name("org.apterous.ufcoptimizer.SolverCounters")
+  @Label("Solver Counters")
+  @Description("A periodic snapshot of a solver walk's progress")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static final class Counters extends Event {
+    @Label("Iteration")
+    long iteration;
+
+    @Label("Accepted Steps")
+    long accepted;
+
+    @Label("Naughtiness")
+    double naughtiness;
+
+    @Label("Best Naughtiness")
+    double bestNaughtiness;
+  }
+
+  /** Records a new lowest naughtiness, if a recording wants it. */
+  static void improvement(long iteration, double naughtiness, int cost) {
+    Improvement event = new Improvement();
+    if (event.shouldCommit()) {
+      event.iteration = iteration;
+      event.naughtiness = naughtiness;
+      event.cost = cost;
+      event.commit();
+    }
+  }
+
+  /** Records a walk restarting, if a recording wants it. */
+  static void restart(long iteration, double bestNaughtiness) {
+    Restart event = new Restart();
+    if (event.shouldCommit()) {
+      event.iteration = iteration;
+      event.bestNaughtiness = bestNaughtiness;
+      event.commit();
+    }
+  }
+
+  /** Records a snapshot of a walk's counters, if a recording wants it. */
+  static void counters(long iteration, long accepted, double naughtiness, double bestNaughtiness) {
+    Counters event = new Counters();
+    if (event.shouldCommit()) {
+      event.iteration = iteration;
+      event.accepted = accepted;
+      event.naughtiness = naughtiness;
+      event.bestNaughtiness = bestNaughtiness;
+      event.commit();
+    }
+  }
+
+  private SolverEvents() {}  // Not for instantiation.
+}
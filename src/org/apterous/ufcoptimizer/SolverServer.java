@@ -0,0 +1,264 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+/**
+ * A long-running solver that keeps the card pool loaded and the JIT warm, and
+ * solves puzzles posted to it over HTTP on the loopback interface.
+ *
+ * <ul>
+ * <li>{@code POST /solve} takes a puzzle in the form described by
+ * {@link PuzzleJson} and returns the best selection found. A puzzle that
+ * fails the {@link Feasibility} check is refused with HTTP 422 and the
+ * constraints that cannot be met, without queueing a solve.
+ * <li>{@code GET /health} returns the number of queued and running solves.
+ * </ul>
+ *
+ * <p>Solves run on a fixed pool of threads with a bounded queue; each of a
+ * request's walks is a separate task on it. When the queue is full new
+ * requests are refused straight away with HTTP 503, rather than piling up and
+ * blowing every caller's latency budget. Request bodies, walk counts,
+ * iteration limits and time limits are capped, so that one request cannot
+ * take the server down for everyone else, and a request that is refused or
+ * fails part way cancels any of its walks still running.
+ */
+final class SolverServer {
+
+  private static final int DEFAULT_ITERATIONS = 1_000_000;
+  private static final int WARM_UP_ITERATIONS = 200_000;
+  private static final int MAX_ITERATIONS = 100_000_000;
+  private static final int MAX_WALKS = 64;
+  private static final Duration MAX_TIME_LIMIT = Duration.ofMinutes(1);
+  private static final int MAX_REQUEST_BYTES = 1 << 20;
+
+  private final Supplier<CardCatalog> cards;
+  private final HttpServer httpServer;
+  private final ExecutorService httpExecutor;
+  private final ThreadPoolExecutor solveExecutor;
+
+  /**
+   * Creates a server listening on the given loopback port (0 to pick a free
+   * one). It does not accept requests until {@link #start()}. Each request is
+   * solved over whatever snapshot the supplier gives at the time, so a
+   * {@link CardCatalogWatcher} can swap in new cards without a restart.
+   */
+  SolverServer(Supplier<CardCatalog> cards, int port, int solveThreads, int queueCapacity)
+      throws IOException {
+    checkArgument(solveThreads > 0);
+    checkArgument(queueCapacity > 0);
+    this.cards = checkNotNull(cards);
+    this.solveExecutor =
+        new ThreadPoolExecutor(
+            solveThreads, solveThreads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity));
+    // Request threads only parse, wait and reply; the solve pool is the real limit.
+    this.httpExecutor = Executors.newCachedThreadPool();
+    this.httpServer =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    httpServer.setExecutor(httpExecutor);
+    httpServer.createContext("/solve", this::handleSolve);
+    httpServer.createContext("/health", this::handleHealth);
+  }
+
+  /** Warms up the solver's hot paths and then starts accepting requests. */
+  void start() {
+    warmUp();
+    httpServer.start();
+  }
+
+  /** Stops accepting requests, waiting briefly for in-flight ones to finish. */
+  void stop() {
+    httpServer.stop(1);
+    solveExecutor.shutdownNow();
+    httpExecutor.shutdownNow();
+  }
+
+  /** The port the server is listening on. */
+  int getPort() {
+    return httpServer.getAddress().getPort();
+  }
+
+  // Runs an unsatisfiable puzzle for a while, so that the first real request
+  // does not pay for interpretation and compilation of the solver loop.
+  private void warmUp() {
+    ImmutableMap.Builder<Skill, Integer> initialSkill = ImmutableMap.builder();
+    for (Skill skill : Skill.values()) {
+      initialSkill.put(skill, 70);
+    }
+    Puzzle puzzle =
+        new Puzzle(
+            cards.get(),
+            Weight.BW,
+            Style.BALANCED,
+            ImmutableMultiset.<MoveType>builder()
+                .addCopies(MoveType.ARM, 3)
+                .addCopies(MoveType.LEG, 3)
+                .addCopies(MoveType.CLINCH, 2)
+                .addCopies(MoveType.TAKEDOWN, 2)
+                .addCopies(MoveType.SUBMISSION, 2)
+                .addCopies(MoveType.GROUND, 2)
+                .build(),
+            6,
+            ImmutableMap.of(),
+            ImmutableMap.of(SummarySkill.CHEMISTRY, RangeConstraint.min(Integer.MAX_VALUE)),
+            ImmutableMap.of(),
+            ImmutableMap.of(),
+            initialSkill.build());
+    new Solver(
+            Solver.SolverConfig.builder()
+                .setMaximumIterations(WARM_UP_ITERATIONS)
+                .setVerbose(false)
+                .build(),
+            puzzle)
+        .getBestSelection(new SplittableRandom(0));
+  }
+
+  private void handleSolve(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      try {
+        solve(exchange);
+      } catch (RuntimeException e) {
+        reply(exchange, 500, error(String.valueOf(e)));
+      }
+    }
+  }
+
+  private void solve(HttpExchange exchange) throws IOException {
+    if (!exchange.getRequestMethod().equals("POST")) {
+      reply(exchange, 405, error("Use POST"));
+      return;
+    }
+
+    long startNanos = System.nanoTime();
+    Map<String, Object> request;
+    Puzzle puzzle;
+    CancellationToken token = new CancellationToken();
+    Solver.SolverConfig config;
+    long seed;
+    int walks;
+    try (InputStream body = exchange.getRequestBody()) {
+      byte[] bytes = body.readNBytes(MAX_REQUEST_BYTES + 1);
+      if (bytes.length > MAX_REQUEST_BYTES) {
+        reply(exchange, 413, error("Request is over " + MAX_REQUEST_BYTES + " bytes"));
+        return;
+      }
+      request = PuzzleJson.asObject(Json.parse(new String(bytes, StandardCharsets.UTF_8)));
+      puzzle = PuzzleJson.readPuzzle(request, cards.get());
+      config =
+          PuzzleJson.readConfig(request, DEFAULT_ITERATIONS, MAX_TIME_LIMIT)
+              .setCancellationToken(token)
+              .build();
+      checkArgument(
+          config.getMaximumIterations() <= MAX_ITERATIONS,
+          "'maximumIterations' must be at most %s", MAX_ITERATIONS);
+      seed = request.containsKey("seed") ? PuzzleJson.toLong(request.get("seed")) : 0;
+      walks = request.containsKey("walks") ? PuzzleJson.toInt(request.get("walks")) : 1;
+      checkArgument(
+          walks > 0 && walks <= MAX_WALKS, "'walks' must be between 1 and %s", MAX_WALKS);
+    } catch (IllegalArgumentException e) {
+      reply(exchange, 400, error(e.getMessage()));
+      return;
+    }
+
+    Feasibility feasibility = puzzle.getFeasibility();
+    if (!feasibility.isFeasible()) {
+      Map<String, Object> response = error("Puzzle cannot be solved");
+      response.put("blockers", feasibility.getBlockers().stream()
+          .map(Feasibility.Blocker::toString)
+          .collect(toImmutableList()));
+      reply(exchange, 422, response);
+      return;
+    }
+
+    // The same generators as Solver.getBestSelection(seed, walks), so the
+    // result does not depend on where the walks run.
+    Solver solver = new Solver(config, puzzle);
+    List<Future<Selection>> solutions = new ArrayList<>();
+    Map<String, Object> response;
+    try {
+      try {
+        for (SplittableRandom random : Solver.splitRandoms(seed, walks)) {
+          solutions.add(solveExecutor.submit(() -> solver.getBestSelection(random)));
+        }
+      } catch (RejectedExecutionException e) {
+        reply(exchange, 503, error("Too many pending solves"));
+        return;
+      }
+
+      List<Selection> results = new ArrayList<>();
+      for (Future<Selection> solution : solutions) {
+        results.add(solution.get());
+      }
+      response = PuzzleJson.writeSelection(puzzle, Solver.getBest(results));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      reply(exchange, 503, error("Interrupted"));
+      return;
+    } catch (ExecutionException e) {
+      reply(exchange, 500, error(String.valueOf(e.getCause())));
+      return;
+    } finally {
+      // The walks only stop at the token; on success they are all done anyway.
+      token.cancel();
+      solutions.forEach(solution -> solution.cancel(false));
+      solveExecutor.purge();
+    }
+    response.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    reply(exchange, 200, response);
+  }
+
+  private void handleHealth(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      Map<String, Object> response = new LinkedHashMap<>();
+      response.put("running", solveExecutor.getActiveCount());
+      response.put("queued", solveExecutor.getQueue().size());
+      response.put("queueCapacity", solveExecutor.getQueue().remainingCapacity() + solveExecutor.getQueue().size());
+      reply(exchange, 200, response);
+    }
+  }
+
+  private static Map<String, Object> error(String message) {
+    Map<String, Object> response = new LinkedHashMap<>();
+    response.put("error", message);
+    return response;
+  }
+
+  private static void reply(HttpExchange exchange, int status, Map<String, Object> response)
+      throws IOException {
+    byte[] body = Json.write(response).getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+}
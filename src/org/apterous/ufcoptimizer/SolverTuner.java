@@ -0,0 +1,312 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Measures which {@link Solver.SolverConfig} settings solve puzzles fastest,
+ * and recommends one per class of puzzle difficulty.
+ *
+ * <p>Usage: {@code SolverTuner MOVES.csv BOOSTS.csv [GENERATED]}. The corpus
+ * is the puzzles hard-coded in {@link Main} plus GENERATED (by default 24)
+ * random ones, each over a random three quarters of the cards. A generated
+ * puzzle's constraints are read off a selection the solver found, loosened a
+ * little, so it is always solvable.
+ *
+ * <p>Each puzzle is first classed as easy, medium or hard by how many
+ * iterations the default settings take on it. Then, for each class, the
+ * candidate settings race: all of them run on a block of (puzzle, seed)
+ * instances, and any whose mean cost is clearly worse than the leader's,
+ * paired instance by instance, is dropped before the next block. A walk
+ * costs the iterations it took to solve, or twice the tuning budget if it did
+ * not. Iterations rather than time are measured, so results can be
+ * reproduced on a busy machine; an iteration costs about the same whatever
+ * the settings. Walks run in parallel on every core.
+ */
+final class SolverTuner {
+
+  enum Difficulty {
+    EASY,
+    MEDIUM,
+    HARD,
+  }
+
+  private static final int TUNING_BUDGET = 200_000;
+  private static final int SEEDS_PER_PUZZLE = 4;
+  private static final int DEFAULT_GENERATED = 24;
+  // Instances run between eliminations.
+  private static final int BLOCK_SIZE = 8;
+  // How many standard errors worse than the leader a candidate must be to
+  // be dropped.
+  private static final double ELIMINATION_THRESHOLD = 2.0;
+  private static final int EASY_BELOW = 20_000;
+  private static final int MEDIUM_BELOW = 100_000;
+  // A constraint minimum that no selection meets.
+  private static final int UNREACHABLE = 1_000;
+
+  private static final double[][] ACCEPTANCES = {
+      {.002, .001}, {.01, .005}, {.03, .01}, {.1, .03}, {.3, .1},
+  };
+  private static final long[] RESTART_INTERVALS = {Long.MAX_VALUE, 100_000, 20_000};
+
+  public static void main(String[] args) throws IOException {
+    CardCatalog catalog =
+        CardCatalog.of(
+            new CardFileParser(
+                    FileSystems.getDefault().getPath(args[0]),
+                    FileSystems.getDefault().getPath(args[1]))
+                .load());
+    int generated = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_GENERATED;
+
+    List<Puzzle> corpus = new ArrayList<>(Main.getExamplePuzzles(catalog));
+    SplittableRandom random = new SplittableRandom(0);
+    for (int i = 0; i < generated; ++i) {
+      corpus.add(generatePuzzle(catalog, random));
+    }
+    corpus.removeIf(puzzle -> !puzzle.getFeasibility().isFeasible());
+
+    ImmutableList<Solver.SolverConfig> candidates = candidates();
+    Solver.SolverConfig defaults = candidates.get(0);
+    Map<Difficulty, List<Puzzle>> classes = new EnumMap<>(Difficulty.class);
+    for (Puzzle puzzle : corpus) {
+      long[] costs = IntStream.range(0, SEEDS_PER_PUZZLE).parallel()
+          .mapToLong(seed -> cost(defaults, puzzle, seed))
+          .sorted()
+          .toArray();
+      classes.computeIfAbsent(classify(costs[costs.length / 2]), key -> new ArrayList<>()).add(puzzle);
+    }
+
+    for (Difficulty difficulty : Difficulty.values()) {
+      List<Puzzle> puzzles = classes.getOrDefault(difficulty, ImmutableList.of());
+      if (puzzles.isEmpty()) {
+        System.out.printf("%s: no puzzles%n", difficulty);
+        continue;
+      }
+      Race race = new Race(candidates, puzzles);
+      race.run();
+      System.out.printf("%s (%d puzzles): %s%n    %s%n",
+          difficulty, puzzles.size(), race.recommend(), race.getSummary());
+    }
+  }
+
+  // The defaults first, then every other combination.
+  private static ImmutableList<Solver.SolverConfig> candidates() {
+    ImmutableList.Builder<Solver.SolverConfig> candidates = ImmutableList.builder();
+    candidates.add(tuningConfig().build());
+    for (double[] acceptance : ACCEPTANCES) {
+      for (long restartInterval : RESTART_INTERVALS) {
+        Solver.SolverConfig.Builder builder =
+            tuningConfig().setUphillAcceptance(acceptance[0], acceptance[1]);
+        if (restartInterval != Long.MAX_VALUE) {
+          builder.setRestartInterval(restartInterval);
+        }
+        Solver.SolverConfig candidate = builder.build();
+        if (!candidate.toString().equals(candidates.build().get(0).toString())) {
+          candidates.add(candidate);
+        }
+      }
+    }
+    return candidates.build();
+  }
+
+  private static Solver.SolverConfig.Builder tuningConfig() {
+    return Solver.SolverConfig.builder().setMaximumIterations(TUNING_BUDGET).setVerbose(false);
+  }
+
+  private static Difficulty classify(long cost) {
+    return cost < EASY_BELOW ? Difficulty.EASY
+        : cost < MEDIUM_BELOW ? Difficulty.MEDIUM : Difficulty.HARD;
+  }
+
+  // The iterations a walk took to solve the puzzle, or twice the budget if
+  // it did not.
+  private static long cost(Solver.SolverConfig config, Puzzle puzzle, int seed) {
+    long iterations =
+        new Solver(config, puzzle).countIterationsToTarget(new SplittableRandom(seed));
+    return iterations < 0 ? 2L * TUNING_BUDGET : iterations;
+  }
+
+  // Candidate settings racing over the (puzzle, seed) instances of one class.
+  private static final class Race {
+    final ImmutableList<Solver.SolverConfig> candidates;
+    final List<Puzzle> puzzles;
+    final int instanceCount;
+    final long[][] costs;
+    final BitSet alive = new BitSet();
+    final int[] eliminatedAfter;
+    int instancesRun = 0;
+
+    Race(ImmutableList<Solver.SolverConfig> candidates, List<Puzzle> puzzles) {
+      this.candidates = candidates;
+      this.puzzles = puzzles;
+      this.instanceCount = puzzles.size() * SEEDS_PER_PUZZLE;
+      this.costs = new long[candidates.size()][instanceCount];
+      this.eliminatedAfter = new int[candidates.size()];
+      alive.set(0, candidates.size());
+    }
+
+    void run() {
+      while (instancesRun < instanceCount && alive.cardinality() > 1) {
+        int start = instancesRun;
+        int end = Math.min(instanceCount, start + BLOCK_SIZE);
+        int[] racing = alive.stream().toArray();
+        IntStream.range(0, racing.length * (end - start)).parallel().forEach(job -> {
+          int candidate = racing[job / (end - start)];
+          int instance = start + job % (end - start);
+          costs[candidate][instance] = cost(
+              candidates.get(candidate),
+              puzzles.get(instance / SEEDS_PER_PUZZLE),
+              instance % SEEDS_PER_PUZZLE);
+        });
+        instancesRun = end;
+        eliminate();
+      }
+    }
+
+    // Drops every candidate whose paired difference from the leader is more
+    // than the threshold number of standard errors above zero.
+    private void eliminate() {
+      int leader = getLeader();
+      int n = instancesRun;
+      for (int candidate = alive.nextSetBit(0); candidate >= 0; candidate = alive.nextSetBit(candidate + 1)) {
+        if (candidate == leader) {
+          continue;
+        }
+        double sum = 0;
+        double sumOfSquares = 0;
+        for (int instance = 0; instance < n; ++instance) {
+          double difference = costs[candidate][instance] - costs[leader][instance];
+          sum += difference;
+          sumOfSquares += difference * difference;
+        }
+        double mean = sum / n;
+        double variance = n > 1 ? (sumOfSquares - n * mean * mean) / (n - 1) : 0;
+        double standardError = Math.sqrt(Math.max(0, variance) / n);
+        if (mean > ELIMINATION_THRESHOLD * standardError && mean > 0) {
+          alive.clear(candidate);
+          eliminatedAfter[candidate] = n;
+        }
+      }
+    }
+
+    private int getLeader() {
+      int leader = -1;
+      double leaderMean = Double.POSITIVE_INFINITY;
+      for (int candidate = alive.nextSetBit(0); candidate >= 0; candidate = alive.nextSetBit(candidate + 1)) {
+        double mean = getMean(candidate);
+        if (mean < leaderMean) {
+          leader = candidate;
+          leaderMean = mean;
+        }
+      }
+      return leader;
+    }
+
+    private double getMean(int candidate) {
+      return Arrays.stream(costs[candidate], 0, instancesRun).average().orElse(0);
+    }
+
+    // The leader's settings, with an iteration budget of twice the most it
+    // needed on nine walks in ten.
+    Solver.SolverConfig recommend() {
+      Solver.SolverConfig leader = candidates.get(getLeader());
+      long[] sorted = Arrays.copyOf(costs[getLeader()], instancesRun);
+      Arrays.sort(sorted);
+      long percentile = sorted[Math.min(sorted.length - 1, (int) (0.9 * sorted.length))];
+      int budget = (int) Math.min(Integer.MAX_VALUE, Math.max(10_000, 2 * percentile));
+      Solver.SolverConfig.Builder builder = Solver.SolverConfig.builder()
+          .setMaximumIterations(budget)
+          .setUphillAcceptance(leader.getAcceptanceWithinOne(), leader.getAcceptanceWithinTwo());
+      if (leader.getRestartInterval() != Long.MAX_VALUE) {
+        builder.setRestartInterval(leader.getRestartInterval());
+      }
+      return builder.build();
+    }
+
+    String getSummary() {
+      int leader = getLeader();
+      return String.format(
+          "mean %.0f iterations over %d walks; %d of %d candidates left",
+          getMean(leader), instancesRun, alive.cardinality(), candidates.size());
+    }
+  }
+
+  // A puzzle over a random three quarters of the cards, with a random slot
+  // layout. Its constraints are read off the best selection a short walk finds
+  // when aiming for unreachable values of a few skills and the chemistry; the
+  // longer the walk, the harder the puzzle.
+  private static Puzzle generatePuzzle(CardCatalog catalog, SplittableRandom random) {
+    BitSet excluded = new BitSet(catalog.getMaximumIndex() + 1);
+    for (int index = 0; index <= catalog.getMaximumIndex(); ++index) {
+      if (random.nextInt(4) == 0) {
+        excluded.set(index);
+      }
+    }
+
+    ImmutableMultiset.Builder<MoveType> slots = ImmutableMultiset.builder();
+    for (MoveType type : MoveType.values()) {
+      slots.addCopies(type, 1 + random.nextInt(3));
+    }
+    int boostSlotCount = 2 + random.nextInt(5);
+    ImmutableMap.Builder<Skill, Integer> initialSkill = ImmutableMap.builder();
+    for (Skill skill : Skill.values()) {
+      initialSkill.put(skill, 65 + random.nextInt(16));
+    }
+    Weight weight = Weight.values()[random.nextInt(Weight.values().length)];
+    Style style = Style.values()[random.nextInt(Style.values().length)];
+    List<Skill> skills = new ArrayList<>(Arrays.asList(Skill.values()));
+    List<Skill> constrained = new ArrayList<>();
+    for (int i = 0, count = 1 + random.nextInt(3); i < count; ++i) {
+      constrained.add(skills.remove(random.nextInt(skills.size())));
+    }
+
+    ImmutableMap.Builder<Skill, RangeConstraint> aspirations = ImmutableMap.builder();
+    constrained.forEach(skill -> aspirations.put(skill, RangeConstraint.min(UNREACHABLE)));
+    Puzzle aspiration =
+        new Puzzle(
+            catalog,
+            weight,
+            style,
+            slots.build(),
+            boostSlotCount,
+            aspirations.build(),
+            ImmutableMap.of(SummarySkill.CHEMISTRY, RangeConstraint.min(UNREACHABLE)),
+            ImmutableMap.of(),
+            ImmutableMap.of(),
+            initialSkill.build())
+            .withoutCards(excluded);
+    Solver.SolverConfig walk =
+        tuningConfig().setMaximumIterations(1_000 << random.nextInt(6)).build();
+    Selection reference = new Solver(walk, aspiration).getBestSelection(random);
+
+    ImmutableMap.Builder<Skill, RangeConstraint> skillConstraints = ImmutableMap.builder();
+    constrained.forEach(skill -> skillConstraints.put(
+        skill, RangeConstraint.min(reference.getSkillValue(skill) - random.nextInt(3))));
+    int chemistry = reference.getSummarySkillValue(SummarySkill.CHEMISTRY);
+    return new Puzzle(
+        aspiration.getCatalog(),
+        weight,
+        style,
+        aspiration.getMoveSlots(),
+        boostSlotCount,
+        skillConstraints.build(),
+        ImmutableMap.of(SummarySkill.CHEMISTRY, RangeConstraint.min(chemistry - random.nextInt(3))),
+        ImmutableMap.of(),
+        ImmutableMap.of(),
+        initialSkill.build());
+  }
+
+  private SolverTuner() {}  // Not for instantiation.
+}
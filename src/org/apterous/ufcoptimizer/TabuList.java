@@ -0,0 +1,117 @@
+package org.apterous.ufcoptimizer;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A fixed-size memory of recently forbidden (slot, card) pairs.
+ *
+ * <p>Pairs are kept in a ring buffer in the order they were added, so once
+ * the list is full each new pair pushes out the oldest. Membership is tested
+ * in an open-addressed hash table alongside, which counts how many times each
+ * pair is in the ring. Nothing is allocated after construction.
+ *
+ * <p>Not thread-safe; each search should own its own instance.
+ */
+final class TabuList {
+
+  // No real key has its top bit set, since slots are not negative.
+  private static final long EMPTY = Long.MIN_VALUE;
+
+  private final long[] ring;
+  private int ringStart = 0;
+  private int ringSize = 0;
+
+  private final long[] keys;
+  private final int[] counts;
+  private final int mask;
+
+  /** @param tenure how many of the most recently added pairs are remembered */
+  TabuList(int tenure) {
+    checkArgument(tenure > 0);
+    this.ring = new long[tenure];
+    // At most half full, so probe sequences stay short.
+    int capacity = Integer.highestOneBit(tenure) << 2;
+    this.keys = new long[capacity];
+    this.counts = new int[capacity];
+    this.mask = capacity - 1;
+    Arrays.fill(keys, EMPTY);
+  }
+
+  /**
+   * Forbids the given card from the given slot, forgetting the oldest pair
+   * if the list is full. A null card stands for an empty slot.
+   */
+  void add(int slot, Card card) {
+    if (ringSize == ring.length) {
+      remove(ring[ringStart]);
+      ringStart = ringStart + 1 == ring.length ? 0 : ringStart + 1;
+      --ringSize;
+    }
+    long key = key(slot, card);
+    int end = ringStart + ringSize;
+    ring[end >= ring.length ? end - ring.length : end] = key;
+    ++ringSize;
+
+    int index = find(key);
+    if (index >= 0) {
+      ++counts[index];
+    } else {
+      keys[~index] = key;
+      counts[~index] = 1;
+    }
+  }
+
+  /** Whether the given card is forbidden from the given slot. */
+  boolean contains(int slot, Card card) {
+    return find(key(slot, card)) >= 0;
+  }
+
+  /** Forgets every pair. */
+  void clear() {
+    Arrays.fill(keys, EMPTY);
+    Arrays.fill(counts, 0);
+    ringStart = 0;
+    ringSize = 0;
+  }
+
+  private static long key(int slot, Card card) {
+    return ((long) slot << 32) | (card == null ? 0xffffffffL : card.getIndex());
+  }
+
+  private int home(long key) {
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+  }
+
+  // The index holding the key, or the complement of the empty index where it
+  // would go.
+  private int find(long key) {
+    int index = home(key);
+    while (keys[index] != EMPTY) {
+      if (keys[index] == key) {
+        return index;
+      }
+      index = (index + 1) & mask;
+    }
+    return ~index;
+  }
+
+  private void remove(long key) {
+    int hole = find(key);
+    if (--counts[hole] > 0) {
+      return;
+    }
+    // Shift back any later entry in the probe run that would otherwise be
+    // cut off from its home by the new hole.
+    for (int index = (hole + 1) & mask; keys[index] != EMPTY; index = (index + 1) & mask) {
+      if (((index - home(keys[index])) & mask) >= ((index - hole) & mask)) {
+        keys[hole] = keys[index];
+        counts[hole] = counts[index];
+        hole = index;
+      }
+    }
+    keys[hole] = EMPTY;
+    counts[hole] = 0;
+  }
+}
@@ -0,0 +1,119 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.random.RandomGenerator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A solving engine using tabu search.
+ *
+ * <p>Each step picks a slot at random and tries every unused card that fits
+ * it, and emptying it, keeping whichever gives the lowest naughtiness (then
+ * the lowest cost) even if that is worse than the current state. The card
+ * that was taken out may not go back into that slot until a number of later
+ * steps have passed, which stops the search from immediately undoing its
+ * own moves. A forbidden move is still allowed if it would beat the best
+ * naughtiness seen so far.
+ */
+@Immutable
+final class TabuSolver {
+
+  private final Solver.SolverConfig solverConfig;
+  private final Puzzle puzzle;
+  private final int tenure;
+
+  /** Remembers as many moves as the puzzle has slots. */
+  TabuSolver(Solver.SolverConfig solverConfig, Puzzle puzzle) {
+    this(solverConfig, puzzle, puzzle.getSlotCount());
+  }
+
+  /** @param tenure the number of steps for which a move stays forbidden */
+  TabuSolver(Solver.SolverConfig solverConfig, Puzzle puzzle, int tenure) {
+    checkArgument(tenure > 0);
+    this.solverConfig = checkNotNull(solverConfig);
+    this.puzzle = checkNotNull(puzzle);
+    this.tenure = tenure;
+  }
+
+  /**
+   * Solves the puzzle, returning the best selection seen before any of the
+   * configured limits was hit, which may not be a solution. Each iteration
+   * is one step, that is, one whole slot's worth of candidates.
+   */
+  Selection getBestSelection(RandomGenerator random) {
+    SearchBudget budget = new SearchBudget(solverConfig);
+    Selection selection = new Selection(puzzle, solverConfig.getCostModel().orElse(CostModel.DEFAULT));
+    Neighbourhood neighbourhood = new Neighbourhood(puzzle);
+    TabuList tabuList = new TabuList(tenure);
+
+    Selection bestEver = new Selection(selection);
+    double lowestEverNaughtiness = bestEver.getNaughtiness();
+    budget.recordBest(0, lowestEverNaughtiness);
+
+    double naughtiness = lowestEverNaughtiness;
+    int step;
+    for (step = 0; !budget.isExhausted(step, naughtiness); ++step) {
+      int slot = random.nextInt(puzzle.getSlotCount());
+      Card current = selection.getCard(slot);
+      ImmutableList<? extends Card> candidates = neighbourhood.getCandidates(slot);
+
+      // Try each candidate in turn in the slot, breaking ties at random.
+      Card chosen = current;
+      double chosenNaughtiness = Double.POSITIVE_INFINITY;
+      int chosenCost = Integer.MAX_VALUE;
+      int ties = 0;
+      for (int i = -1; i < candidates.size(); ++i) {
+        Card candidate = i < 0 ? null : candidates.get(i);
+        if (candidate == current || (candidate != null && selection.isUsed(candidate))) {
+          continue;
+        }
+        selection.setCard(slot, candidate);
+        double newNaughtiness = selection.getNaughtiness();
+        if (tabuList.contains(slot, candidate) && newNaughtiness >= lowestEverNaughtiness) {
+          continue;
+        }
+        int newCost = selection.getCost();
+        int comparison = newNaughtiness != chosenNaughtiness
+            ? Double.compare(newNaughtiness, chosenNaughtiness)
+            : Integer.compare(newCost, chosenCost);
+        if (comparison < 0) {
+          ties = 1;
+        } else if (comparison > 0 || random.nextInt(++ties) != 0) {
+          continue;
+        }
+        chosen = candidate;
+        chosenNaughtiness = newNaughtiness;
+        chosenCost = newCost;
+      }
+      selection.setCard(slot, chosen);
+      if (chosen == current) {
+        // Every move was forbidden, or there was nothing to try.
+        continue;
+      }
+      tabuList.add(slot, current);
+      naughtiness = chosenNaughtiness;
+
+      if (naughtiness < lowestEverNaughtiness) {
+        lowestEverNaughtiness = naughtiness;
+        bestEver.copyFrom(selection);
+        budget.recordBest(step, naughtiness);
+        if (solverConfig.isVerbose()) {
+          System.out.printf("%08d: %8.5g [%s]    [%s]%n",
+              step,
+              naughtiness,
+              selection,
+              selection.getDescription());
+        }
+      }
+    }
+
+    if (solverConfig.isVerbose()) {
+      System.out.printf("Stopped after %d iterations: %s%n", step, budget.getReason());
+    }
+    return bestEver;
+  }
+}
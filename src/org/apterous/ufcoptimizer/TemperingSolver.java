@@ -0,0 +1,364 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.SplittableRandom;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.random.RandomGenerator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A solving engine using parallel tempering, also known as replica exchange.
+ *
+ * <p>Several replicas each walk from a selection of their own, on a thread of
+ * their own, accepting uphill steps by the Metropolis rule at their own
+ * temperature: the coldest replica hardly ever climbs, the hottest wanders
+ * almost freely. After every sweep of a fixed number of steps the replicas
+ * meet at a barrier, and each pair of neighbouring temperatures offers to
+ * trade selections. A good selection found while hot can then be refined
+ * while cold, and a cold replica stuck in a local minimum can be heated out
+ * of it. Between barriers the replicas share nothing.
+ *
+ * <p>The iteration limit of the config counts the steps of each replica, and
+ * the other limits are checked at every barrier. Reaching the target
+ * naughtiness stops the search; a {@link CostModel} in the config only breaks
+ * ties between replicas.
+ */
+@Immutable
+final class TemperingSolver {
+
+  /** The outcome of one solve, with statistics about the swaps offered. */
+  static final class Result {
+    private final Selection bestSelection;
+    private final long sweeps;
+    private final SearchBudget.Reason reason;
+    private final ImmutableList<Double> temperatures;
+    private final long[] swapAttempts;
+    private final long[] swapAccepts;
+
+    private Result(
+        Selection bestSelection,
+        long sweeps,
+        SearchBudget.Reason reason,
+        ImmutableList<Double> temperatures,
+        long[] swapAttempts,
+        long[] swapAccepts) {
+      this.bestSelection = bestSelection;
+      this.sweeps = sweeps;
+      this.reason = reason;
+      this.temperatures = temperatures;
+      this.swapAttempts = swapAttempts;
+      this.swapAccepts = swapAccepts;
+    }
+
+    /** The best selection any replica saw, which may not be a solution. */
+    Selection getBestSelection() {
+      return bestSelection;
+    }
+
+    /** The number of sweeps completed by every replica. */
+    long getSweeps() {
+      return sweeps;
+    }
+
+    SearchBudget.Reason getReason() {
+      return reason;
+    }
+
+    /** The temperature of each replica, coldest first. */
+    ImmutableList<Double> getTemperatures() {
+      return temperatures;
+    }
+
+    /** Swaps offered between the replicas at temperatures {@code pair} and {@code pair + 1}. */
+    long getSwapAttempts(int pair) {
+      return swapAttempts[pair];
+    }
+
+    /** Swaps taken between the replicas at temperatures {@code pair} and {@code pair + 1}. */
+    long getSwapAccepts(int pair) {
+      return swapAccepts[pair];
+    }
+
+    /**
+     * The fraction of offered swaps taken between the given pair, or NaN if
+     * none were offered. Rates near zero mean the temperatures are too far
+     * apart for selections to travel between them.
+     */
+    double getSwapAcceptanceRate(int pair) {
+      return swapAttempts[pair] == 0 ? Double.NaN : (double) swapAccepts[pair] / swapAttempts[pair];
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder();
+      for (int pair = 0; pair < swapAttempts.length; ++pair) {
+        builder.append(String.format("%s%.3g<->%.3g: %.3f",
+            pair == 0 ? "" : ", ",
+            temperatures.get(pair),
+            temperatures.get(pair + 1),
+            getSwapAcceptanceRate(pair)));
+      }
+      return builder.toString();
+    }
+  }
+
+  private final Solver.SolverConfig solverConfig;
+  private final Puzzle puzzle;
+  private final ImmutableList<Double> temperatures;
+  private final int sweepLength;
+
+  /**
+   * Uses one replica per processor, at temperatures spaced geometrically
+   * between 0.2 (about as reluctant to climb as {@link Solver}) and 5.
+   */
+  TemperingSolver(Solver.SolverConfig solverConfig, Puzzle puzzle) {
+    this(solverConfig, puzzle, Math.max(2, Runtime.getRuntime().availableProcessors()), 0.2, 5, 1 << 10);
+  }
+
+  /**
+   * @param replicaCount the number of replicas, and of threads
+   * @param coldest the temperature of the coldest replica
+   * @param hottest the temperature of the hottest replica; the others are
+   *     spaced geometrically in between
+   * @param sweepLength the number of steps each replica takes between swaps
+   */
+  TemperingSolver(
+      Solver.SolverConfig solverConfig,
+      Puzzle puzzle,
+      int replicaCount,
+      double coldest,
+      double hottest,
+      int sweepLength) {
+    checkArgument(replicaCount >= 2);
+    checkArgument(coldest > 0 && hottest >= coldest);
+    checkArgument(sweepLength > 0);
+    this.solverConfig = checkNotNull(solverConfig);
+    this.puzzle = checkNotNull(puzzle);
+    ImmutableList.Builder<Double> temperatures = ImmutableList.builder();
+    for (int i = 0; i < replicaCount; ++i) {
+      temperatures.add(coldest * Math.pow(hottest / coldest, (double) i / (replicaCount - 1)));
+    }
+    this.temperatures = temperatures.build();
+    this.sweepLength = sweepLength;
+  }
+
+  /** Same as {@link #solve}, returning only the best selection. */
+  Selection getBestSelection(long rootSeed) {
+    return solve(rootSeed).getBestSelection();
+  }
+
+  /**
+   * Solves the puzzle, blocking until every replica has stopped.
+   *
+   * <p>Each replica, and the swaps, draw from generators split in order from
+   * a root generator with the given seed. Replicas only interact at barriers,
+   * in a fixed order, so the result depends only on the seed, as long as no
+   * time limit or cancellation cuts the search short.
+   */
+  Result solve(long rootSeed) {
+    return new Run(rootSeed).execute();
+  }
+
+  /**
+   * Whether to accept a step by the Metropolis rule: downhill steps always,
+   * uphill steps with probability {@code exp(-worseness / temperature)}.
+   */
+  static boolean metropolis(
+      double oldNaughtiness, double newNaughtiness, double temperature, RandomGenerator random) {
+    double worseness = newNaughtiness - oldNaughtiness;
+    return worseness <= 0 || random.nextDouble() < Math.exp(-worseness / temperature);
+  }
+
+  // One walk at a fixed temperature. The selection it walks from changes hands
+  // when a swap is taken; everything else stays with the temperature.
+  private final class Replica {
+    final double temperature;
+    final RandomGenerator random;
+    final Neighbourhood neighbourhood = new Neighbourhood(puzzle);
+    final AdaptiveOperatorSelector operators = new AdaptiveOperatorSelector();
+
+    Selection selection;
+    double naughtiness;
+    Selection best;
+    double bestNaughtiness;
+
+    Replica(double temperature, RandomGenerator random) {
+      this.temperature = temperature;
+      this.random = random;
+      this.selection =
+          new Selection(puzzle, solverConfig.getCostModel().orElse(CostModel.DEFAULT));
+      this.naughtiness = selection.getNaughtiness();
+      this.best = new Selection(selection);
+      this.bestNaughtiness = naughtiness;
+    }
+
+    // Takes up to the given number of steps, stopping early on reaching the target.
+    void sweep(long steps) {
+      double target = solverConfig.getTargetNaughtiness();
+      for (long step = 0; step < steps; ++step) {
+        MoveOperator operator = neighbourhood.apply(operators.select(random), selection, random);
+        double newNaughtiness = selection.getNaughtiness();
+        if (metropolis(naughtiness, newNaughtiness, temperature, random)) {
+          operators.reward(operator, naughtiness - newNaughtiness);
+          naughtiness = newNaughtiness;
+          if (newNaughtiness < bestNaughtiness) {
+            bestNaughtiness = newNaughtiness;
+            best.copyFrom(selection);
+            if (newNaughtiness <= target) {
+              return;
+            }
+          }
+        } else {
+          operators.reward(operator, 0);
+          neighbourhood.undo(selection);
+        }
+      }
+    }
+  }
+
+  // The state of one solve. Replica threads touch only their own replica
+  // between barriers; everything else is only touched by the barrier action,
+  // which runs while every replica thread is waiting, so no locking is needed.
+  private final class Run {
+    final Replica[] replicas;
+    final RandomGenerator swapRandom;
+    final SearchBudget budget = new SearchBudget(solverConfig);
+    final CyclicBarrier barrier;
+    final Thread[] threads;
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final long[] swapAttempts;
+    final long[] swapAccepts;
+
+    Selection best;
+    long sweeps = 0;
+    long iterations = 0;
+    long nextSweepLength;
+    boolean stopped = false;
+
+    Run(long rootSeed) {
+      ImmutableList<SplittableRandom> randoms = Solver.splitRandoms(rootSeed, temperatures.size() + 1);
+      replicas = new Replica[temperatures.size()];
+      for (int i = 0; i < replicas.length; ++i) {
+        replicas[i] = new Replica(temperatures.get(i), randoms.get(i));
+      }
+      swapRandom = randoms.get(replicas.length);
+      swapAttempts = new long[replicas.length - 1];
+      swapAccepts = new long[replicas.length - 1];
+      best = new Selection(replicas[0].best);
+      budget.recordBest(0, best.getNaughtiness());
+      nextSweepLength = Math.min(sweepLength, solverConfig.getMaximumIterations());
+      stopped = budget.isExhaustedNow(0, best.getNaughtiness());
+      barrier = new CyclicBarrier(replicas.length, this::exchange);
+      threads = new Thread[replicas.length];
+    }
+
+    Result execute() {
+      for (int i = 0; i < replicas.length; ++i) {
+        Replica replica = replicas[i];
+        threads[i] = new Thread(() -> runReplica(replica), "tempering-replica-" + i);
+        threads[i].setDaemon(true);
+      }
+      // Every thread exists before any starts, so a failing replica can
+      // interrupt all the others.
+      for (Thread thread : threads) {
+        thread.start();
+      }
+      for (Thread thread : threads) {
+        Uninterruptibles.joinUninterruptibly(thread);
+      }
+      if (failure.get() != null) {
+        Throwables.throwIfUnchecked(failure.get());
+        throw new IllegalStateException(failure.get());
+      }
+
+      if (solverConfig.isVerbose()) {
+        System.out.printf("Stopped after %d sweeps: %s%n", sweeps, budget.getReason());
+      }
+      Result result = new Result(
+          best, sweeps, budget.getReason(), temperatures, swapAttempts, swapAccepts);
+      if (solverConfig.isVerbose()) {
+        System.out.printf("Swap acceptance: %s%n", result);
+      }
+      return result;
+    }
+
+    private void runReplica(Replica replica) {
+      try {
+        while (!stopped) {
+          replica.sweep(nextSweepLength);
+          barrier.await();
+        }
+      } catch (BrokenBarrierException e) {
+        // Another replica failed and has recorded why.
+      } catch (InterruptedException | RuntimeException | Error e) {
+        // Interrupting the others breaks the barrier for good: a replica
+        // waiting at it, or the next to arrive, is interrupted, and every
+        // other replica then finds the barrier broken.
+        if (failure.compareAndSet(null, e)) {
+          for (Thread thread : threads) {
+            if (thread != Thread.currentThread()) {
+              thread.interrupt();
+            }
+          }
+        }
+      }
+    }
+
+    // Runs once per sweep, on the last replica thread to arrive at the barrier.
+    private void exchange() {
+      ++sweeps;
+      iterations += nextSweepLength;
+      long iteration = iterations;
+      double lowestNaughtiness = best.getNaughtiness();
+      for (Replica replica : replicas) {
+        if (replica.bestNaughtiness < lowestNaughtiness
+            || (replica.bestNaughtiness == lowestNaughtiness
+                && replica.best.getCost() < best.getCost())) {
+          lowestNaughtiness = replica.bestNaughtiness;
+          best.copyFrom(replica.best);
+          if (solverConfig.isVerbose()) {
+            System.out.printf("%08d: %8.5g [%s]    T=%-8.3g    [%s]%n",
+                iteration,
+                lowestNaughtiness,
+                best,
+                replica.temperature,
+                best.getDescription());
+          }
+        }
+      }
+      budget.recordBest(iteration, lowestNaughtiness);
+      if (budget.isExhaustedNow(iteration, lowestNaughtiness)) {
+        stopped = true;
+        return;
+      }
+      nextSweepLength = Math.min(sweepLength, solverConfig.getMaximumIterations() - iteration);
+
+      // Alternate between offering the even and the odd pairs, so that no
+      // replica is in two offers at once.
+      for (int pair = (int) (sweeps & 1); pair + 1 < replicas.length; pair += 2) {
+        Replica colder = replicas[pair];
+        Replica hotter = replicas[pair + 1];
+        ++swapAttempts[pair];
+        double logRatio = (1 / colder.temperature - 1 / hotter.temperature)
+            * (colder.naughtiness - hotter.naughtiness);
+        if (logRatio >= 0 || swapRandom.nextDouble() < Math.exp(logRatio)) {
+          ++swapAccepts[pair];
+          Selection selection = colder.selection;
+          colder.selection = hotter.selection;
+          hotter.selection = selection;
+          double naughtiness = colder.naughtiness;
+          colder.naughtiness = hotter.naughtiness;
+          hotter.naughtiness = naughtiness;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,306 @@
+package org.apterous.ufcoptimizer;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.concurrent.Immutable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+/**
+ * Works out which single change to the collection, a card added or an owned
+ * card upgraded a tier, would make the most currently unsolved puzzles
+ * solvable.
+ *
+ * <p>Every puzzle is solved once over the collection as it is, and the best
+ * selection found for each unsolved one is kept. Then, for each candidate
+ * change and unsolved puzzle, in parallel:
+ *
+ * <ol>
+ * <li>An upgrade cannot help a puzzle without tier constraints.
+ * <li>The puzzle's cached {@link Feasibility} is redone with the card swapped
+ *     in, which looks only at the few best cards kept for each constraint.
+ * <li>Only then is the changed catalog built, for this pair alone. The kept
+ *     selection is tried with the new card in each slot it fits. If none of
+ *     those solves the puzzle, one walk starts from the best of them, rather
+ *     than from an empty selection.
+ * </ol>
+ *
+ * <p>So a puzzle counted as unlocked certainly is, but a short walk may miss
+ * one that could be.
+ *
+ * <p>Usage: {@code WhatIfAnalysis MOVES.csv BOOSTS.csv CANDIDATE_MOVES.csv
+ * CANDIDATE_BOOSTS.csv [--upgrades]}, over the puzzles hard-coded in
+ * {@link Main}. The candidate files list cards not yet owned, in the same
+ * format as the collection. With {@code --upgrades}, upgrading each owned
+ * card below the top tier is a candidate too.
+ */
+@Immutable
+final class WhatIfAnalysis {
+
+  /** A change to the collection: a card added, or an owned card upgraded. */
+  @Immutable
+  static final class Candidate {
+    private final Card card;
+    private final boolean upgrade;
+
+    private Candidate(Card card, boolean upgrade) {
+      this.card = checkNotNull(card);
+      this.upgrade = upgrade;
+    }
+
+    /** Adding a card, whose index no owned card may share. */
+    static Candidate addition(Card card) {
+      return new Candidate(card, false);
+    }
+
+    /** Upgrading an owned card to the next tier. */
+    static Candidate upgrade(Card owned) {
+      checkArgument(owned.getTier().ordinal() < Tier.values().length - 1);
+      return new Candidate(owned.withTier(Tier.values()[owned.getTier().ordinal() + 1]), true);
+    }
+
+    // The owned card replaced by an upgrade, or null for an addition.
+    Card getReplaced(CardCatalog catalog) {
+      return upgrade ? catalog.getCard(card.getIndex()) : null;
+    }
+
+    /** The card added, or the owned card as it would be after the upgrade. */
+    Card getCard() {
+      return card;
+    }
+
+    boolean isUpgrade() {
+      return upgrade;
+    }
+
+    private void checkApplies(CardCatalog catalog) {
+      checkArgument(upgrade == (catalog.getCard(card.getIndex()) != null),
+          "%s must %sbe in the collection", card, upgrade ? "" : "not ");
+    }
+
+    // The given catalog with this change made.
+    CardCatalog applyTo(CardCatalog catalog) {
+      checkApplies(catalog);
+      ImmutableList.Builder<MoveCard> moves = ImmutableList.builder();
+      ImmutableList.Builder<BoostCard> boosts = ImmutableList.builder();
+      catalog.getMoves().stream()
+          .filter(move -> move.getIndex() != card.getIndex())
+          .forEach(moves::add);
+      catalog.getBoosts().stream()
+          .filter(boost -> boost.getIndex() != card.getIndex())
+          .forEach(boosts::add);
+      if (card instanceof MoveCard) {
+        moves.add((MoveCard) card);
+      } else {
+        boosts.add((BoostCard) card);
+      }
+      return catalog.update(new CardFileParser.Cards(moves.build(), boosts.build()));
+    }
+
+    @Override
+    public String toString() {
+      return (upgrade ? "upgrade " : "add ") + card;
+    }
+  }
+
+  /** A candidate, with the puzzles it would make solvable. */
+  @Immutable
+  static final class Ranking {
+    private final Candidate candidate;
+    private final ImmutableList<Integer> unlockedPuzzles;
+
+    private Ranking(Candidate candidate, ImmutableList<Integer> unlockedPuzzles) {
+      this.candidate = candidate;
+      this.unlockedPuzzles = unlockedPuzzles;
+    }
+
+    Candidate getCandidate() {
+      return candidate;
+    }
+
+    /** The indexes of the puzzles unlocked, in increasing order. */
+    ImmutableList<Integer> getUnlockedPuzzles() {
+      return unlockedPuzzles;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%2d %s %s", unlockedPuzzles.size(), candidate, unlockedPuzzles);
+    }
+  }
+
+  private final Solver.SolverConfig solverConfig;
+  private final ImmutableList<Puzzle> puzzles;
+
+  WhatIfAnalysis(Solver.SolverConfig solverConfig, ImmutableList<Puzzle> puzzles) {
+    checkArgument(!puzzles.isEmpty());
+    for (Puzzle puzzle : puzzles) {
+      checkArgument(puzzle.getCatalog() == puzzles.get(0).getCatalog(),
+          "The puzzles must share a catalog");
+    }
+    this.solverConfig = checkNotNull(solverConfig);
+    this.puzzles = puzzles;
+  }
+
+  /**
+   * Ranks the candidates by how many of the puzzles, unsolved over the
+   * current collection, each would make solvable; most first, then in the
+   * order given. Puzzle i is first solved with the generator split at
+   * position i from the given seed (see {@link Solver#splitRandoms}), and
+   * candidate c is then tried on it with the one at position
+   * {@code puzzles * (c + 1) + i}.
+   */
+  ImmutableList<Ranking> analyze(ImmutableList<Candidate> candidates, long rootSeed) {
+    CardCatalog catalog = puzzles.get(0).getCatalog();
+    candidates.forEach(candidate -> candidate.checkApplies(catalog));
+    int puzzleCount = puzzles.size();
+    ImmutableList<SplittableRandom> randoms =
+        Solver.splitRandoms(rootSeed, puzzleCount * (candidates.size() + 1));
+    ImmutableList<Selection> baselines = IntStream.range(0, puzzleCount).parallel()
+        .mapToObj(i -> solve(puzzles.get(i), randoms.get(i)))
+        .collect(toImmutableList());
+    boolean[] unlocks = new boolean[candidates.size() * puzzleCount];
+    IntStream.range(0, unlocks.length).parallel()
+        .filter(job -> !baselines.get(job % puzzleCount).isSolved())
+        .forEach(job -> {
+          int c = job / puzzleCount;
+          int i = job % puzzleCount;
+          unlocks[job] = unlocks(
+              candidates.get(c),
+              puzzles.get(i),
+              baselines.get(i),
+              randoms.get(puzzleCount * (c + 1) + i));
+        });
+
+    return IntStream.range(0, candidates.size())
+        .mapToObj(c -> new Ranking(
+            candidates.get(c),
+            IntStream.range(0, puzzleCount)
+                .filter(i -> unlocks[c * puzzleCount + i])
+                .boxed()
+                .collect(toImmutableList())))
+        .sorted(Comparator.comparingInt(ranking -> -ranking.getUnlockedPuzzles().size()))
+        .collect(toImmutableList());
+  }
+
+  // The best selection of the puzzle over the current collection, or an
+  // empty one if it is infeasible.
+  private Selection solve(Puzzle puzzle, SplittableRandom random) {
+    if (!puzzle.getFeasibility().isFeasible()) {
+      return new Selection(puzzle);
+    }
+    return new Solver(solverConfig, puzzle).getBestSelection(random);
+  }
+
+  // Whether the puzzle can be solved with the candidate's change, starting
+  // from the baseline.
+  private boolean unlocks(
+      Candidate candidate, Puzzle puzzle, Selection baseline, SplittableRandom random) {
+    if (candidate.isUpgrade() && !constrainsTiers(puzzle)) {
+      return false;
+    }
+    CardCatalog catalog = puzzle.getCatalog();
+    if (!puzzle.getFeasibility()
+        .getBlockersAfterSwap(candidate.getReplaced(catalog), candidate.getCard())
+        .isEmpty()) {
+      return false;
+    }
+    Puzzle changed = puzzle.withCatalog(candidate.applyTo(catalog));
+
+    // The baseline's cards, as they are in the changed catalog.
+    Selection start = new Selection(changed);
+    for (int slot = 0; slot < changed.getSlotCount(); ++slot) {
+      Card card = baseline.getCard(slot);
+      start.setCard(slot, card == null ? null : changed.getCatalog().getCard(card.getIndex()));
+    }
+    if (start.isSolved()) {
+      return true;
+    }
+
+    if (!candidate.isUpgrade()) {
+      Card card = candidate.getCard();
+      int bestSlot = -1;
+      double lowestNaughtiness = Double.POSITIVE_INFINITY;
+      for (int slot = 0; slot < changed.getSlotCount(); ++slot) {
+        if (!fits(changed, slot, card)) {
+          continue;
+        }
+        Card previous = start.setCard(slot, card);
+        if (start.isSolved()) {
+          return true;
+        }
+        if (start.getNaughtiness() < lowestNaughtiness) {
+          bestSlot = slot;
+          lowestNaughtiness = start.getNaughtiness();
+        }
+        start.setCard(slot, previous);
+      }
+      if (bestSlot < 0) {
+        return false;
+      }
+      start.setCard(bestSlot, card);
+    }
+    return new Solver(solverConfig, changed).getBestSelection(random, start).isSolved();
+  }
+
+  private static boolean constrainsTiers(Puzzle puzzle) {
+    for (Tier tier : Tier.values()) {
+      if (!puzzle.getCardTierConstraint(tier).acceptsAnything()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Whether the card may go in the given slot of the puzzle.
+  private static boolean fits(Puzzle puzzle, int slot, Card card) {
+    if (slot >= puzzle.getMoveSlotCount()) {
+      return card instanceof BoostCard;
+    }
+    return card instanceof MoveCard
+        && ((MoveCard) card).getMoveType().isStriking() == slot < puzzle.getStrikingSlotCount();
+  }
+
+  public static void main(String[] args) throws IOException {
+    CardCatalog catalog =
+        CardCatalog.of(
+            new CardFileParser(
+                    FileSystems.getDefault().getPath(args[0]),
+                    FileSystems.getDefault().getPath(args[1]))
+                .load());
+    CardFileParser.Cards wanted =
+        new CardFileParser(
+                FileSystems.getDefault().getPath(args[2]),
+                FileSystems.getDefault().getPath(args[3]),
+                catalog.getMaximumIndex() + 1)
+            .load();
+
+    ImmutableList.Builder<Candidate> candidates = ImmutableList.builder();
+    wanted.availableMoves.forEach(card -> candidates.add(Candidate.addition(card)));
+    wanted.availableBoosts.forEach(card -> candidates.add(Candidate.addition(card)));
+    if (args.length > 4 && args[4].equals("--upgrades")) {
+      for (int index = 0; index <= catalog.getMaximumIndex(); ++index) {
+        Card card = catalog.getCard(index);
+        if (card != null && card.getTier() != Tier.MASTER) {
+          candidates.add(Candidate.upgrade(card));
+        }
+      }
+    }
+
+    Solver.SolverConfig config =
+        Solver.SolverConfig.builder().setMaximumIterations(200_000).setVerbose(false).build();
+    ImmutableList<Ranking> rankings =
+        new WhatIfAnalysis(config, Main.getExamplePuzzles(catalog))
+            .analyze(candidates.build(), 129189);
+    rankings.stream()
+        .filter(ranking -> !ranking.getUnlockedPuzzles().isEmpty())
+        .forEach(System.out::println);
+  }
+}